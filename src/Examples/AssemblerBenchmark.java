@@ -0,0 +1,152 @@
+package Examples;
+
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import MarieSimTester.Assembler;
+import MarieSimTester.MarieLexer;
+
+
+public class AssemblerBenchmark {
+/*********************************************************************************
+ * Benchmark: two-pass versus single-pass assembly
+ *
+ * A MARIE source of (nearly) the maximum size is generated with a mix of
+ * backward and forward label references. The source is assembled repeatedly
+ * in both modes of the assembler, and the average time per assembly is reported.
+ *
+ * Microbenchmark: tokenizing the source lines
+ *
+ * The same source is split into tokens by a StringTokenizer over substrings
+ * (as the assembler used to do) and by the MarieLexer over the source characters.
+ * The bytes allocated per line are reported for both, and for a whole assembly.
+ **********************************************************************************/
+
+    static final int SourceLines = 4000;
+    static final int Warmups = 20;
+    static final int Rounds = 50;
+
+    static final String Operations[] = { "Load", "Store", "Add", "Subt", "Jump", "JnS",
+                                         "AddI", "LoadI", "StoreI", "JumpI" };
+    static final String Others[] = { "Input", "Output", "Clear", "Skipcond 400", "Dec 5", "Hex 0F" };
+
+    // Generate a source file with one label every 10 lines, referenced from anywhere.
+    static File generateSource() throws IOException {
+        File masfile = File.createTempFile("bench", ".mas");
+        masfile.deleteOnExit();
+        Random random = new Random(205);
+        int labels = SourceLines/10;
+        BufferedWriter out = new BufferedWriter(new FileWriter(masfile));
+        for (int line=0; line<SourceLines; line++) {
+            if (line%10==0) out.write("L" + (line/10) + ",");
+            out.write("\t");
+            if (random.nextBoolean())
+                out.write(Operations[random.nextInt(Operations.length)] + " L" + random.nextInt(labels));
+            else
+                out.write(Others[random.nextInt(Others.length)]);
+            out.write("\t/ line " + line);
+            out.newLine();
+        }
+        out.close();
+        return masfile;
+    }
+
+    // Average milliseconds per assembly.
+    static double time(String masfilepath, boolean singlePass) {
+        for (int i=0; i<Warmups; i++) Assembler.assembleFile(masfilepath, singlePass);
+        long start = System.nanoTime();
+        for (int i=0; i<Rounds; i++) Assembler.assembleFile(masfilepath, singlePass);
+        return (System.nanoTime()-start) / 1e6 / Rounds;
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM can't tell.
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    // Tokenize the way parseCodeLine() used to: strip the comment, then use a StringTokenizer.
+    static int tokenizeWithStrings(String lines[]) {
+        int tokens = 0;
+        for (String line : lines) {
+            int codeLength = line.indexOf('/');
+            if (codeLength < 0) codeLength = line.length();
+            StringTokenizer st = new StringTokenizer(new StringBuffer(line.substring(0, codeLength)).toString());
+            while (st.hasMoreTokens()) {
+                String token = st.nextToken().toUpperCase();
+                tokens += token.length() > 0 ? 1 : 0;
+            }
+        }
+        return tokens;
+    }
+
+    // Tokenize with the lexer over the characters of the whole source.
+    static int tokenizeWithLexer(char source[]) {
+        int tokens = 0;
+        MarieLexer lexer = new MarieLexer(source, source.length);
+        while (lexer.nextLine()) {
+            tokens += lexer.tokenCount;
+        }
+        return tokens;
+    }
+
+    public static void main(String args[]) throws IOException {
+        File masfile = generateSource();
+        String path = masfile.getPath();
+
+        double twoPass = time(path, false);
+        double singlePass = time(path, true);
+        System.out.println("Source lines: " + SourceLines);
+        System.out.println(String.format("Two-pass:    %8.3f ms per assembly", twoPass));
+        System.out.println(String.format("Single-pass: %8.3f ms per assembly", singlePass));
+        System.out.println(String.format("Speedup:     %8.2fx", twoPass/singlePass));
+
+        long before = allocatedBytes();
+        for (int i=0; i<Rounds; i++) Assembler.assembleFile(path, true);
+        long assembly = (allocatedBytes()-before) / Rounds;
+        System.out.println(String.format("Single-pass: %8d bytes allocated per source line", assembly/SourceLines));
+
+        String text = new String(java.nio.file.Files.readAllBytes(masfile.toPath()));
+        String lines[] = text.split("\n");
+        char source[] = text.toCharArray();
+        for (int i=0; i<Warmups*10; i++) { tokenizeWithStrings(lines); tokenizeWithLexer(source); }
+        before = allocatedBytes();
+        for (int i=0; i<Rounds; i++) tokenizeWithStrings(lines);
+        long strings = (allocatedBytes()-before) / Rounds;
+        before = allocatedBytes();
+        for (int i=0; i<Rounds; i++) tokenizeWithLexer(source);
+        long lexer = (allocatedBytes()-before) / Rounds;
+        System.out.println(String.format("Tokenizer:   %8d bytes allocated per source line", strings/SourceLines));
+        System.out.println(String.format("Lexer:       %8d bytes allocated per source line", lexer/SourceLines));
+
+        // Clean up the outputs of the assembler.
+        String prefix = path.substring(0, path.lastIndexOf('.')+1);
+        for (String type : new String[] { Assembler.listType, Assembler.mapType, Assembler.exeType }) {
+            new File(prefix + type).delete();
+        }
+    }
+}
@@ -17,8 +17,6 @@ package Examples;
  */
 
 
-import MarieSimTester.Test;
-
 public class TestArray {
 /*********************************************************************************
  *  This module tests the sequential access of an array.
@@ -60,7 +58,7 @@ public class TestArray {
         final int maxPollCount = 3;
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);        
+        Usage.tester().singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);        
     }
 
     
@@ -73,7 +71,7 @@ public class TestArray {
         final int maxPollCount = 3;  // tune accordingly to allow enough time.
 
         if (maspath==null) maspath = fn.DefaultMasfilepath;
-        (new Test()).multiRunsDec2Dec(maspath, inputs, expectedOutputs, maxPollCount);
+        Usage.tester().multiRunsDec2Dec(maspath, inputs, expectedOutputs, maxPollCount);
     }
 
     
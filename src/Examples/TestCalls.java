@@ -0,0 +1,63 @@
+package Examples;
+
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+
+import MarieSimTester.AssemblyCache;
+import MarieSimTester.IOMode;
+import MarieSimTester.MarieMachine;
+import MarieSimTester.MarieSim;
+import MarieSimTester.RunMetrics;
+
+
+public class TestCalls {
+/*********************************************************************************
+ * 
+ *  Check: the call depth of a subroutine that never returns
+ * 
+ *  The sample program calls a subroutine five times in a loop; the subroutine
+ *  leaves with a Jump, so each call overwrites the return address of the one
+ *  before it. The run's metrics must count one level of calls, not five.
+ *********************************************************************************/
+
+    static final String DefaultMasfilepath = "testbed/calls.mas";
+    static final long Budget = 10000;
+
+    public static void main(String args[]) {
+        File masfile = new File(args.length>=1 ? args[0] : DefaultMasfilepath);
+        if (AssemblyCache.getShared().assemble(masfile)!=0) {
+            System.out.println("Cannot assemble " + masfile.getPath() + ".");
+            return;
+        }
+        MarieMachine machine = new MarieMachine();
+        machine.setOutputMode(IOMode.dec.getValue());
+        if (!machine.load(new File(masfile.getPath().replace(".mas", ".mex")))) {
+            System.out.println("Cannot load " + masfile.getPath() + ".");
+            return;
+        }
+        machine.restart();
+        int state = machine.run(Budget);
+        RunMetrics metrics = machine.getMetrics();
+        String output = machine.getOutput().trim();
+        System.out.println("Output " + output + ", deepest call nesting " + metrics.getMaxCallDepth() + ".");
+        if (state==MarieSim.MARIE_HALTED_NORMAL && output.equals("5") && metrics.getMaxCallDepth()==1)
+            System.out.println("Passed.");
+        else
+            System.out.println("FAILED: expected output 5 and a call nesting of 1.");
+    }
+}
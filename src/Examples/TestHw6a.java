@@ -16,8 +16,10 @@ package Examples;
  * limitations under the License.
  */
 
-
-import MarieSimTester.Test;
+import MarieSimTester.IOMode;
+import MarieSimTester.InputDomain;
+import MarieSimTester.PropertyTest;
+import MarieSimTester.ReferenceModel;
 
 public class TestHw6a {
 /*********************************************************************************
@@ -93,7 +95,7 @@ public class TestHw6a {
         final int maxPollCount = 3;
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);
+        Usage.tester().singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);
         
     }
         
@@ -111,18 +113,48 @@ public class TestHw6a {
         final int maxPollCount = 3;  // tune accordingly to allow enough time.
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).multiRunsDec2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
+        Usage.tester().multiRunsDec2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
     }
 
     
+    // Check random runs over the whole range of a MARIE word against Qn1.
+    public static void testRandomRuns(String masfilepath, int cases) {
+        final CSC205HW6a fn = new CSC205HW6a();
+        final int maxPollCount = 3;
+        InputDomain domain = InputDomain.dec(-32768, 32767, 1, 1);
+        ReferenceModel model = new ReferenceModel() {
+            public String expectedOutput(String input) { return fn.output(Integer.parseInt(input)); }
+        };
+
+        if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
+        PropertyTest tester = Usage.propertyTest();
+        tester.check(masfilepath, domain, IOMode.dec, model, cases, maxPollCount);
+        tester.setReport(null);
+    }
+
+    // Sweep mode: test every 16-bit input against the model.
+    public static void testSweep(String masfilepath) {
+        final CSC205HW6a fn = new CSC205HW6a();
+        final int maxPollCount = 3;
+        InputDomain domain = InputDomain.dec(-32768, 32767, 1, 1);
+        ReferenceModel model = new ReferenceModel() {
+            public String expectedOutput(String input) { return fn.output(Integer.parseInt(input)); }
+        };
+
+        if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
+        PropertyTest tester = Usage.propertyTest();
+        tester.sweep(masfilepath, domain, IOMode.dec, model, maxPollCount);
+        tester.setReport(null);
+    }
+
     public static void main(String args[]) {
-        if (args.length>=1) {
-            testMultiRun(args[0]);
-        }
-        else {
+        if (args.length<1) {
             // default
             Usage.print(TestHw6a.class, CSC205HW6a.DefaultMasfilepath);
-            testMultiRun(null);
         }
+        String masfilepath = args.length>=1 ? args[0] : null;
+        if (Usage.sweep()) testSweep(masfilepath);
+        else if (Usage.randomCases()>0) testRandomRuns(masfilepath, Usage.randomCases());
+        else testMultiRun(masfilepath);
     }    
 }
@@ -16,9 +16,10 @@ package Examples;
  * limitations under the License.
  */
 
-
-import MarieSimTester.Test;
-
+import MarieSimTester.IOMode;
+import MarieSimTester.InputDomain;
+import MarieSimTester.PropertyTest;
+import MarieSimTester.ReferenceModel;
 
 public class TestParity {
 /*********************************************************************************
@@ -147,7 +148,7 @@ public class TestParity {
         final int maxPollCount = 10;
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).singleRunAscii2Dec(masfilepath, input, expectedOutput, maxPollCount);
+        Usage.tester().singleRunAscii2Dec(masfilepath, input, expectedOutput, maxPollCount);
     }
     
     
@@ -175,7 +176,7 @@ public class TestParity {
         }
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).multiRunsAscii2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
+        Usage.tester().multiRunsAscii2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
         
     }
 
@@ -197,19 +198,50 @@ public class TestParity {
         }
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).multiRunsAscii2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
+        Usage.tester().multiRunsAscii2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
     }
 
     
 
+    // Check random runs of 1 to 10 characters against the Parity class.
+    // A failing run is shrunk to a minimal failing input before it is logged.
+    public static void testRandomRuns(String masfilepath, int cases) {
+        final Parity fn = new Parity();
+        final int maxPollCount = 25;
+        InputDomain domain = InputDomain.ascii(InputDomain.range((char) Parity.start, (char) Parity.end), 1, 10);
+        ReferenceModel model = new ReferenceModel() {
+            public String expectedOutput(String input) { return fn.output(input); }
+        };
+
+        if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
+        PropertyTest tester = Usage.propertyTest();
+        tester.check(masfilepath, domain, IOMode.dec, model, cases, maxPollCount);
+        tester.setReport(null);
+    }
+
+    // Sweep mode: test every character on its own against the model, rather than in runs of 10.
+    public static void testSweep(String masfilepath) {
+        final Parity fn = new Parity();
+        final int maxPollCount = 5;
+        InputDomain domain = InputDomain.ascii(InputDomain.range((char) Parity.start, (char) Parity.end), 1, 1);
+        ReferenceModel model = new ReferenceModel() {
+            public String expectedOutput(String input) { return fn.output(input); }
+        };
+
+        if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
+        PropertyTest tester = Usage.propertyTest();
+        tester.sweep(masfilepath, domain, IOMode.dec, model, maxPollCount);
+        tester.setReport(null);
+    }
+
     public static void main(String args[]) {
-        if (args.length>=1) {
-            testMultiRunAllChars(args[0]);
-        }
-        else {
+        if (args.length<1) {
             // default
             Usage.print(TestParity.class, Parity.DefaultMasfilepath);
-            testMultiRunAllChars(null);
         }
+        String masfilepath = args.length>=1 ? args[0] : null;
+        if (Usage.sweep()) testSweep(masfilepath);
+        else if (Usage.randomCases()>0) testRandomRuns(masfilepath, Usage.randomCases());
+        else testMultiRunAllChars(masfilepath);
     }    
 }
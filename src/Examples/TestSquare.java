@@ -17,8 +17,6 @@ package Examples;
  */
 
 
-import MarieSimTester.Test;
-
 public class TestSquare {
 /*********************************************************************************
  *  This module tests the square of an integer.
@@ -77,7 +75,7 @@ public class TestSquare {
         final int maxPollCount = 3;
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);        
+        Usage.tester().singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);        
     }
 
     public static void testMultiRun(String masfilepath) {
@@ -93,7 +91,7 @@ public class TestSquare {
         final int maxPollCount = 3;  // tune accordingly to allow enough time.
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).multiRunsDec2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
+        Usage.tester().multiRunsDec2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
     }
 
     
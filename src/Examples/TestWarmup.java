@@ -17,8 +17,6 @@ package Examples;
  */
 
 
-import MarieSimTester.Test;
-
 public class TestWarmup {
 /*********************************************************************************
  * 
@@ -94,7 +92,7 @@ public class TestWarmup {
         final int maxPollCount = 3;
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);
+        Usage.tester().singleRunDec2Dec(masfilepath, input, expectedOutput, maxPollCount);
     }
         
 
@@ -108,7 +106,7 @@ public class TestWarmup {
         final int maxPollCount = 3;  // tune accordingly to allow enough time.
 
         if (masfilepath==null) masfilepath = fn.DefaultMasfilepath;
-        (new Test()).multiRunsDec2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
+        Usage.tester().multiRunsDec2Dec(masfilepath, inputs, expectedOutputs, maxPollCount);
     }
 
     
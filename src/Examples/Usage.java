@@ -16,13 +16,76 @@ package Examples;
  * limitations under the License.
  */
 
+import java.awt.GraphicsEnvironment;
+
+import MarieSimTester.HeadlessTest;
+import MarieSimTester.OutputComparator;
+import MarieSimTester.PropertyTest;
+import MarieSimTester.SuiteExporter;
+import MarieSimTester.Test;
+import MarieSimTester.Tester;
+
 public class Usage {
+    // Run the tests in MarieSim, or without a display if there is none
+    // or if the JVM is started with -Dmarie.headless=true
+    // With -Dmarie.export=<file.suite> the tests are written to a suite file instead.
+    // With -Dmarie.report=<prefix> the runs are reported to prefix.csv and prefix.xml.
+    // With -Dmarie.compare=<name> the outputs are compared by the named OutputComparator.
+    // With -Dmarie.reference=<file.mas> the files are ranked against a reference solution.
+    // With -Dmarie.budget=<m> as well, each case is given m times the instructions the reference executes.
+    public static Tester tester() {
+        Tester tester;
+        if (System.getProperty("marie.export")!=null)
+            tester = new SuiteExporter(System.getProperty("marie.export"));
+        else if (GraphicsEnvironment.isHeadless() || Boolean.getBoolean("marie.headless"))
+            tester = new HeadlessTest();
+        else
+            tester = new Test();
+        tester.setReference(System.getProperty("marie.reference"));
+        tester.setReport(System.getProperty("marie.report"));
+        tester.setComparator(comparator());
+        tester.setBudget(HeadlessTest.budget());
+        return tester;
+    }
+
+    static OutputComparator comparator() {
+        String name = System.getProperty("marie.compare");
+        return name==null ? null : OutputComparator.named(name);
+    }
+
+    // With -Dmarie.random=<n> the examples that have a reference model check n random cases instead.
+    public static int randomCases() {
+        return Integer.getInteger("marie.random", 0);
+    }
+
+    // With -Dmarie.sweep=true the examples that have a reference model test every input of its domain instead.
+    public static boolean sweep() {
+        return Boolean.getBoolean("marie.sweep");
+    }
+
+    public static PropertyTest propertyTest() {
+        PropertyTest tester = new PropertyTest();
+        tester.setWorkers(Integer.getInteger("marie.workers", Runtime.getRuntime().availableProcessors()));
+        if (System.getProperty("marie.seed")!=null) tester.setSeed(Long.getLong("marie.seed", 0));
+        tester.setReport(System.getProperty("marie.report"));
+        tester.setComparator(comparator());
+        return tester;
+    }
+
     public static void print(Class c, String defaultFilePath) {
     	System.out.println("Usage:");
     	System.out.println(c.getName() + " (no arg)\t: use default test file " 
     			+ (defaultFilePath!=null?defaultFilePath:"(not available)"));
     	System.out.println(c.getName() + " file.mas\t: conduct tests on file.mas");
     	System.out.println(c.getName() + " directory\t: conduct tests on all *.mas files within directory");
+    	System.out.println("Add -Dmarie.headless=true to run the tests without the simulator window.");
+    	System.out.println("Add -Dmarie.export=file.suite to write the tests to a suite file instead.");
+    	System.out.println("Add -Dmarie.report=prefix to write a grading report to prefix.csv and prefix.xml.");
+    	System.out.println("Add -Dmarie.compare=tokens|exact|unordered|tolerance:n to choose how the outputs are compared.");
+    	System.out.println("Add -Dmarie.reference=file.mas to rank the files against a reference solution.");
+    	System.out.println("Add -Dmarie.budget=m to give each case m times the instructions the reference executes.");
+    	System.out.println("Add -Dmarie.random=n to check n random cases against the reference model (-Dmarie.seed=s to repeat).");
+    	System.out.println("Add -Dmarie.sweep=true to test every input of the reference model's domain (-Dmarie.workers=n).");
     }
 
 }
@@ -50,6 +50,13 @@ public class Assembler implements Serializable {
 *                                                                                                   *
 *  June 23, 2010: Added instructions LoadI and StoreI.                                              *
 *                                                                                                   *
+*  Single-pass mode: When the singlePass flag is set, the assembler makes only one pass over the    *
+*  source code.  Parsed lines are kept in memory instead of the intermediate workfile.  A symbolic  *
+*  operand whose label is already defined is resolved at once; otherwise the code line is placed    *
+*  on a list of "fix-ups" for that symbol which is patched when the label is defined.  Any fix-ups  *
+*  still outstanding when END (or end of file) is reached are reported as undefined operands.       *
+*  The listing, map and executable produced are the same as those of the two-pass assembly.         *
+*                                                                                                   *
 *                                                                                                   *
 ****************************************************************************************************/
 /*
@@ -75,6 +82,8 @@ public class Assembler implements Serializable {
   public static final String   listType = "lst";  //       LST = Assembler listing (text)
   public static final String    mapType = "map";  //       MAP = Symbol table (text)
   public static final String    exeType = "mex";  //       MEX = Executable for simulator
+  public static final String    VERSION = "03.00.02";  // Assembler version.  Change this whenever
+                                                       // the output for a given source changes.
 
 /* --                                                                                 -- */
 /* --  Constants.                                                                     -- */
@@ -96,6 +105,8 @@ public class Assembler implements Serializable {
   public static final String fileSeparator = System.getProperty("file.separator");
   public static final String lineFeed      = System.getProperty("line.separator");
   public static final String formFeed      = "\014";
+  public static final String[] hexDigits = {"0", "1", "2", "3", "4", "5", "6", "7",  // Hex codes
+                                            "8", "9", "A", "B", "C", "D", "E", "F"}; // 0 to F.
 
   public static final String[] errorMsgs = {
            "ORiGination directive must be first noncomment line of program ", //  0
@@ -115,12 +126,9 @@ public class Assembler implements Serializable {
 /* --                                                                                 -- */
 /* --   Instance variables                                                            -- */
 /* --                                                                                 -- */
-                                     // Hashtables are used for the instruction set and the 
-                                     // symbol table so that we can easily search them and
-                                     // retrieve values.
-  public Hashtable symbolTable                    // Initial capacity 18, load factor 0.75.
-                           = new Hashtable(18, (float) 0.75);
-  public final Hashtable instructionSet = new Hashtable(18);
+                                     // The instruction set is MarieLexer's table.  The
+                                     // symbol table has a class of its own (SymbolTable).
+  public final SymbolTable symbolTable = new SymbolTable();
  
   public int lineNumber;                          // Current instruction address.
   public int errorCount = 0;                      // Total number of errors in assembly.
@@ -130,67 +138,11 @@ public class Assembler implements Serializable {
   public boolean operandReqd = false;             // Does current instruction need an operand?
   public boolean hasLabel = false;                // Is current instruction labeled?
   public int maxSymbolLength = 0;                 // Longest symbol in code (for formatting).
-
-  class SymbolEntry {            
-  /******************************************************************************************
-  *  Inner class SymbolEntry is the framework for the objects that are used to store and    *
-  *  retrieve values that form the Assembler's symbol table.  As these objects are          * 
-  *  instantiated, they are placed in a HashTable structure.  As references to the symbols  *
-  *  are found, they are added to the SymbolEntry's vector of references.                   *
-  ******************************************************************************************/
-    String symbol = null;        // The symbol itself.
-    String address = null;       // Where it is defined.
-    Vector referencedAt;         // List of locations where referenced.
-
-    SymbolEntry(String s, String a) {
-      symbol = s;
-      address = a;
-      referencedAt = new Vector();
-    } // SymbolEntry()
-  } // SymbolEntry
-
-  class Instruction implements Serializable {
-  /******************************************************************************************
-  * Inner class Instruction stores the important components of a Marie machine instruction. *
-  ******************************************************************************************/
-    String mnemonic;             // Instruction mnemonic
-    byte hexCode;                // Hex code of instruction
-    boolean addrReqd;            // Flag to indicate whether an operand is required.
-
-    Instruction(String mnemonic, byte hexCode, boolean addrReqd) {
-      this.mnemonic = mnemonic;
-      this.hexCode = hexCode;
-      this.addrReqd = addrReqd;
-    } // Instruction()
-  } // Instruction
-
-/******************************************************************************************
-*  Create searchable instruction set hashtable from a stream of literal values.  The      *
-*  Instruction objects end up in a Hashtable. The format for this hashtable is given      *
-*  in the class definition for Instruction (above).                                       *
-******************************************************************************************/
-void loadInstructionSet() {
- instructionSet.put("JNS",        new Instruction("JNS",        (byte) 0,   true));
- instructionSet.put("LOAD",       new Instruction("LOAD",       (byte) 1,   true));
- instructionSet.put("STORE",      new Instruction("STORE",      (byte) 2,   true));
- instructionSet.put("ADD",        new Instruction("ADD",        (byte) 3,   true));
- instructionSet.put("SUBT",       new Instruction("SUBT",       (byte) 4,   true));
- instructionSet.put("INPUT",      new Instruction("INPUT",      (byte) 5,   false));
- instructionSet.put("OUTPUT",     new Instruction("OUTPUT",     (byte) 6,   false));
- instructionSet.put("HALT",       new Instruction("HALT",       (byte) 7,   false));
- instructionSet.put("SKIPCOND",   new Instruction("SKIPCOND",   (byte) 8,   true));
- instructionSet.put("JUMP",       new Instruction("JUMP",       (byte) 9,   true));
- instructionSet.put("CLEAR",      new Instruction("CLEAR",      (byte) 10,  false));
- instructionSet.put("ADDI",       new Instruction("ADDI",       (byte) 11,  true));
- instructionSet.put("JUMPI",      new Instruction("JUMPI",      (byte) 12,  true));
- instructionSet.put("LOADI",      new Instruction("LOADI",      (byte) 13,  true));
- instructionSet.put("STOREI",     new Instruction("STOREI",     (byte) 14,  true)); 
- instructionSet.put("DEC",        new Instruction("DEC",        (byte) DEC, true));
- instructionSet.put("OCT",        new Instruction("OCT",        (byte) OCT, true));
- instructionSet.put("HEX",        new Instruction("HEX",        (byte) HEX, true));
- instructionSet.put("ORG",        new Instruction("ORG",        (byte) ORG, true));
- instructionSet.put("END",        new Instruction("END",        (byte) END, false));
-} // loadInstructionSet()
+  public int mnemonicIndex = -1;                  // Instruction set index of last mnemonic found.
+  public boolean singlePass = false;              // Resolve symbols while reading the source?
+  public ArrayList codeLines = new ArrayList();   // Assembled code lines (single-pass mode).
+  public Hashtable fixups = new Hashtable();      // Code lines awaiting a symbol's address,
+                                                  // keyed by symbol (single-pass mode).
 
 
 /* ------------------------------------------------------------------------------------- */
@@ -202,20 +154,34 @@ String statementLabel(String stmt) {
 *  Looks for label punctuation in the parameter String.  Returns the label if found       *
 *  and calls method to add the symbol to the instruction table.                           *
 ******************************************************************************************/
-  String aSymbol = null;
-  int i = stmt.indexOf(LABEL_DELIM);         // Find the delimiter.
-  if (i < 0)                                 // If none found, we're outta here.
+  char[] stmtChars = stmt.toCharArray();
+  return statementLabel(stmtChars, 0, stmtChars.length);
+} // statementLabel()
+
+
+String statementLabel(char[] b, int start, int end) {
+/******************************************************************************************
+*  Same as above for the token b[start..end) of the source.  The label String is created  *
+*  only if a label is found.                                                              *
+******************************************************************************************/
+  int i = start;
+  while ((i < end) && (b[i] != LABEL_DELIM)) // Find the delimiter.
+    i++;
+  if (i == end)                              // If none found, we're outta here.
     return " ";
   hasLabel = true;                           // Set this for anything delimited. 
-  if (i == 0)                                // Note: Index == 0 => label punct in first
-    return " ";                              //         position => null label.
+  if (i == start)                            // Note: Index == start => label punct in
+    return " ";                              //   first position => null label.
 
-  aSymbol = stmt.substring(0, i);
-  char ch = aSymbol.charAt(0);
-  if (Character.isDigit(ch)) {
+  if (Character.isDigit(b[start])) {
     setErrorMessage(errorMsgs[1]);
     return " ";
   }
+  if (symbolTable.indexOf(b, start, i) >= 0) {  // Don't create a String for a
+    setErrorMessage(errorMsgs[2]);              // duplicate.
+    return " ";
+  }
+  String aSymbol = new String(b, start, i - start);
   if (!addedToSymbolTable(aSymbol)) {
     return " ";
   }
@@ -232,26 +198,7 @@ boolean tokenIsLiteral(String token) {
 * symbol A.)  Note, the check of the token is case insensitive.                           *
 ******************************************************************************************/
   char[] tokenChars = token.toCharArray();
-  if (!Character.isDigit(tokenChars[0]))    // First character of a numeric
-   return false;                            // literal must be 0..9.
-  for (int i = 0; i < token.length(); i++)  // Now check that the rest of the literal is 
-    if (!Character.isDigit(tokenChars[i]))  // a valid hex number.
-      switch (tokenChars[i]) {
-        case 'A':
-        case 'a':
-        case 'B':
-        case 'b':
-        case 'C':
-        case 'c':
-        case 'D':
-        case 'd':
-        case 'E':
-        case 'e':
-        case 'F': 
-        case 'f':break;
-        default: return false;
-      } // switch
-    return true;
+  return MarieLexer.isLiteral(tokenChars, 0, tokenChars.length);
 } // tokenIsLiteral()
 
 
@@ -285,53 +232,45 @@ int literalToInt(int literalType, String literal, boolean directive) {
 *        in an imperative MARIE assembler statement.                                      *
 * This method will return Integer.MAX_VALUE to flag any exceptions thrown.  (We can get   *
 * away with this because Marie's word size is smaller than Java's.)                       *
+******************************************************************************************/
+  char[] literalChars = literal.toCharArray();
+  return literalToInt(literalType, literalChars, 0, literalChars.length, directive);
+} // literalToInt()
+
+
+int literalToInt(int literalType, char[] b, int start, int end, boolean directive) {
+/******************************************************************************************
+* Same as above for the literal b[start..end) of the source.  The conversion is done by   *
+* MarieLexer.parse(), which accepts exactly what Integer.parseInt() accepts.              *
 ******************************************************************************************/
   int result = Integer.MAX_VALUE;
+  int radix = 0;
+  String errorMsg = null;
 
   switch (literalType) {
-    case (DEC): {      // DECimal literal.
-                 try {
-                   result = validMarieValue(Integer.parseInt(literal, 10));
-                   if (result == Integer.MAX_VALUE)
-                     throw new NumberFormatException();
-                 }
-                 catch (NumberFormatException e) {
-                   setErrorMessage(errorMsgs[7]);
-                   result = Integer.MAX_VALUE;
-                 }
-                 break;
-               }
-    case (OCT): {      // OCTal literal.
-                 try {
-                  result = validMarieValue(Integer.parseInt(literal, 8));
-                  if (result == Integer.MAX_VALUE)
-                     throw new NumberFormatException();
-                 }
-                 catch (NumberFormatException e) {
-                   setErrorMessage(errorMsgs[8]);
-                   result = Integer.MAX_VALUE;
-                 }
-                 break;
-               }
-    case (HEX):
-    case (ORG): {    // HEXadecimal literal or ORiGination directive.
-                 try {
-                   result = validMarieValue(Integer.parseInt(literal, 16));
-                   if (result == Integer.MAX_VALUE)
-                     throw new NumberFormatException();
-                 }
-                 catch (NumberFormatException e) {
-                   if (literalType == ORG)
-                     setErrorMessage(errorMsgs[6]);
-                   else
-                     setErrorMessage(errorMsgs[9]);
-                   result = Integer.MAX_VALUE;
-                 }
-                 break;
-               }
+    case (DEC): radix = 10;                 // DECimal literal.
+                errorMsg = errorMsgs[7];
+                break;
+    case (OCT): radix = 8;                  // OCTal literal.
+                errorMsg = errorMsgs[8];
+                break;
+    case (HEX): radix = 16;                 // HEXadecimal literal.
+                errorMsg = errorMsgs[9];
+                break;
+    case (ORG): radix = 16;                 // ORiGination directive.
+                errorMsg = errorMsgs[6];
+                break;
     case (END):
   } // switch()
 
+  if (radix > 0) {
+    long value = MarieLexer.parse(b, start, end, radix);
+    if (value != MarieLexer.Invalid)
+      result = validMarieValue((int) value);
+    if (result == Integer.MAX_VALUE)
+      setErrorMessage(errorMsg);
+  }
+
   if ( result == Integer.MAX_VALUE )             // If we found an error, we're done.
     return 0; 
 
@@ -398,30 +337,46 @@ boolean addedToSymbolTable(String symbol) {
 * successfully added to the symbol table.  If the symbol is already in the symbol table,  *
 * this method will return false.                                                          *
 ******************************************************************************************/
-  SymbolEntry se;
-  if (symbolTable.containsKey(symbol)) {
+  int se = symbolTable.define(symbol, to3CharHexStr(lineNumber));
+  if (se < 0) {
     setErrorMessage(errorMsgs[2]);
     return false;
   }
-  se = new SymbolEntry(symbol, to3CharHexStr(lineNumber));
-  symbolTable.put(symbol, se);
   if (symbol.length() > maxSymbolLength)      // Get this size for output formatting
      maxSymbolLength = symbol.length();
+  if (singlePass)                             // Patch any forward references.
+     resolveFixups(se);
   return true;
 } // addToSymbolTable()
 
 
+void resolveFixups(int se) {
+/******************************************************************************************
+* Single-pass mode only.  Supplies the address of a newly-defined symbol to every code    *
+* line that referenced it before it was defined.  The fix-ups are kept in source order,   *
+* so the symbol's references are recorded in the same order as the two-pass assembler    *
+* records them.                                                                           *
+******************************************************************************************/
+  ArrayList pending = (ArrayList) fixups.remove(symbolTable.getName(se));
+  if (pending == null)
+    return;
+  for (int i = 0; i < pending.size(); i++) {
+    AssembledCodeLine aCodeLine = (AssembledCodeLine) pending.get(i);
+    aCodeLine.operand = symbolTable.getAddressText(se);
+    symbolTable.addReference(se, Integer.parseInt(aCodeLine.lineNo, 16));
+  }
+} // resolveFixups()
+
+
 String getSymbolAddress(String symbol, String referenceLine) {
 /******************************************************************************************
 * Retrieves the address where the symbol is defined from the symbol table.                *
 ******************************************************************************************/
-  SymbolEntry se;
   String address = null;
-  if (symbolTable.containsKey(symbol)) {
-     se =(SymbolEntry) symbolTable.get(symbol);
-     address = se.address;
-     se.referencedAt.add(referenceLine);
-     symbolTable.put(symbol, se);
+  int se = symbolTable.indexOf(symbol);
+  if (se >= 0) {
+     address = symbolTable.getAddressText(se);
+     symbolTable.addReference(se, Integer.parseInt(referenceLine, 16));
     }
   else 
     setErrorMessage(errorMsgs[10]);
@@ -446,19 +401,29 @@ String padStr(String s, int size) {
 
 int getOpcode(String stmt) {
 /******************************************************************************************
-* Tries to find the argument stmt in the Hashmap instructionSet.  If not found, returns   *
+* Tries to find the argument stmt in the instruction set.  If not found, returns          *
 * Java Integer.MIN_VALUE (a number we'd never see in a MARIE instruction set).            *
 * Also makes a "special case" check that an ORiGination statement must be the first       *
 * non-comment line of a MARIE program.                                                    *
 ******************************************************************************************/
-  Instruction instruction;
+  char[] stmtChars = stmt.toCharArray();
+  return getOpcode(stmtChars, 0, stmtChars.length);
+} // getOpcode()
+
+
+int getOpcode(char[] b, int start, int end) {
+/******************************************************************************************
+* Same as above for the token b[start..end) of the source.  The (case insensitive) search *
+* is done by the lexer's switch table, and the index of the instruction found is left in  *
+* mnemonicIndex (-1 if none) so that the caller can use the mnemonic's String.            *
+******************************************************************************************/
   int value = 0;
 
-  if (instructionSet.containsKey(stmt)) {                     // Try to find stmt value in
-     instruction = (Instruction) instructionSet.get(stmt);    // instruction set.
-     operandReqd = instruction.addrReqd;
-     value = instruction.hexCode;
-     if (instruction.hexCode == ORG) {                        // If found and is an
+  mnemonicIndex = MarieLexer.mnemonic(b, start, end);         // Try to find stmt value in
+  if (mnemonicIndex >= 0) {                                   // instruction set.
+     operandReqd = MarieLexer.OperandRequired[mnemonicIndex];
+     value = MarieLexer.Opcodes[mnemonicIndex];
+     if (value == ORG) {                                      // If found and is an
        if (lineNumber > 0) {                                  // ORiGination, return error
          setErrorMessage(errorMsgs[0]);                       // if not the first non-
          value = Integer.MIN_VALUE;                           // comment line.
@@ -473,6 +438,17 @@ int getOpcode(String stmt) {
 } // getOpcode()
 
 
+String mnemonicText(char[] b, int start, int end) {
+/******************************************************************************************
+* Returns the mnemonic found by the last getOpcode() call in upper case.  Mnemonics from  *
+* the instruction set share the instruction set's Strings.                                *
+******************************************************************************************/
+  if (mnemonicIndex >= 0)
+    return MarieLexer.Mnemonics[mnemonicIndex];
+  return new String(b, start, end - start).toUpperCase();
+} // mnemonicText()
+
+
 void setErrorMessage(String msg) {
 /******************************************************************************************
 * Increments the error count, sets the error flag and adds the message string of the      *
@@ -490,11 +466,26 @@ void setErrorMessage(String msg) {
 AssembledCodeLine parseCodeLine(String inputLine) {
 /******************************************************************************************
 * This method controls extraction of symbols from a single line of source code passed as  *
-* a String argument.  The return value is an object composed of the extracted tokens      *
-* along with a Vector containing any error messages found, and the input line itself.     *
-* If the inputLine is a blank line or a comment, the token-related fields in the returned *
-* object are all spaces, and the object is populated only with the source code line       *
-* itself.                                                                                 *
+* a String argument.  See the method below, which does the work.                          *
+******************************************************************************************/
+  char[] lineChars = inputLine.toCharArray();
+  MarieLexer lexer = new MarieLexer(lineChars, lineChars.length);
+  lexer.scanLine(0, lineChars.length);
+  return parseCodeLine(lexer, inputLine);
+} //  parseCodeLine()
+
+
+AssembledCodeLine parseCodeLine(MarieLexer lexer, String inputLine) {
+/******************************************************************************************
+* This method controls extraction of symbols from the current line of the lexer, whose    *
+* text is passed as a String argument.  The return value is an object composed of the     *
+* extracted tokens along with a Vector containing any error messages found, and the input *
+* line itself.  If the inputLine is a blank line or a comment, the token-related fields   *
+* in the returned object are all spaces, and the object is populated only with the source *
+* code line itself.                                                                       *
+*                                                                                         *
+* The tokens are examined in place in the lexer's character buffer.  Strings are created  *
+* only for the fields of the returned object.                                             *
 *                                                                                         *
 * Side effects:                                                                           *
 *     As noncomment code lines are processed, the (global) line counter (or address       *
@@ -504,31 +495,26 @@ AssembledCodeLine parseCodeLine(String inputLine) {
 ******************************************************************************************/
 
  AssembledCodeLine aCodeLine = new AssembledCodeLine(); // Create the output object
- StringBuffer codeLine = new StringBuffer(" "),  // String buffer for parsing source code.
-      instructionLabel = new StringBuffer(" "),  // String buffer for statement label.
-               operand = new StringBuffer(" ");  // String buffer for the operand.
+ char[] b = lexer.getSource();                   // Source characters and the
+ int[] tokenStart = lexer.tokenStart,            // positions of the tokens.
+       tokenEnd   = lexer.tokenEnd;
+ String operand = " ";                           // The operand field.
   int  instructionCode = 0,
-            anIntValue = 0;
+            anIntValue = 0,
+                  next = 1;                      // Index of the next token to process.
   errorList.clear();                             // Reset all short-term error control 
   errorFound = false;                            // fields.
-  codeLine.delete(0, codeLine.length());
                                                  // Consider the line only up to any comments.
-  int codeLength =  inputLine.indexOf(COMMENT_DELIM); 
-  
-  if (codeLength < 0)                            // Implies no comment present.
-    codeLength = inputLine.length();
-  if (codeLength > 0)  {                         // Copy noncomment code to working buffer.
-    codeLine.append(inputLine.substring(0, codeLength));
-    int lineLength = inputLine.length();         // and save the comment.
+  int codeLength = lexer.codeEnd - lexer.lineStart;
+  int lineLength = lexer.lineEnd - lexer.lineStart;
+  if (codeLength > 0)  {                         // Save the comment.
     if ((lineLength > 1) && ((lineLength - codeLength) > 0) )
       aCodeLine.comment = inputLine.substring(codeLength, lineLength);
   }
 
   aCodeLine.sourceLine = inputLine;              // Copy the source to output object.
 
-  instructionLabel.delete(0, instructionLabel.length());
-  StringTokenizer st = new StringTokenizer(codeLine.substring(0, codeLine.length()));
-  if (st.countTokens()== 0)    {                 // If there are no tokens, we have a blank
+  if (lexer.tokenCount == 0)    {                // If there are no tokens, we have a blank
     aCodeLine.comment = inputLine;               // line (or comment).  No need to parse it.
     return aCodeLine;
    }
@@ -545,22 +531,27 @@ AssembledCodeLine parseCodeLine(String inputLine) {
 /* --                                                                                 -- */
 /* -- Get the label, if any.                                                          -- */
 /* --   We assume Assume there is no label, the statementLabel() method sets the      -- */
-/* --   hasLabel flag to true if it finds one.                                        -- */
+/* --   hasLabel flag to true if it finds one.  (The token is trimmed of any control  -- */
+/* --   characters first.)                                                            -- */
 /* --                                                                                 -- */
-  String aToken = st.nextToken();
+  int start = tokenStart[0],
+        end = tokenEnd[0];
+  while ((start < end) && (b[start] <= ' '))
+    start++;
+  while ((end > start) && (b[end-1] <= ' '))
+    end--;
   hasLabel = false;             
-  instructionLabel.append(statementLabel(aToken.trim()));
-  aCodeLine.stmtLabel = instructionLabel.toString();
+  aCodeLine.stmtLabel = statementLabel(b, start, end);
 /* --                                                                                 -- */
 /* -- Get the opcode.  (There better be one at this point.)                           -- */
 /* -- Once we have the opcode, we also know whether an operand is needed.             -- */
 /* --                                                                                 -- */
   operandReqd = true;                                     // Assume operand is needed.
   if (hasLabel) {                                         // If no label at all,
-    if (st.hasMoreTokens()) {                             // get the next token.
-       aToken = st.nextToken().toUpperCase();
-       instructionCode = getOpcode(aToken); 
-       aCodeLine.mnemonic = aToken;
+    if (lexer.tokenCount > 1) {                           // get the next token.
+       instructionCode = getOpcode(b, tokenStart[1], tokenEnd[1]); 
+       aCodeLine.mnemonic = mnemonicText(b, tokenStart[1], tokenEnd[1]);
+       next = 2;
     }                                                     // Otherwise, process the current
     else {                                                // token as an opCode.
        setErrorMessage(errorMsgs[4]);
@@ -569,69 +560,65 @@ AssembledCodeLine parseCodeLine(String inputLine) {
     }
   }
   else {
-    instructionCode = getOpcode(aToken.toUpperCase());
-    aCodeLine.mnemonic = aToken.toUpperCase();
+    instructionCode = getOpcode(b, tokenStart[0], tokenEnd[0]);
+    aCodeLine.mnemonic = mnemonicText(b, tokenStart[0], tokenEnd[0]);
   }
 /* --                                                                                 -- */
 /* -- Get the operand.  If no operand is needed, we would have found out when we got  -- */
 /* -- the opcode.  In the process of finding the opcode, the operandReqd flag is set  -- */
 /* -- based upon the characteristics of the Instruction.                              -- */
 /* --                                                                                 -- */
-  operand.delete(0, operand.length());
   if (operandReqd)  {
-    if (st.hasMoreTokens()) {
-      aToken = st.nextToken();
+    if (lexer.tokenCount > next) {
+      start = tokenStart[next];
+      end = tokenEnd[next];
       if ((instructionCode >= ORG) && (instructionCode < 0)) {  // Do we have a "constant" directive?
-        anIntValue = literalToInt(instructionCode, aToken.toUpperCase(), true);
+        anIntValue = literalToInt(instructionCode, b, start, end, true);
+        aCodeLine.operandToken = new String(b, start, end - start).toUpperCase();
         if ((instructionCode > ORG) || (errorFound)) {
-          operand.append(to4CharHexStr(anIntValue));
-          instructionCode = literalToInt(HEX, operand.substring(0, 1), false);
-          operand.deleteCharAt(0);                        // Put first char of literal
-          aCodeLine.operandToken = aToken.toUpperCase();  // in instructionCode field          
+          String hexStr = to4CharHexStr(anIntValue);      // Put first char of literal
+          instructionCode = Character.digit(hexStr.charAt(0), 16);  // in instructionCode
+          operand = hexStr.substring(1);                  // field.
         }
         else {                                                  // Handle ORiGination
           lineNumber = anIntValue - 1;                          // directive. (No code
-          aCodeLine.operandToken = aToken.toUpperCase();        // generated.)
-          return aCodeLine;
+          return aCodeLine;                                     // generated.)
         }
       }                                                         // If so, get value.
       else {                                                    // Otherwise, we must have an address
-        if (tokenIsLiteral(aToken))  {                          // literal or label.
-          anIntValue = literalToInt(HEX, aToken, false);
-          aToken = to3CharHexStr(anIntValue).toUpperCase();     // Convert literal to uppercase 
-          operand.append(aToken);
-          aCodeLine.operandToken = aToken;
+        if (MarieLexer.isLiteral(b, start, end))  {             // literal or label.
+          anIntValue = literalToInt(HEX, b, start, end, false);
+          operand = to3CharHexStr(anIntValue);                  // (Uppercase already.)
+          aCodeLine.operandToken = operand;
         }
         else {
-          operand.append("_");                                  // Flag token for later lookup.
-          operand.append(aToken);
-          aCodeLine.operandToken = aToken;
+          aCodeLine.operandToken = new String(b, start, end - start);
+          operand = "_" + aCodeLine.operandToken;               // Flag token for later lookup.
         }
       }
     }
     else {
       setErrorMessage(errorMsgs[5]);
-      operand.append("???");
+      operand = "???";
     }
   } // operandReqd
-  else operand.append("000");
+  else operand = "000";
 
 /* --                                                                                 -- */
 /* --  Finish populating the intermediate code object.                                -- */
 /* --                                                                                 -- */
   aCodeLine.lineNo = to3CharHexStr(lineNumber);
   if (instructionCode >= 0)
-    aCodeLine.hexCode = Integer.toHexString(instructionCode).toUpperCase();
+    aCodeLine.hexCode = hexDigits[instructionCode];
   else if (instructionCode < -15)     // Invalid instruction found.
           aCodeLine.hexCode = "?";
   else if (instructionCode == END) {  // "END" directive has been found.
           aCodeLine.lineNo = "   ";
           aCodeLine.hexCode = " ";    // Clear code line except for directive.
-          operand.delete(0, operand.length());
-          operand.append("   ");
+          operand = "   ";
           done = true;               
        }
-  aCodeLine.operand = operand.toString(); 
+  aCodeLine.operand = operand; 
   if (errorFound) {               // Add any errors found to the output object.
     int last = errorList.size();
     for (int i = 0; i < last; i++) {
@@ -671,6 +658,141 @@ AssembledCodeLine symbolsToAddresses(AssembledCodeLine codeLine) {
 } // symbolsToAddresses()
 
 
+void resolveOrDefer(AssembledCodeLine codeLine) {
+/******************************************************************************************
+*  Single-pass counterpart of symbolsToAddresses().  If the symbolic operand of the code  *
+*  line is already in the symbol table, its address is supplied now.  Otherwise, the      *
+*  code line is added to the fix-up list for the symbol until the label is defined.       *
+******************************************************************************************/
+  if (codeLine.lineNo.charAt(0) == ' ')   // If not an executable statement,
+    return;                               // we don't care about any symbols.
+
+  if (codeLine.operand.indexOf((int) '_') == 0) {
+    String symbol = codeLine.operand.substring(1, codeLine.operand.length());
+    if (symbolTable.indexOf(symbol) >= 0) {
+      codeLine.operand = getSymbolAddress(symbol, codeLine.lineNo);
+    }
+    else {
+      ArrayList pending = (ArrayList) fixups.get(symbol);
+      if (pending == null) {
+        pending = new ArrayList();
+        fixups.put(symbol, pending);
+      }
+      pending.add(codeLine);
+    }
+  }
+} // resolveOrDefer()
+
+
+void reportUnresolvedSymbols() {
+/******************************************************************************************
+*  Single-pass mode only.  Called at END (or end of file):  every fix-up left over refers *
+*  to a symbol that was never defined.  These lines get the same operand and error        *
+*  message that the second pass of the two-pass assembler would have given them.          *
+******************************************************************************************/
+  for (int i = 0; i < codeLines.size(); i++) {
+    AssembledCodeLine aCodeLine = (AssembledCodeLine) codeLines.get(i);
+    if ((aCodeLine.lineNo.charAt(0) != ' ') && (aCodeLine.operand.indexOf((int) '_') == 0)) {
+      errorFound = false;
+      errorList.clear();
+      setErrorMessage(errorMsgs[10]);
+      aCodeLine.operand = "???";
+      aCodeLine.errors.add((String) errorList.get(0));
+    }
+  }
+  fixups.clear();
+} // reportUnresolvedSymbols()
+
+
+MarieLexer readSource() {
+/******************************************************************************************
+*  Reads the whole of the (open) source file into a character buffer and returns a lexer  *
+*  over it.  The passes then take their lines and tokens from the lexer, which marks      *
+*  them in the buffer instead of creating a String for every line and token.              *
+*  Returns null on an IO error.                                                           *
+******************************************************************************************/
+  char[] buffer = new char[8192];
+  int length = 0;
+  try {
+    int count;
+    while ((count = sourceFile.read(buffer, length, buffer.length - length)) > 0) {
+      length += count;
+      if (length == buffer.length)
+        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+    }
+  } // try
+  catch (IOException e) {
+    System.err.println(e); 
+    return null;
+  } // catch
+  return new MarieLexer(buffer, length);
+} // readSource()
+
+
+void assembleLine(MarieLexer lexer) {
+/******************************************************************************************
+*  Single-pass mode only.  Parses the current line of the lexer, supplies its symbol's    *
+*  address if the symbol is known (or defers it), and adds it to the list of code lines.  *
+*  Every source line becomes one code line, so codeLines.get(n) is line n of the source.  *
+******************************************************************************************/
+  AssembledCodeLine aCodeLine = parseCodeLine(lexer, lexer.lineText());
+  resolveOrDefer(aCodeLine);
+  codeLines.add(aCodeLine);
+} // assembleLine()
+
+
+int performSinglePass() {
+/******************************************************************************************
+*  This method replaces both performFirstPass() and performSecondPass() when the          *
+*  assembler runs in single-pass mode.  The source is parsed into the in-memory list of   *
+*  code lines, resolving symbols as they become known.  When the source is exhausted,     *
+*  unresolved references are reported and, if the assembly was error-free, the list is    *
+*  written to the <filename>.MEX executable.                                              *
+*      Note:  A negative return value indicates a critical error in the file handling     *
+*             only and has nothing to do with any errors found in the assembly program    *
+*             code.                                                                       *
+******************************************************************************************/
+  done = false;
+
+  errorFound = false;
+  codeLines.clear();
+  fixups.clear();
+  try {                                             // Try to open the input.
+    sourceFile = new BufferedReader( new FileReader(sourceFileName+"."+sourceType) );
+  } // try
+  catch (FileNotFoundException e) {
+    System.err.println(lineFeed+"File " + sourceFileName + "."+sourceType+" not found.");
+    return -1;
+  } // catch
+  MarieLexer lexer = readSource();
+  try {                                             // Close source file.
+    sourceFile.close();
+  } // try
+  catch (IOException e) {
+    System.err.println(e); 
+  } // catch
+  if (lexer == null)
+    return -1;
+  while (!done && lexer.nextLine())                 // Loop through source lines.
+    assembleLine(lexer);
+  reportUnresolvedSymbols();
+  if (errorCount > 0)                               // No executable for a failed assembly.
+    return 0;
+  try {
+    objFileOut = new ObjectOutputStream( new BufferedOutputStream(
+                           new FileOutputStream(sourceFileName+"."+exeType)) );
+    for (int i = 0; i < codeLines.size(); i++)
+      objFileOut.writeObject(codeLines.get(i));
+    objFileOut.close();
+  } // try
+  catch (IOException e) {
+    System.err.println(lineFeed+e);
+    return -1;
+  } // catch
+  return 0;
+} // performSinglePass()
+
+
 int performFirstPass() {
 /******************************************************************************************
 *  This method calls methods to open all of the first-pass files, read the source file,   *
@@ -687,25 +809,18 @@ int performFirstPass() {
   done = false;
 
   errorFound = false;
-  loadInstructionSet();
   openFirstPassFiles();
   if (errorFound) {         // Negative return value is fatal error
     return -1;
   }
-  while (!done) {           // Loop through source file input.
+  MarieLexer lexer = readSource();
+  if (lexer == null)
+    return -1;
+  while (!done && lexer.nextLine()) {   // Loop through source lines.
     try { 
-          String inputLine = sourceFile.readLine(); 
-          if (inputLine != null) {
-            aCodeLine = parseCodeLine(inputLine);
-            objFileOut.writeObject(aCodeLine);
-          }
-          else {
-            done = true;
-          }
+          aCodeLine = parseCodeLine(lexer, lexer.lineText());
+          objFileOut.writeObject(aCodeLine);
     } // try
-    catch (EOFException e) {
-      done = true;
-    } // catch
     catch (IOException e) {
       System.err.println(e); 
       return -1;
@@ -775,18 +890,8 @@ void produceFinalOutput() {
   done = false;
   openFinalFiles();
 
-  int dirEndPos = 0;                              // Strip the path from the fileName
-  dirEndPos = sourceFileName.lastIndexOf(fileSeparator); 
-  String currFilePrefix = sourceFileName.substring(dirEndPos+1, sourceFileName.length());
-  
     try { 
-           for (int i = 0; i < 5; i++)                             // Write title heading.
-              lstFile.write(" ");
-           lstFile.write("Assembly listing for: "+currFilePrefix+"."+sourceType+lineFeed);
-           for (int i = 0; i < 5; i++) 
-              lstFile.write(" ");
-           lstFile.write("           Assembled: "+new Date()+lineFeed);
-           lstFile.write(lineFeed);
+           lstFile.write(listingHeader(sourceFileName));           // Write title heading.
         }
     catch (IOException e) {
          done = true;
@@ -798,10 +903,15 @@ void produceFinalOutput() {
   else if (maxSymbolLength > MAX_SYMBOL_PRINT_LEN) // margin (assuming reasonable font size).
          maxSymbolLength = MAX_SYMBOL_PRINT_LEN;
 
+  int nextLine = 0;                                // Single-pass: index into codeLines.
   while (!done) {
     try {             
-         aCodeLine = (AssembledCodeLine) objFileIn.readObject();     // Print a formatted
-         if (aCodeLine == null)                                      // line on the listing.
+         if (singlePass)                                             // Print a formatted
+           aCodeLine = (nextLine < codeLines.size())                 // line on the listing.
+                         ? (AssembledCodeLine) codeLines.get(nextLine++) : null;
+         else
+           aCodeLine = (AssembledCodeLine) objFileIn.readObject();
+         if (aCodeLine == null)
             done = true;
          else {
            lstFile.write(aCodeLine.lineNo+" ");
@@ -847,9 +957,30 @@ void produceFinalOutput() {
          done = true;
    } // catch
   closeFinalFiles();
+  symbolTable.freeze();                             // Assembly complete: read-only now.
 } // produceFinalOutput()
 
 
+public static String listingTitle(String fileName) {
+/******************************************************************************************
+*  Returns the first line of the assembly listing for the source file <fileName>.MAS.     *
+*  (The line names the file without its path.)                                            *
+******************************************************************************************/
+  int dirEndPos = fileName.lastIndexOf(fileSeparator);    // Strip the path from the fileName
+  return "     Assembly listing for: "+fileName.substring(dirEndPos+1)+"."+sourceType+lineFeed;
+} // listingTitle()
+
+
+public static String listingHeader(String fileName) {
+/******************************************************************************************
+*  Returns the heading of the assembly listing for the source file <fileName>.MAS: the    *
+*  title line, the time of assembly (now) and a blank line.  A listing restored from the  *
+*  assembly cache is given a new heading, so it shows when it was assembled.              *
+******************************************************************************************/
+  return listingTitle(fileName)+"                Assembled: "+new Date()+lineFeed+lineFeed;
+} // listingHeader()
+
+
 void dumpSymbolTable() throws IOException {
 /******************************************************************************************
 * Place the contents of the symbol table, including line number where defined and line    *
@@ -862,16 +993,9 @@ void dumpSymbolTable() throws IOException {
 * If assembly was successful, we also write symbol table entries to a plain text          *
 * "mapfile" for later reference (by the progammer) while the MARIE program is executing.  *
 ******************************************************************************************/
-  SymbolEntry se;
+  int se;
   int referenceCount  = 0;
   String       indent = "         ";
-  ArrayList keyList = new ArrayList();
-  Enumeration v, e = symbolTable.elements();
-  while (e.hasMoreElements()) {
-    se = (SymbolEntry) e.nextElement();
-    keyList.add(se.symbol);
-  }
-  Collections.sort(keyList);                       // Sort the names of the symbols.
   for (int i = 1; i < 2; i++)
     lstFile.write(lineFeed);
 
@@ -910,20 +1034,21 @@ void dumpSymbolTable() throws IOException {
        mapFile.write("-");
     mapFile.write("+---------");  
   }
-  for (int i = 0; i < keyList.size(); i++) {      // Print table body.
-    se = (SymbolEntry) symbolTable.get(keyList.get(i));
+  for (int i = 0; i < symbolTable.size(); i++) {  // Print table body, the symbols
+    se = symbolTable.sorted(i);                   // in order of their names.
+    String symbol = symbolTable.getName(se);
+    String address = symbolTable.getAddressText(se);
     lstFile.write(lineFeed);
-    lstFile.write(indent+" "+padStr(se.symbol, maxSymbolLength) + " |   " + se.address+"   | ");
+    lstFile.write(indent+" "+padStr(symbol, maxSymbolLength) + " |   " + address+"   | ");
     if (mapFile != null) {
       mapFile.write(lineFeed);
-      mapFile.write(       " "+padStr(se.symbol, maxSymbolLength) + " |   " + se.address);
+      mapFile.write(       " "+padStr(symbol, maxSymbolLength) + " |   " + address);
     }
-    v = se.referencedAt.elements();
     referenceCount = 0;
     boolean first = true;
-    while (v.hasMoreElements()) {
+    for (int r = symbolTable.firstReference(se); r >= 0; r = symbolTable.nextReference(r)) {
       if (first) {
-        lstFile.write(v.nextElement().toString());
+        lstFile.write(to3CharHexStr(symbolTable.referenceAddress(r)));
         referenceCount++;
         first = false;
       }
@@ -933,7 +1058,7 @@ void dumpSymbolTable() throws IOException {
           lstFile.write(lineFeed);
           lstFile.write(indent+padStr(" ", maxSymbolLength)+"  |"+indent+"| ");
         }
-        lstFile.write(v.nextElement().toString());
+        lstFile.write(to3CharHexStr(symbolTable.referenceAddress(r)));
         referenceCount++;
       }
     }
@@ -957,6 +1082,15 @@ public static int assembleFile(String fileName) {
 *  name of a MARIE assembly code file, <filename>, that will be opened as <filename>.MAS. *
 *  Ultimately, a <filename>.LST, <filename>.MAP and <filename>.MEX files will be created  *
 *  from the <filename>.MAS file.                                                          *
+******************************************************************************************/
+  return assembleFile(fileName, false);
+} // assembleFile()
+
+
+public static int assembleFile(String fileName, boolean singlePass) {
+/******************************************************************************************
+*  Same as above, but the caller chooses between the two-pass assembly and the single-    *
+*  pass assembly with forward-reference fix-ups.  The outputs of both are the same.       *
 ******************************************************************************************/
   Assembler   assembler = new Assembler();
   int         irrecoverableError = 0;
@@ -972,7 +1106,16 @@ public static int assembleFile(String fileName) {
 
   assembler.sourceFileName = fileName;
   assembler.lineNumber = -1;
+  assembler.singlePass = singlePass;
 
+  if (singlePass) {
+    if (assembler.performSinglePass() != 0) {
+      System.err.println("Irrecoverable IO error occurred during single-pass assembly.");
+      return -1;
+    }
+    assembler.produceFinalOutput();
+    return assembler.errorCount;
+  }
   irrecoverableError = assembler.performFirstPass();       // Call functional methods.
   if (irrecoverableError == 0)                             // irrecoverableError(s) occur
     irrecoverableError = assembler.performSecondPass();    // as a result of unexpected
@@ -989,6 +1132,31 @@ public static int assembleFile(String fileName) {
 } // assembleFile()
 
 
+public static Assembler assembleSource(char[] source, int length) {
+/******************************************************************************************
+*  Assembles the source held in source[0..length) in memory, e.g. for the diagnostics     *
+*  of an editor.  No files are read or written.  The assembly is single-pass, so the      *
+*  diagnostics are the same as those of assembleFile().  The returned Assembler holds     *
+*  the code lines (one per source line, up to any END), the error count and the symbol    *
+*  table.  The assembly is abandoned, and null returned, if the calling thread is         *
+*  interrupted, so that a stale job can be cancelled.                                     *
+******************************************************************************************/
+  Assembler assembler = new Assembler();
+  MarieLexer lexer = new MarieLexer(source, length);
+  assembler.lineNumber = -1;
+  assembler.singlePass = true;
+  assembler.done = false;
+  while (!assembler.done && lexer.nextLine()) {
+    if (Thread.currentThread().isInterrupted())
+      return null;
+    assembler.assembleLine(lexer);
+  }
+  assembler.reportUnresolvedSymbols();
+  assembler.symbolTable.freeze();
+  return assembler;
+} // assembleSource()
+
+
 /* ------------------------------------------------------------------------------------- */
 /* -- File handling                                                                   -- */
 /* ------------------------------------------------------------------------------------- */
@@ -1108,20 +1276,22 @@ void openFinalFiles() {
     errorFound = true;
     return;
   } // catch
-  try {                                                 // Open output and 
-    objectFile = new File(sourceFileName+"."+exeType);  // try to open the input.
-    objFileIn = new ObjectInputStream( new FileInputStream(objectFile) );
-  } // try
-  catch (FileNotFoundException e) {
-    System.err.println(lineFeed+"File " + sourceFileName + "."+exeType+" not found.");
-    errorFound = true;
-    return;
-  } // catch
-  catch (IOException e) {
-    System.err.println(lineFeed+e); 
-    errorFound = true;
-    return;
-  } // catch
+  objectFile = new File(sourceFileName+"."+exeType);    // Open output and
+  if (!singlePass) {                                    // try to open the input.
+    try {                                               // (Single-pass mode keeps
+      objFileIn = new ObjectInputStream( new FileInputStream(objectFile) );   // the code
+    } // try                                            // in memory.)
+    catch (FileNotFoundException e) {
+      System.err.println(lineFeed+"File " + sourceFileName + "."+exeType+" not found.");
+      errorFound = true;
+      return;
+    } // catch
+    catch (IOException e) {
+      System.err.println(lineFeed+e); 
+      errorFound = true;
+      return;
+    } // catch
+  } // if
   if (errorCount == 0) {                     // If no errors, create a
      try {                                   // symbol table reference file.
        mapFile = new BufferedWriter( new FileWriter(sourceFileName+"."+mapType) );
@@ -1147,6 +1317,7 @@ void closeFinalFiles() {
      catch (IOException e) {
           System.err.println(e); 
      } // catch
+     if (objFileIn != null)
      try {                                             // Close assembled file.
        objFileIn.close();
      } // try
@@ -1176,6 +1347,9 @@ public static void main(String args[]) {
 *  hook to the mainline processing method assembleFile().  We do this so that the         *
 *  assembler can be used easily as a class method from another program.                   *
 ******************************************************************************************/
-    assembleFile(args[0]);
+    if ((args.length > 1) && args[1].equalsIgnoreCase("-single"))
+      assembleFile(args[0], true);
+    else
+      assembleFile(args[0]);
   } // main()
 } // Assembler
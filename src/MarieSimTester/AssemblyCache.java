@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*
+ *
+ * A content-addressed cache of assembled MARIE programs.
+ *
+ * An entry is keyed by a hash of the source bytes and the assembler version, so an
+ * unchanged .mas file is assembled only once no matter how often it is regraded.
+ * Each entry holds the assembled image (.mex), the symbol map and the listing that
+ * carries the diagnostics of the assembly. The listing is kept without its heading;
+ * a listing restored from the cache gets a new one, with the time it was restored.
+ *
+ * Sources are assembled in two passes, as MarieSim's assembler does, unless single-pass
+ * assembly is asked for with -Dmarie.singlepass=true (see Assembler). The mode is part
+ * of the key, although both modes assemble a source to the same outputs.
+ *
+ * Entries are kept in memory with least-recently-used eviction, and on disk under a
+ * cache directory so that they survive across runs and grading sessions. A disk entry
+ * carries a checksum; an entry that is corrupted or was only partially written is
+ * discarded and the source is assembled again.
+ *
+ */
+
+public class AssemblyCache {
+    static final int Magic = 0x4D415244;            // "MARD": listings without their heading
+    static final int DefaultMemoryEntries = 256;
+    static final String EntryType = ".asm";
+
+    // The cache directory may be overridden with -Dmarie.cache.dir=<path>
+    public static final File DefaultDirectory = new File(System.getProperty("marie.cache.dir",
+            System.getProperty("user.home") + File.separator + ".mariesim" + File.separator + "cache"));
+
+    private static AssemblyCache shared;
+
+    boolean singlePass = Boolean.getBoolean("marie.singlepass");
+
+    // The cached result of assembling one source.
+    public static class Entry {
+        public final int errorCount;
+        public final byte mex[];      // null if the assembly was unsuccessful
+        public final byte map[];      // null if the assembly was unsuccessful
+        public final byte listing[];  // the listing without its title line
+
+        Entry(int errorCount, byte mex[], byte map[], byte listing[]) {
+            this.errorCount = errorCount;
+            this.mex = mex;
+            this.map = map;
+            this.listing = listing;
+        }
+    }
+
+    File directory;
+    Map<String, Entry> memory;
+    int hits = 0;
+    int misses = 0;
+
+    public AssemblyCache(File directory, final int memoryEntries) {
+        this.directory = directory;
+        if (directory!=null) directory.mkdirs();
+        // An access-ordered map evicts the least recently used entry.
+        memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    // The cache shared by all testers in this JVM.
+    public static synchronized AssemblyCache getShared() {
+        if (shared==null) shared = new AssemblyCache(DefaultDirectory, DefaultMemoryEntries);
+        return shared;
+    }
+
+
+    // Assemble masfile, or restore its outputs from the cache.
+    // The files left next to the source are the same as those of Assembler.assembleFile():
+    // the .lst always, the .mex and .map only if the assembly was successful.
+    // Returns the number of assembly errors, or -1 on an irrecoverable IO error.
+    public int assemble(File masfile) {
+        String prefix = masfile.getPath();
+        int i = prefix.lastIndexOf('.');
+        if (i > 0) prefix = prefix.substring(0, i);
+
+        byte source[];
+        try {
+            source = Files.readAllBytes(masfile.toPath());
+        } catch (IOException ex) {
+            return -1;
+        }
+        String key = key(source, singlePass);
+
+        Entry entry = lookup(key);
+        if (entry==null) {
+            synchronized (this) { misses++; }
+            int errors = Assembler.assembleFile(masfile.getPath(), singlePass);
+            if (errors<0) return errors;
+            entry = collect(prefix, errors);
+            if (entry!=null) store(key, entry);
+            return errors;
+        }
+        synchronized (this) { hits++; }
+        try {
+            restore(prefix, entry);
+        } catch (IOException ex) {
+            return -1;
+        }
+        return entry.errorCount;
+    }
+
+    // Look up a cached assembly by key, first in memory and then on disk.
+    public Entry lookup(String key) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry!=null) return entry;
+        }
+        Entry entry = read(key);
+        if (entry!=null) {
+            synchronized (this) { memory.put(key, entry); }
+        }
+        return entry;
+    }
+
+    public synchronized int getHits() { return hits; }
+    public synchronized int getMisses() { return misses; }
+
+
+    // The key of a source: a hash of the assembler version and mode, and the source bytes.
+    public static String key(byte source[], boolean singlePass) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Assembler.VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) (singlePass ? 1 : 0));
+            digest.update(source);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    // Gather the outputs that the assembler just wrote.
+    private Entry collect(String prefix, int errors) {
+        try {
+            byte listing[] = Files.readAllBytes(new File(prefix + "." + Assembler.listType).toPath());
+            // Drop the heading: the title line, which names the source file, the time of
+            // assembly and a blank line.
+            int start = 0;
+            byte lineFeed[] = Assembler.lineFeed.getBytes();
+            for (int line=0; line<3; line++) {
+                start = indexOf(listing, lineFeed, start);
+                if (start<0) return null;
+                start += lineFeed.length;
+            }
+            byte body[] = new byte[listing.length-start];
+            System.arraycopy(listing, start, body, 0, body.length);
+            byte mex[] = null;
+            byte map[] = null;
+            if (errors==0) {
+                mex = Files.readAllBytes(new File(prefix + "." + Assembler.exeType).toPath());
+                map = Files.readAllBytes(new File(prefix + "." + Assembler.mapType).toPath());
+            }
+            return new Entry(errors, mex, map, body);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    // The index of the first occurrence of pattern in data from start on, or -1.
+    static int indexOf(byte data[], byte pattern[], int start) {
+        for (int i=start; i+pattern.length<=data.length; i++) {
+            int k = 0;
+            while (k<pattern.length && data[i+k]==pattern[k]) k++;
+            if (k==pattern.length) return i;
+        }
+        return -1;
+    }
+
+    // Write the outputs of a cached assembly next to the source.
+    private void restore(String prefix, Entry entry) throws IOException {
+        FileOutputStream lst = new FileOutputStream(prefix + "." + Assembler.listType);
+        try {
+            lst.write(Assembler.listingHeader(prefix).getBytes());
+            lst.write(entry.listing);
+        } finally {
+            lst.close();
+        }
+        File mexfile = new File(prefix + "." + Assembler.exeType);
+        File mapfile = new File(prefix + "." + Assembler.mapType);
+        if (entry.mex!=null) {
+            Files.write(mexfile.toPath(), entry.mex);
+            Files.write(mapfile.toPath(), entry.map);
+        }
+        else {
+            // Same as the assembler: no executable for a failed assembly.
+            mexfile.delete();
+        }
+    }
+
+
+    private synchronized void store(String key, Entry entry) {
+        memory.put(key, entry);
+        write(key, entry);
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + EntryType);
+    }
+
+    // Write an entry to disk. The entry is written to a temporary file first and then
+    // moved into place, so a reader never sees a partially written entry under its key.
+    private void write(String key, Entry entry) {
+        if (directory==null) return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(Magic);
+            out.writeUTF(key);
+            out.writeInt(entry.errorCount);
+            writeBytes(out, entry.mex);
+            writeBytes(out, entry.map);
+            writeBytes(out, entry.listing);
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.close();
+
+            File temp = File.createTempFile(key, ".tmp", directory);
+            Files.write(temp.toPath(), bytes.toByteArray());
+            Files.move(temp.toPath(), entryFile(key).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // The cache is an optimization only. Carry on without the disk entry.
+        }
+    }
+
+    // Read an entry from disk. Returns null if there is none, or if it is corrupted,
+    // in which case the file is removed so that it is rebuilt on the next store.
+    private Entry read(String key) {
+        if (directory==null) return null;
+        File file = entryFile(key);
+        if (!file.exists()) return null;
+        try {
+            byte data[] = Files.readAllBytes(file.toPath());
+            if (data.length<8) throw new IOException("truncated cache entry");
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length-8);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt()!=Magic) throw new IOException("bad cache entry");
+            if (!key.equals(in.readUTF())) throw new IOException("bad cache entry");
+            int errorCount = in.readInt();
+            byte mex[] = readBytes(in);
+            byte map[] = readBytes(in);
+            byte listing[] = readBytes(in);
+            if (in.readLong()!=crc.getValue() || in.available()!=0 || listing==null
+                    || (errorCount==0) != (mex!=null && map!=null))
+                throw new IOException("bad cache entry");
+            return new Entry(errorCount, mex, map, listing);
+        } catch (IOException ex) {
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte data[]) throws IOException {
+        if (data==null) {
+            out.writeInt(-1);
+        }
+        else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length<0) return null;
+        if (length>in.available()) throw new IOException("truncated cache entry");
+        byte data[] = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+}
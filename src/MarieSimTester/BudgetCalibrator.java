@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ *
+ * Instruction budgets for test cases, calibrated on the reference solution.
+ *
+ * Rather than guess how many polls a run may take, a tester can give each case a
+ * budget of a multiple of the instructions the reference solution executes on it:
+ * a correct but slower program gets the headroom of the multiple, and a program in
+ * an infinite loop is stopped as soon as it has used up the budget.
+ *
+ * The reference is run once per case (per inputs, IO modes and polls), on its own
+ * headless machine, within the polls the case allows. A case on which the reference
+ * doesn't halt normally gets no budget, and keeps its polls. A budget is never less
+ * than the instructions of one poll.
+ *
+ */
+
+public class BudgetCalibrator {
+    static final long MinimumBudget = HeadlessTest.InstructionsPerPoll;
+
+    final File reference;
+    final double multiple;
+    final HeadlessTest tester = new HeadlessTest();
+    File mexfile;
+    boolean unusable = false;      // The reference can't be assembled.
+    IOMode inputMode, outputMode;  // The modes the reference is loaded in.
+    // The instructions the reference executed, by case; -1 if it didn't halt.
+    final Map<String, Long> instructions = new HashMap<String, Long>();
+
+    public BudgetCalibrator(File reference, double multiple) {
+        this.reference = reference;
+        this.multiple = multiple;
+        tester.log.setEcho(false);
+        tester.logInputs = false;
+    }
+
+    public double getMultiple() { return multiple; }
+
+
+    // The instructions the reference executes on the case, or -1 if it doesn't halt normally
+    // within the polls, or can't be run.
+    public synchronized long referenceInstructions(String input, IOMode inputMode, IOMode outputMode, int maxPolls) {
+        String key = inputMode + " " + outputMode + " " + maxPolls + " " + input;
+        Long count = instructions.get(key);
+        if (count!=null) return count;
+
+        long result = -1;
+        if (load(inputMode, outputMode)) {
+            tester.run(input, maxPolls);
+            if (GradingReport.Halted.equals(tester.termination)) result = tester.machine.getInstructionCount();
+        }
+        instructions.put(key, result);
+        return result;
+    }
+
+    // The instruction budget of the case, or 0 if it has none.
+    public long budget(String input, IOMode inputMode, IOMode outputMode, int maxPolls) {
+        long count = referenceInstructions(input, inputMode, outputMode, maxPolls);
+        if (count<0) return 0;
+        return Math.max(MinimumBudget, (long) Math.ceil(multiple*count));
+    }
+
+    // The polls a run needs for a budget: the instructions, and a poll for each input
+    // (a program waiting for input executes nothing until the next poll).
+    public static int polls(long budget, String input) {
+        int inputs = input==null ? 0 : input.split(" ").length;
+        return (int) Math.min(Integer.MAX_VALUE, (budget + HeadlessTest.InstructionsPerPoll - 1)/HeadlessTest.InstructionsPerPoll + inputs);
+    }
+
+    // The note a tester logs for a case with a budget.
+    public String describe(long budget, String input, IOMode inputMode, IOMode outputMode, int maxPolls) {
+        return "Instruction budget: " + budget + " (" + multiple + " times the reference's "
+               + referenceInstructions(input, inputMode, outputMode, maxPolls) + ")";
+    }
+
+
+    private boolean load(IOMode inputMode, IOMode outputMode) {
+        if (unusable) return false;
+        if (mexfile==null) {
+            mexfile = tester.assemble(reference);
+            if (mexfile==null) {
+                unusable = true;
+                System.err.println("Cannot calibrate budgets: " + reference.getPath() + " does not assemble.");
+                return false;
+            }
+        }
+        if (inputMode!=this.inputMode || outputMode!=this.outputMode) {
+            if (!tester.load(mexfile, inputMode, outputMode)) {
+                unusable = true;
+                return false;
+            }
+            this.inputMode = inputMode;
+            this.outputMode = outputMode;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *
+ * Differential tests of a MARIE program against a reference solution in MARIE.
+ *
+ * The reference and the submission are loaded into a pair of headless machines,
+ * which are run on the same inputs. The outputs are compared value by value as the
+ * submission writes them: the submission is halted at its first value that differs
+ * from the reference, or that the reference doesn't write. The runs also diverge if
+ * one of the programs halts and the other doesn't.
+ *
+ * The inputs come from an input domain (see InputDomain). If the domain has no more
+ * tuples than the number of runs asked for, all of them are run; otherwise the runs
+ * are random, each drawn from the seed and the number of the run. The runs are shared
+ * by parallel workers, each with its own pair of machines, so a large input space is
+ * covered at the speed of all the cores.
+ *
+ * The first divergent run (by number, whichever worker finds it) is run again and
+ * logged with the transcripts of both programs: the inputs and the outputs in the
+ * order they happened, and how the run ended. The log is the submission's log.
+ *   java MarieSimTester.DifferentialTest reference.mas file.mas|directory
+ *        inputmode min max outputmode [values [runs [polls]]]
+ * compares all the mas files in a directory. For an ascii domain, min and max are
+ * characters. -Dmarie.workers=n sets the number of workers, -Dmarie.seed=s the seed.
+ *
+ */
+
+public class DifferentialTest {
+    static final long SeedMix = 0x9E3779B97F4A7C15L;
+
+    ResultLog log = new ResultLog();
+    int workers = Runtime.getRuntime().availableProcessors();
+    long seed = System.nanoTime();
+
+
+    public void setlog(String filepath) {
+        log.setfile(filepath);
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+
+    // The outputs of a run, recorded value by value as the machine writes them.
+    // A recorder checked against another halts its machine at the first value that differs.
+    static class Recorder implements MachineListener {
+        final MarieMachine machine;
+        final IOMode outputMode;
+        Recorder against;              // The reference, when this is the submission.
+        int values[] = new int[64];
+        int count;
+        boolean diverged;
+        List<String> transcript;       // Inputs and outputs as they happen, when asked for.
+        String inputs[];
+        int inputIndex;
+
+        Recorder(MarieMachine machine, IOMode outputMode) {
+            this.machine = machine;
+            this.outputMode = outputMode;
+            machine.addMachineListener(this);
+        }
+
+        void reset(String input, boolean withTranscript) {
+            count = 0;
+            diverged = false;
+            transcript = withTranscript ? new ArrayList<String>() : null;
+            inputs = input==null ? new String[0] : input.split(" ");
+            inputIndex = 0;
+        }
+
+        public void onInputRequested() {
+            if (transcript==null) return;
+            // The tester hands over the next input, if there is one, on the next poll.
+            transcript.add(inputIndex<inputs.length ? "Input " + inputs[inputIndex++] : "Waiting for input");
+        }
+
+        public void onOutput(int value, String text) {
+            if (count==values.length) values = Arrays.copyOf(values, 2*count);
+            values[count++] = value;
+            if (transcript!=null) transcript.add("Output " + format(value, outputMode));
+            if (against!=null && !diverged && (count>against.count || against.values[count-1]!=value)) {
+                diverged = true;
+                machine.halt();
+            }
+        }
+
+        public void onHalt(int state) { }
+        public void onError(int errorCode) { }
+
+        // Index of the first value that differs from the other recorder, or -1.
+        int divergence(Recorder other) {
+            int n = Math.min(count, other.count);
+            for (int i=0; i<n; i++) {
+                if (values[i]!=other.values[i]) return i;
+            }
+            return count==other.count ? -1 : n;
+        }
+    }
+
+    // A reference and a submission machine, run on the same inputs.
+    static class Pair {
+        final HeadlessTest reference = new HeadlessTest();
+        final HeadlessTest submission = new HeadlessTest();
+        final Recorder referenceOutput, submissionOutput;
+
+        Pair(IOMode outputMode) {
+            reference.logInputs = false;
+            submission.logInputs = false;
+            referenceOutput = new Recorder(reference.machine, outputMode);
+            submissionOutput = new Recorder(submission.machine, outputMode);
+            submissionOutput.against = referenceOutput;
+        }
+
+        boolean load(File referenceMex, File submissionMex, IOMode inputMode, IOMode outputMode) {
+            return reference.load(referenceMex, inputMode, outputMode) && submission.load(submissionMex, inputMode, outputMode);
+        }
+
+        // Run both programs on the input. Returns whether they diverge.
+        boolean diverges(String input, int maxPolls, boolean withTranscripts) {
+            referenceOutput.reset(input, withTranscripts);
+            reference.run(input, maxPolls);
+            submissionOutput.reset(input, withTranscripts);
+            submission.run(input, maxPolls);
+            return submissionOutput.diverged || submissionOutput.divergence(referenceOutput)>=0
+                || !reference.termination.equals(submission.termination);
+        }
+    }
+
+
+    static String format(int value, IOMode mode) {
+        switch (mode) {
+            case hex: return MarieMachine.to4CharHexStr(value);
+            case ascii: return value>' ' && value<127 ? String.valueOf((char) value) : "(" + value + ")";
+            default: return String.valueOf((short) value);
+        }
+    }
+
+    // The input of a run: the tuple at its number if the whole domain is run, else a random one.
+    static String input(InputDomain domain, boolean exhaustive, long seed, long run) {
+        int tuple[] = exhaustive ? domain.tuple(run) : domain.generate(new Random(seed + run*SeedMix));
+        return domain.format(tuple);
+    }
+
+
+    // Compare the submission with the reference on runs from the domain.
+    // Returns the first divergent input, or null if the programs agree on all the runs
+    // (or could not be assembled or loaded).
+    String check(File referenceMas, File masfile, final InputDomain domain, final IOMode outputMode,
+                 long runs, final int maxPollCount) {
+        setlog(masfile.getPath().replace(".mas", ".log"));
+        final File referenceMex = Test.assemble(referenceMas, log);
+        final File mexfile = Test.assemble(masfile, log);
+        if (referenceMex==null || mexfile==null) return null;
+        Pair pair = new Pair(outputMode);
+        if (!pair.load(referenceMex, mexfile, domain.getMode(), outputMode)) return null;
+
+        final boolean exhaustive = domain.size()<=runs;
+        final long total = exhaustive ? domain.size() : runs;
+        log.a("Differential test of " + mexfile.getName() + " against " + referenceMex.getName() + ": "
+              + total + (exhaustive ? " runs (all inputs)" : " random runs (seed " + seed + ")"));
+
+        // The workers stripe the runs, and stop at the first divergence found so far.
+        final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (int w=0; w<workers; w++) {
+            final int worker = w;
+            results.add(pool.submit(new Callable<Long>() {
+                public Long call() {
+                    Pair pair = new Pair(outputMode);
+                    if (!pair.load(referenceMex, mexfile, domain.getMode(), outputMode)) return 0L;
+                    long done = 0;
+                    for (long run=worker; run<total && run<first.get(); run+=workers) {
+                        done++;
+                        if (pair.diverges(input(domain, exhaustive, seed, run), maxPollCount, false)) {
+                            long current;
+                            while (run<(current = first.get()) && !first.compareAndSet(current, run)) { }
+                        }
+                    }
+                    return done;
+                }
+            }));
+        }
+        long done = 0;
+        try {
+            for (Future<Long> result : results) done += result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            log.a("Differential test failed: " + ex.getCause());
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime()-start) / 1e9;
+        log.console(String.format("Ran %d input pairs in %.2f s (%.0f per second).", done, seconds, done/seconds));
+
+        long run = first.get();
+        if (run==Long.MAX_VALUE) {
+            log.a("Outputs agree on all " + total + " runs.");
+            log.a("Tests completed on file " + mexfile.getName());
+            log.flush();
+            return null;
+        }
+
+        // Run the first divergent input again to log the transcripts.
+        String input = input(domain, exhaustive, seed, run);
+        pair.diverges(input, maxPollCount, true);
+        log.a("Start run " + (run+1));
+        log.a("Testing input " + input);
+        logTranscript("Reference", pair.reference, pair.referenceOutput);
+        logTranscript("Submission", pair.submission, pair.submissionOutput);
+        int value = pair.submissionOutput.divergence(pair.referenceOutput);
+        if (value>=0) {
+            log.a("Outputs diverge at value " + (value+1) + ": expected "
+                  + (value<pair.referenceOutput.count ? format(pair.referenceOutput.values[value], outputMode) : "no more output")
+                  + ", got " + (value<pair.submissionOutput.count ? format(pair.submissionOutput.values[value], outputMode) : "no more output"));
+        }
+        else {
+            log.a("Outputs agree, but the runs ended differently.");
+        }
+        log.a("Test output seems INCORRECT");
+        log.a("Run completed.");
+        log.a("Tests completed on file " + mexfile.getName());
+        log.flush();
+        return input;
+    }
+
+    private void logTranscript(String name, HeadlessTest tester, Recorder output) {
+        // A submission cut short at its divergence is shown as it was halted.
+        String ending = output.diverged ? "halted at divergence" : tester.termination;
+        log.a(name + " transcript (" + ending + ", " + tester.machine.getInstructionCount() + " instructions):");
+        for (String line : output.transcript) log.a("    " + line);
+    }
+
+    // Compare the submission (a mas file, or all the mas files in a directory) with the reference.
+    public void check(String referencePath, String masfilepath, InputDomain domain, IOMode outputMode,
+                      long runs, int maxPollCount) {
+        if (referencePath==null || masfilepath==null) return;
+        File referenceMas = new File(referencePath);
+        File masfile = new File(masfilepath);
+        if (!referenceMas.exists() || !masfile.exists()) {
+            log.a("File " + (referenceMas.exists() ? masfilepath : referencePath) + " not found.");
+            return;
+        }
+        if (!masfile.isDirectory()) {
+            check(referenceMas, masfile, domain, outputMode, runs, maxPollCount);
+            return;
+        }
+        log.a("Preparing to test all mas files in directory " + masfile.getName() + ":");
+        for (File file : Test.masFiles(masfile.getPath())) {
+            if (file.getAbsoluteFile().equals(referenceMas.getAbsoluteFile())) continue;
+            check(referenceMas, file, domain, outputMode, runs, maxPollCount);
+        }
+    }
+
+    public static void main(String args[]) {
+        if (args.length<6) {
+            System.out.println("Usage: DifferentialTest reference.mas file.mas|directory inputmode min max outputmode [values [runs [polls]]]");
+            System.out.println("  inputmode, outputmode: dec, hex or ascii. For ascii input, min and max are characters.");
+            System.out.println("Add -Dmarie.workers=n to set the number of workers, -Dmarie.seed=s to repeat random runs.");
+            return;
+        }
+        IOMode inputMode = IOMode.valueOf(args[2].toLowerCase());
+        IOMode outputMode = IOMode.valueOf(args[5].toLowerCase());
+        int values = args.length>6 ? Integer.parseInt(args[6]) : 1;
+        long runs = args.length>7 ? Long.parseLong(args[7]) : 1000000;
+        int polls = args.length>8 ? Integer.parseInt(args[8]) : 10;
+
+        InputDomain domain;
+        switch (inputMode) {
+            case ascii:
+                domain = InputDomain.ascii(InputDomain.range(args[3].charAt(0), args[4].charAt(0)), values, values);
+                break;
+            case hex:
+                domain = InputDomain.hex(Integer.parseInt(args[3], 16), Integer.parseInt(args[4], 16), values, values);
+                break;
+            default:
+                domain = InputDomain.dec(Integer.parseInt(args[3]), Integer.parseInt(args[4]), values, values);
+        }
+
+        DifferentialTest tester = new DifferentialTest();
+        tester.setWorkers(Integer.getInteger("marie.workers", tester.workers));
+        if (System.getProperty("marie.seed")!=null) tester.setSeed(Long.getLong("marie.seed", 0));
+        tester.check(args[0], args[1], domain, outputMode, runs, polls);
+        ResultLog.sync();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.util.Arrays;
+
+/*
+ *
+ * The branch edges a run of a MARIE program takes, for coverage-guided fuzzing.
+ *
+ * The machine reports every instruction it executes as an edge from its address to
+ * the address of the next instruction. The edges are hashed into a map of 64K byte
+ * counters, as AFL does; a fall-through is an edge like a jump, so both ways out of
+ * a SKIPCOND count. The counters that a run touches are listed, so clearing the map
+ * for the next run costs no more than the run did.
+ *
+ * The hit counts are bucketed (1, 2, 3, 4-7, 8-15, 16-31, 32-127, 128+): a run that
+ * goes round a loop a different number of times covers something new only when
+ * the bucket changes. merge() adds the buckets of the run to those seen so far and
+ * tells whether the run covered anything new.
+ *
+ */
+
+public class EdgeCoverage {
+    public static final int MapSize = 1 << 16;
+
+    final byte counts[] = new byte[MapSize];
+    int touched[] = new int[256];
+    int touchedCount = 0;
+
+
+    // Record an executed instruction: the edge from its address to the next.
+    void hit(int from, int to) {
+        int edge = ((from * 0x9E37) ^ to) & (MapSize-1);
+        byte count = counts[edge];
+        if (count==0) {
+            if (touchedCount==touched.length) touched = Arrays.copyOf(touched, 2*touchedCount);
+            touched[touchedCount++] = edge;
+        }
+        if (count!=(byte) 0xFF) counts[edge] = (byte) (count+1);
+    }
+
+    // Forget the run.
+    public void clear() {
+        for (int i=0; i<touchedCount; i++) counts[touched[i]] = 0;
+        touchedCount = 0;
+    }
+
+    // The number of edges the run took.
+    public int edges() { return touchedCount; }
+
+    // Add the buckets of the run to the buckets seen (one bit per bucket of each edge).
+    // Returns true if the run took an edge, or a number of turns round one, not seen before.
+    public boolean merge(byte seen[]) {
+        boolean covered = false;
+        for (int i=0; i<touchedCount; i++) {
+            int edge = touched[i];
+            int bucket = bucket(counts[edge] & 0xFF);
+            if ((seen[edge] & bucket)==0) {
+                seen[edge] |= bucket;
+                covered = true;
+            }
+        }
+        return covered;
+    }
+
+    static int bucket(int count) {
+        if (count<=3) return 1 << (count-1);
+        if (count<=7) return 8;
+        if (count<=15) return 16;
+        if (count<=31) return 32;
+        if (count<=127) return 64;
+        return 128;
+    }
+}
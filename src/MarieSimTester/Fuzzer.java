@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ *
+ * Coverage-guided fuzzing of a MARIE program for crashes and hangs.
+ *
+ * The program is run on inputs from an input domain (see InputDomain), on headless
+ * machines that report the branch edges they take (see EdgeCoverage). Each worker keeps
+ * a corpus of inputs, starting from a few seeds, and runs mutants of them: values
+ * replaced by random or boundary values, nudged, bit-flipped, inserted, deleted,
+ * duplicated, or spliced with another input of the corpus. A mutant that takes an
+ * edge (or goes round a loop a number of times) that no input took before joins the
+ * corpus, so the search spreads through the program's branches.
+ *
+ * A run finds a fault if the program
+ *   - halts abnormally: an illegal opcode (error 1) or SKIPCOND condition (error 2),
+ *   - stalls, by writing 0 in ASCII mode, as MarieSim's run thread dies on it, or
+ *   - is still running when it has used the allowed polls, as a tester would give up
+ *     on it. The polls are counted as HeadlessTest counts them: the instructions of
+ *     one poll at most run between two polls, and an input is handed over at a poll,
+ *     so each input waited for takes a poll.
+ * A run that asks for more input than it was given finds nothing. The faults are told
+ * apart by what went wrong and where, and the first input found for each is shrunk
+ * the way PropertyTest shrinks a failing input, for as long as it finds the same fault.
+ *
+ * The runs feed words to the machine directly (the words the tester would make of the
+ * inputs, see InputDomain.word()) and nothing is logged while fuzzing, so a worker
+ * runs a small program tens of thousands of times a second. The log (next
+ * to the program, as name-fuzz.log) lists the faults with their minimal inputs:
+ *   java MarieSimTester.Fuzzer file.mas inputmode min max outputmode [values [seconds [polls]]]
+ * fuzzes with inputs of 1 to values values (4 by default) for 10 seconds. For an ascii
+ * domain, min and max are characters from ! to ~. -Dmarie.workers=n sets the number
+ * of workers, -Dmarie.seed=s the seed.
+ *
+ */
+
+public class Fuzzer {
+    public static final String LogType = "-fuzz.log";
+    static final long SeedMix = 0x9E3779B97F4A7C15L;
+    static final int MaxShrinkRuns = 10000;
+    static final int CheckEvery = 1024;       // Runs between looks at the clock.
+    static final int Boundaries[] = { 0, 1, -1, 2, 7, 8, 10, 15, 16, 100, 127, 128, 255, 256,
+                                      1000, 4095, 4096, 32767, -32768 };
+
+    // How a run ends.
+    static final int Halted = 0, OutOfInput = 1, Crashed = 2, Stalled = 3, Hung = 4;
+
+    ResultLog log = new ResultLog();
+    int workers = Runtime.getRuntime().availableProcessors();
+    long seed = System.nanoTime();
+
+    // Results of the last fuzzing: the runs, the inputs of the corpora, the edges they
+    // took, and the faults found (by what went wrong and where) with their first input.
+    long executions;
+    int corpusSize, edgesCovered;
+    final Map<String, int[]> faults = new LinkedHashMap<String, int[]>();
+
+
+    public void setlog(String filepath) {
+        log.setfile(filepath);
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+
+    // A machine forked from the loaded program, and the edges of its last run.
+    static class Run {
+        final MarieMachine machine = new MarieMachine();
+        final EdgeCoverage coverage = new EdgeCoverage();
+        int inputsTaken;
+
+        Run(MarieMachine loaded) {
+            machine.load(loaded);
+            machine.setCoverage(coverage);
+        }
+
+        // Run the program on the values, within the polls, as HeadlessTest.run() does.
+        // Returns how the run ended.
+        int execute(int values[], InputDomain domain, int maxPolls) {
+            coverage.clear();
+            machine.restart();
+            inputsTaken = 0;
+            machine.run(HeadlessTest.InstructionsPerPoll);
+            for (int pollCount=1; pollCount<=maxPolls && !machine.isHalted(); pollCount++) {
+                if (machine.isRequestingInput()) {
+                    if (inputsTaken==values.length) return OutOfInput;
+                    machine.input(domain.word(values[inputsTaken++]));
+                }
+                machine.run(HeadlessTest.InstructionsPerPoll);
+            }
+            if (machine.isRequestingInput() && inputsTaken==values.length) return OutOfInput;
+            if (machine.isStalled()) return Stalled;
+            if (machine.getState()==MarieSim.MARIE_HALTED_ABNORMAL) return Crashed;
+            if (!machine.isHalted()) return Hung;
+            return Halted;
+        }
+
+        // The fault of the last run: what went wrong and where. Null if the run found none.
+        String fault(int outcome) {
+            // The PC is past the instruction at fault, except for an opcode that can't be fetched.
+            int address = machine.getPC();
+            if (outcome!=Crashed || machine.getErrorCode()!=1) address = (address-1) & MarieSim.MAX_MARIE_ADDR;
+            switch (outcome) {
+                case Crashed:
+                    return GradingReport.termination(machine.getState(), machine.getErrorCode(), false, false, false)
+                           + " at " + String.format("%03X", address);
+                case Stalled:
+                    return "stalled on an output of 0 at " + String.format("%03X", address);
+                case Hung:
+                    return machine.isRequestingInput() ? "time up waiting for input" : "time up";
+            }
+            return null;
+        }
+    }
+
+
+    // A worker: a machine, a corpus and its coverage, and a random source of its own.
+    class Worker implements Callable<Long> {
+        final Run run;
+        final InputDomain domain;
+        final int maxPolls;
+        final long deadline;
+        final Random random;
+        final List<int[]> corpus = new ArrayList<int[]>();
+        final byte seen[] = new byte[EdgeCoverage.MapSize];
+
+        Worker(MarieMachine loaded, InputDomain domain, int maxPolls, long deadline, long seed) {
+            run = new Run(loaded);
+            this.domain = domain;
+            this.maxPolls = maxPolls;
+            this.deadline = deadline;
+            random = new Random(seed);
+        }
+
+        public Long call() {
+            // Seeds: the simplest tuple, the first tuple of each size, and random tuples.
+            int simplest[] = new int[domain.minCount];
+            Arrays.fill(simplest, clamp(0));
+            execute(simplest, true);
+            for (int count=domain.minCount; count<=domain.maxCount; count++) {
+                int values[] = new int[count];
+                Arrays.fill(values, domain.min);
+                execute(values, true);
+            }
+            for (int i=0; i<8; i++) execute(domain.generate(random), true);
+
+            long runs = 0;
+            while (runs%CheckEvery!=0 || System.nanoTime()<deadline) {
+                execute(mutate(corpus.get(random.nextInt(corpus.size()))), false);
+                runs++;
+            }
+            return runs;
+        }
+
+        // Run the values; keep them if they cover something new, and record a fault.
+        void execute(int values[], boolean seed) {
+            int outcome = run.execute(values, domain, maxPolls);
+            // The values the program didn't take make no difference.
+            if (run.inputsTaken<values.length) values = Arrays.copyOf(values, Math.max(run.inputsTaken, domain.minCount));
+            if (run.coverage.merge(seen) || seed) corpus.add(values);
+            if (outcome>=Crashed) found(run.fault(outcome), values);
+        }
+
+        // A mutant of the values: one, two or four mutations of them.
+        int[] mutate(int parent[]) {
+            int values[] = parent.clone();
+            for (int m = 1 << random.nextInt(3); m>0; m--) {
+                int i = values.length==0 ? 0 : random.nextInt(values.length);
+                switch (random.nextInt(8)) {
+                    case 0:  // A random value.
+                        if (values.length>0) values[i] = value();
+                        break;
+                    case 1:  // A boundary value.
+                        if (values.length>0) values[i] = clamp(Boundaries[random.nextInt(Boundaries.length)]);
+                        break;
+                    case 2:  // A nudge.
+                        if (values.length>0) values[i] = clamp(values[i] + random.nextInt(33) - 16);
+                        break;
+                    case 3:  // A flipped bit.
+                        if (values.length>0) values[i] = clamp(values[i] ^ (1 << random.nextInt(16)));
+                        break;
+                    case 4:  // An inserted value.
+                        if (values.length<domain.maxCount)
+                            values = insert(values, random.nextInt(values.length+1), random.nextBoolean() ? value() : clamp(Boundaries[random.nextInt(Boundaries.length)]));
+                        break;
+                    case 5:  // A deleted value.
+                        if (values.length>domain.minCount) {
+                            int shorter[] = new int[values.length-1];
+                            System.arraycopy(values, 0, shorter, 0, i);
+                            System.arraycopy(values, i+1, shorter, i, values.length-i-1);
+                            values = shorter;
+                        }
+                        break;
+                    case 6:  // A duplicated value.
+                        if (values.length>0 && values.length<domain.maxCount) values = insert(values, i, values[i]);
+                        break;
+                    case 7:  // The head of the values and the tail of another input.
+                        int other[] = corpus.get(random.nextInt(corpus.size()));
+                        int cut = random.nextInt(Math.min(values.length, other.length)+1);
+                        int spliced[] = Arrays.copyOf(values, other.length);
+                        System.arraycopy(other, cut, spliced, cut, other.length-cut);
+                        values = spliced;
+                        break;
+                }
+            }
+            return values;
+        }
+
+        int value() {
+            return domain.min + (int) (random.nextDouble() * ((long) domain.max-domain.min+1));
+        }
+
+        int clamp(int value) {
+            return Math.max(domain.min, Math.min(domain.max, value));
+        }
+    }
+
+    static int[] insert(int values[], int i, int value) {
+        int longer[] = new int[values.length+1];
+        System.arraycopy(values, 0, longer, 0, i);
+        longer[i] = value;
+        System.arraycopy(values, i, longer, i+1, values.length-i);
+        return longer;
+    }
+
+    // Record the first input found for a fault.
+    void found(String fault, int values[]) {
+        synchronized (faults) {
+            if (!faults.containsKey(fault)) faults.put(fault, values);
+        }
+    }
+
+    // Shrink the input of a fault, for as long as the run finds the same fault.
+    int[] shrink(Run run, String fault, int values[], InputDomain domain, int maxPolls) {
+        int shrinkRuns = 0;
+        boolean shrunk = true;
+        while (shrunk && shrinkRuns<MaxShrinkRuns) {
+            shrunk = false;
+            for (int candidate[] : domain.shrink(values)) {
+                shrinkRuns++;
+                if (fault.equals(run.fault(run.execute(candidate, domain, maxPolls)))) {
+                    values = candidate;
+                    shrunk = true;
+                    break;
+                }
+                if (shrinkRuns>=MaxShrinkRuns) break;
+            }
+        }
+        return values;
+    }
+
+
+    // Fuzz the program in masfilepath for the given number of seconds, each run allowed
+    // maxPollCount polls. Returns the number of faults found, or -1
+    // if the program could not be assembled or loaded.
+    public int fuzz(String masfilepath, InputDomain domain, IOMode outputMode, double seconds, int maxPollCount) {
+        executions = 0;
+        corpusSize = edgesCovered = 0;
+        faults.clear();
+        if (masfilepath==null) return -1;
+        File masfile = new File(masfilepath);
+        if (!masfile.exists()) {
+            log.a("File " + masfilepath + " not found.");
+            return -1;
+        }
+        setlog(masfile.getPath().replace(".mas", LogType));
+        File mexfile = Test.assemble(masfile, log);
+        if (mexfile==null) return -1;
+        MarieMachine loaded = new MarieMachine();
+        if (!loaded.load(mexfile)) {
+            log.a("Cannot load file " + mexfile.getName());
+            return -1;
+        }
+        loaded.setInputMode(domain.getMode().getValue());
+        loaded.setOutputMode(outputMode.getValue());
+        log.a("Fuzzing " + mexfile.getName() + " for " + seconds + " s with " + workers + " workers, "
+              + maxPollCount + " polls per run");
+
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds*1e9);
+        List<Worker> team = new ArrayList<Worker>();
+        for (int w=0; w<workers; w++) team.add(new Worker(loaded, domain, maxPollCount, deadline, seed + w*SeedMix));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            for (Future<Long> result : pool.invokeAll(team)) executions += result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            log.a("Fuzzing failed: " + ex.getCause());
+        }
+        pool.shutdown();
+        double elapsed = (System.nanoTime()-start) / 1e9;
+
+        byte seen[] = new byte[EdgeCoverage.MapSize];
+        for (Worker worker : team) {
+            corpusSize += worker.corpus.size();
+            for (int i=0; i<seen.length; i++) seen[i] |= worker.seen[i];
+        }
+        for (byte buckets : seen) edgesCovered += buckets!=0 ? 1 : 0;
+        log.a(String.format("%d runs in %.1f s (%.0f runs per second per worker)", executions, elapsed,
+                            executions/elapsed/workers));
+        log.a("Corpus: " + corpusSize + " inputs, taking " + edgesCovered + " edges");
+
+        Run run = new Run(loaded);
+        if (faults.isEmpty()) log.a("No crashes or hangs found.");
+        for (Map.Entry<String, int[]> fault : faults.entrySet()) {
+            int values[] = shrink(run, fault.getKey(), fault.getValue(), domain, maxPollCount);
+            String input = domain.format(values);
+            log.a(fault.getKey() + (fault.getKey().startsWith("time up") ? " (" + maxPollCount + " polls)" : "")
+                  + ", with input " + (input==null ? "(none)" : input));
+        }
+        log.a("Tests completed on file " + mexfile.getName());
+        log.flush();
+        return faults.size();
+    }
+
+
+    public static void main(String args[]) {
+        if (args.length<5) {
+            System.out.println("Usage: Fuzzer file.mas inputmode min max outputmode [values [seconds [polls]]]");
+            System.out.println("  inputmode, outputmode: dec, hex or ascii. For ascii input, min and max are characters from ! to ~.");
+            System.out.println("Add -Dmarie.workers=n to set the number of workers, -Dmarie.seed=s to repeat a search.");
+            return;
+        }
+        IOMode inputMode = IOMode.valueOf(args[1].toLowerCase());
+        IOMode outputMode = IOMode.valueOf(args[4].toLowerCase());
+        int values = args.length>5 ? Integer.parseInt(args[5]) : 4;
+        double seconds = args.length>6 ? Double.parseDouble(args[6]) : 10;
+        int polls = args.length>7 ? Integer.parseInt(args[7]) : 10;
+
+        InputDomain domain;
+        switch (inputMode) {
+            case ascii:
+                domain = InputDomain.ascii(InputDomain.range(args[2].charAt(0), args[3].charAt(0)), 1, values);
+                break;
+            case hex:
+                domain = InputDomain.hex(Integer.parseInt(args[2], 16), Integer.parseInt(args[3], 16), 1, values);
+                break;
+            default:
+                domain = InputDomain.dec(Integer.parseInt(args[2]), Integer.parseInt(args[3]), 1, values);
+        }
+
+        Fuzzer fuzzer = new Fuzzer();
+        fuzzer.setWorkers(Integer.getInteger("marie.workers", fuzzer.workers));
+        if (System.getProperty("marie.seed")!=null) fuzzer.setSeed(Long.getLong("marie.seed", 0));
+        fuzzer.fuzz(args[0], domain, outputMode, seconds, polls);
+        ResultLog.sync();
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ *
+ * A grading report: one record per test run, in CSV and in JUnit XML.
+ *
+ * Each record gives the file tested, the run number, the inputs, the expected and
+ * the actual output (cleaned as for the log), whether the run passed, the number of
+ * instructions executed, the wall time, why the run ended, the other execution
+ * metrics of the run (see RunMetrics) and the instruction budget it was given, if any.
+ * The records of all files tested go to the same two report files, so that a whole
+ * class can be read into a gradebook at once.
+ *
+ * Records are written as they come and flushed whenever the tested file changes.
+ * In the XML report each file is a testsuite and each run a testcase; the testsuite
+ * is closed when the next file starts, and the document when the report is closed
+ * (at the latest when the JVM shuts down).
+ *
+ * A consolidated report (see consolidated()) instead holds the latest runs of each
+ * file, for a tester that tests files again as they change, and rewrites the report
+ * files from them on request.
+ *
+ * When the report is closed, the files are also ranked by efficiency in a summary
+ * table, pathPrefix-ranking.txt: the files that passed more runs first, then the
+ * ones that executed fewer instructions. If a reference solution was tested, each
+ * file's instructions are also given relative to the reference's.
+ *
+ */
+
+public class GradingReport {
+    public static final String CsvType = ".csv";
+    public static final String XmlType = ".xml";
+    public static final String RankingType = "-ranking.txt";
+
+    BufferedWriter csv;
+    BufferedWriter xml;
+    String currentFile = null;
+    boolean closed = false;
+    Thread closer;
+    String pathPrefix;
+    String reference;              // The file of the reference solution, if any.
+
+    // A consolidated report keeps the records of each file, and rewrites the report files from them.
+    boolean consolidated = false;
+    final Map<String, List<Record>> records = new LinkedHashMap<String, List<Record>>();
+
+    // One run.
+    static class Record {
+        final String file;
+        final int run;
+        final String input, expectedOutput, actualOutput;
+        final boolean passed;
+        final RunMetrics metrics;
+        final String termination;
+
+        Record(String file, int run, String input, String expectedOutput, String actualOutput,
+               boolean passed, RunMetrics metrics, String termination) {
+            this.file = file;
+            this.run = run;
+            this.input = input;
+            this.expectedOutput = expectedOutput;
+            this.actualOutput = actualOutput;
+            this.passed = passed;
+            this.metrics = metrics;
+            this.termination = termination;
+        }
+    }
+
+    // The totals over the runs of each file, for the ranking.
+    static class Totals {
+        final String file;
+        int runs, passed;
+        long instructions, wallNanos;
+        int cellsRead, cellsWritten, maxCallDepth;  // The most of any run.
+        long inputWaits;
+
+        Totals(String file) { this.file = file; }
+    }
+    final Map<String, Totals> totals = new LinkedHashMap<String, Totals>();
+
+    // Create pathPrefix.csv and pathPrefix.xml.
+    public GradingReport(String pathPrefix) throws IOException {
+        this(pathPrefix, false);
+        openFiles(pathPrefix);
+    }
+
+    private GradingReport(String pathPrefix, boolean consolidated) {
+        this.pathPrefix = pathPrefix;
+        this.consolidated = consolidated;
+        closer = new Thread(new Runnable() {
+            public void run() { close(); }
+        }, "MARIE grading report shutdown");
+        Runtime.getRuntime().addShutdownHook(closer);
+    }
+
+    // A report that holds the latest runs of each file: the runs of a file tested again
+    // replace its earlier runs (see removeFile()), and the report files are rewritten
+    // as a whole by rewrite().
+    // With no pathPrefix, the report only holds the runs and writes no files.
+    public static GradingReport consolidated(String pathPrefix) {
+        return new GradingReport(pathPrefix, true);
+    }
+
+    private void openFiles(String prefix) throws IOException {
+        csv = open(prefix + CsvType);
+        xml = open(prefix + XmlType);
+        csv.write("file,run,input,expected,actual,result,instructions,wall_ms,termination,"
+                  + "opcodes,cells_read,cells_written,max_call_depth,input_waits,budget");
+        csv.newLine();
+        xml.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.newLine();
+        xml.write("<testsuites name=\"MARIE tests\">");
+        xml.newLine();
+    }
+
+    private void closeFiles() throws IOException {
+        endSuite();
+        xml.write("</testsuites>");
+        xml.newLine();
+        xml.close();
+        csv.close();
+        writeRanking();
+    }
+
+    private static BufferedWriter open(String path) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8));
+    }
+
+
+    // The file of the reference solution, which the other files are ranked against.
+    public synchronized void setReference(String file) {
+        reference = file;
+    }
+
+    // Record one run.
+    public synchronized void add(String file, int run, String input, String expectedOutput, String actualOutput,
+                                 boolean passed, RunMetrics metrics, String termination) {
+        if (closed) return;
+        if (expectedOutput==null) expectedOutput = "";
+        if (input==null) input = "";
+        Record record = new Record(file, run, input, expectedOutput.trim(), actualOutput, passed,
+                                   consolidated ? metrics.copy() : metrics, termination);
+        total(record);
+        if (consolidated) {
+            List<Record> runs = records.get(file);
+            if (runs==null) {
+                runs = new ArrayList<Record>();
+                records.put(file, runs);
+            }
+            runs.add(record);
+            return;
+        }
+        try {
+            write(record);
+        } catch (IOException ex) {
+            failed(ex);
+        }
+    }
+
+    // Forget the runs of a file, e.g. before it is tested again or when it is deleted.
+    public synchronized void removeFile(String file) {
+        records.remove(file);
+        totals.remove(file);
+    }
+
+    // Rewrite the report files of a consolidated report from the runs it holds.
+    // The files are written aside and then moved in place, so a reader never sees half a report.
+    public synchronized void rewrite() {
+        if (closed || !consolidated || pathPrefix==null) return;
+        String temporary = pathPrefix + ".tmp";
+        try {
+            openFiles(temporary);
+            for (List<Record> runs : records.values()) {
+                for (Record record : runs) write(record);
+            }
+            closeFiles();
+            replace(temporary + CsvType, pathPrefix + CsvType);
+            replace(temporary + XmlType, pathPrefix + XmlType);
+        } catch (IOException ex) {
+            failed(ex);
+        }
+    }
+
+    private static void replace(String from, String to) throws IOException {
+        Path source = Paths.get(from), target = Paths.get(to);
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void write(Record r) throws IOException {
+        long wallNanos = r.metrics.getWallNanos();
+        String instructionText = Long.toString(r.metrics.getInstructions());
+        if (!r.file.equals(currentFile)) {
+            endSuite();
+            xml.write("  <testsuite name=\"" + xmlText(r.file) + "\">");
+            xml.newLine();
+            currentFile = r.file;
+        }
+
+        csv.write(csvField(r.file) + "," + r.run + "," + csvField(r.input) + "," + csvField(r.expectedOutput) + ","
+                  + csvField(r.actualOutput) + "," + (r.passed ? "pass" : "fail") + "," + instructionText + ","
+                  + String.format(Locale.ROOT, "%.3f", wallNanos/1e6) + "," + csvField(r.termination) + ","
+                  + csvField(r.metrics.histogram()) + "," + r.metrics.getCellsRead() + "," + r.metrics.getCellsWritten() + ","
+                  + r.metrics.getMaxCallDepth() + "," + r.metrics.getInputWaits() + ","
+                  + (r.metrics.getBudget()>0 ? Long.toString(r.metrics.getBudget()) : ""));
+        csv.newLine();
+
+        xml.write("    <testcase classname=\"" + xmlText(r.file) + "\" name=\"run " + r.run
+                  + "\" time=\"" + String.format(Locale.ROOT, "%.6f", wallNanos/1e9) + "\">");
+        xml.newLine();
+        if (!r.passed) {
+            xml.write("      <failure message=\"Test output seems INCORRECT\" type=\"output\">"
+                      + xmlText("Expected output: " + r.expectedOutput + "\nCleaned test output: " + r.actualOutput)
+                      + "</failure>");
+            xml.newLine();
+        }
+        xml.write("      <system-out>" + xmlText("input: " + r.input + "\ninstructions: " + instructionText
+                                               + "\ntermination: " + r.termination
+                                               + "\nopcodes: " + r.metrics.histogram()
+                                               + "\ncells read: " + r.metrics.getCellsRead()
+                                               + "\ncells written: " + r.metrics.getCellsWritten()
+                                               + "\nmax call depth: " + r.metrics.getMaxCallDepth()
+                                               + "\ninput waits: " + r.metrics.getInputWaits()
+                                               + (r.metrics.getBudget()>0 ? "\ninstruction budget: " + r.metrics.getBudget() : ""))
+                  + "</system-out>");
+        xml.newLine();
+        xml.write("    </testcase>");
+        xml.newLine();
+    }
+
+    // Close the report files. Records added later are ignored.
+    public synchronized void close() {
+        if (closed) return;
+        if (consolidated) rewrite();
+        else {
+            try {
+                closeFiles();
+            } catch (IOException ex) {
+                failed(ex);
+            }
+        }
+        closed = true;
+        try {
+            Runtime.getRuntime().removeShutdownHook(closer);
+        } catch (IllegalStateException ex) {
+            // Already shutting down.
+        }
+    }
+
+    private void endSuite() throws IOException {
+        if (currentFile==null) return;
+        xml.write("  </testsuite>");
+        xml.newLine();
+        xml.flush();
+        csv.flush();
+        currentFile = null;
+    }
+
+    private void total(Record record) {
+        String file = record.file;
+        boolean passed = record.passed;
+        RunMetrics metrics = record.metrics;
+        Totals t = totals.get(file);
+        if (t==null) {
+            t = new Totals(file);
+            totals.put(file, t);
+        }
+        t.runs++;
+        if (passed) t.passed++;
+        t.instructions += metrics.getInstructions();
+        t.wallNanos += metrics.getWallNanos();
+        t.cellsRead = Math.max(t.cellsRead, metrics.getCellsRead());
+        t.cellsWritten = Math.max(t.cellsWritten, metrics.getCellsWritten());
+        t.maxCallDepth = Math.max(t.maxCallDepth, metrics.getMaxCallDepth());
+        t.inputWaits += metrics.getInputWaits();
+    }
+
+    // Rank the files: the most runs passed first, then the fewest instructions.
+    private void writeRanking() throws IOException {
+        if (totals.isEmpty()) return;
+        List<Totals> ranking = new ArrayList<Totals>(totals.values());
+        Collections.sort(ranking, new Comparator<Totals>() {
+            public int compare(Totals a, Totals b) {
+                if (a.passed!=b.passed) return b.passed - a.passed;
+                return Long.compare(a.instructions, b.instructions);
+            }
+        });
+        Totals base = reference==null ? null : totals.get(reference);
+        int width = "File".length();
+        for (Totals t : ranking) width = Math.max(width, t.file.length() + (t==base ? 6 : 0));
+
+        BufferedWriter out = open(pathPrefix + RankingType);
+        try {
+            out.write("Efficiency ranking" + (base!=null ? " against " + base.file : "")
+                      + " (cells and call depth: the most of any run)");
+            out.newLine();
+            String format = "%4s  %-" + width + "s  %7s  %12s  %7s  %10s  %13s  %10s  %11s  %10s";
+            out.write(String.format(Locale.ROOT, format, "Rank", "File", "Passed", "Instructions", "Vs ref",
+                                    "Cells read", "Cells written", "Call depth", "Input waits", "Wall ms"));
+            out.newLine();
+            int rank = 0;
+            for (Totals t : ranking) {
+                rank++;
+                String ratio = base!=null && base.instructions>0
+                    ? String.format(Locale.ROOT, "%.2fx", (double) t.instructions/base.instructions) : "-";
+                out.write(String.format(Locale.ROOT, format, rank, t.file + (t==base ? " (ref)" : ""),
+                                        t.passed + "/" + t.runs, t.instructions, ratio, t.cellsRead, t.cellsWritten,
+                                        t.maxCallDepth, t.inputWaits, String.format(Locale.ROOT, "%.1f", t.wallNanos/1e6)));
+                out.newLine();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void failed(IOException ex) {
+        System.err.println("Cannot write grading report: " + ex.getMessage());
+        closed = true;
+    }
+
+
+    // A run that halted by itself, without an error.
+    public static final String Halted = "halted";
+
+    // A run halted by the tester as soon as its output could no longer match (see OutputComparator).
+    public static final String OutputDiverged = "output diverged";
+
+    // A run halted when it had executed its instruction budget (see BudgetCalibrator).
+    public static final String BudgetExceeded = "budget exceeded";
+
+    // Why a run ended.
+    public static String termination(int state, int errorCode, boolean timeUp, boolean waitingForInput, boolean stalled) {
+        if (timeUp) {
+            if (stalled) return "stalled";
+            if (waitingForInput) return "time up waiting for input";
+            return "time up";
+        }
+        switch (state) {
+            case MarieSim.MARIE_HALTED_NORMAL: return Halted;
+            case MarieSim.MARIE_HALTED_BY_USER: return "halted by user";
+            case MarieSim.MARIE_HALTED_ABNORMAL:
+                if (errorCode>=0 && errorCode<MarieMachine.errorMessages.length)
+                    return "error: " + MarieMachine.errorMessages[errorCode];
+                return "error " + errorCode;
+        }
+        return "not run";
+    }
+
+
+    static String csvField(String text) {
+        if (text==null) return "";
+        if (text.indexOf(',')<0 && text.indexOf('"')<0 && text.indexOf('\n')<0 && text.indexOf('\r')<0)
+            return text;
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    static String xmlText(String text) {
+        StringBuilder b = new StringBuilder(text.length());
+        for (int i=0; i<text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': b.append("&amp;"); break;
+                case '<': b.append("&lt;"); break;
+                case '>': b.append("&gt;"); break;
+                case '"': b.append("&quot;"); break;
+                default:
+                    // Control characters other than tab and line ends aren't allowed in XML 1.0.
+                    if (c<' ' && c!='\t' && c!='\n' && c!='\r') b.append('?');
+                    else b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
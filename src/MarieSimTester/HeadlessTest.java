@@ -0,0 +1,587 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ *
+ * An IO test module that runs MARIE programs without a display.
+ *
+ * HeadlessTest performs the same tests as Test and writes the same log, but runs
+ * each program on a MarieMachine instead of in the MarieSim window. Input is handed
+ * to the machine as soon as it asks for it, rather than entered into the simulator's
+ * input register, so the tests need neither a display nor the wall-clock time of polling.
+ *
+ * The time allowed for a run is kept in the same unit: a run is given maxPollCount
+ * polls, and the machine executes as many instructions between two polls as MarieSim
+ * executes in a poll interval at its default delay. A poll hands the machine at most
+ * one input, as Test does. A program that doesn't halt within its polls is halted,
+ * as Test halts it when the time is up.
+ *
+ * The tests run synchronously and return when they are done; the JVM is not exited.
+ *
+ * HeadlessTest also runs test suite files (see TestSuite), streaming the cases:
+ *   java MarieSimTester.HeadlessTest suitefile [file.mas | directory]
+ * tests the program named in the suite, or the given file or all mas files in the
+ * given directory instead.
+ *
+ * The output is compared as it is written (see OutputComparator): a run is halted as
+ * soon as its output can no longer match, and the log tells where it diverged.
+ *
+ * With a reference solution, each case can be given an instruction budget of a multiple
+ * of the instructions the reference executes on it (see BudgetCalibrator), in place of
+ * its polls. A run that exceeds its budget is halted.
+ *
+ * Every run can also be reported to a CSV and a JUnit XML grading report (see GradingReport).
+ *
+ * With a result cache (see ResultCache), a test case that the same program image was
+ * already run on is not run again: its run is logged and reported from the cache.
+ * The suite runner uses the shared cache unless it is given --force, which runs all
+ * the cases again and refreshes their results.
+ *
+ * The suite runner also keeps a record of each program's grading (see TestSelection).
+ * When the program is resubmitted, a case that read none of the lines changed since,
+ * and passed, is logged and reported from the record instead of run again.
+ *
+ */
+
+public class HeadlessTest implements Tester {
+    // Instructions executed by MarieSim in one poll interval at its default delay.
+    static final long InstructionsPerPoll = Test.PollInterval / MarieSim.MINIMUM_DELAY;
+    // Run every case again, rather than take results from the cache.
+    public static final String ForceFlag = "--force";
+
+    MarieMachine machine = new MarieMachine();
+    ResultLog log = new ResultLog();
+    boolean logInputs = true;      // Log each input as it is supplied.
+    OutputComparator comparator = OutputComparator.tokens();
+    IOMode outputMode = IOMode.dec;
+    boolean comparing = false;     // The run in progress is compared with an expected output.
+    boolean diverged = false;      // The run was halted when its output diverged.
+    GradingReport report;
+    File reference;                // The reference solution, if any.
+    File reportRoot;               // If set, files are reported by their path relative to it.
+    boolean suiteLogs = false;     // Log a suite's runs of file.mas to file-suite.log, not file.log.
+    long runNanos;                 // Wall time of the last run.
+    String termination;            // Why the last run ended.
+    String runOutput;              // Output of the last run.
+    RunMetrics runMetrics;         // Metrics of the last run.
+    int inputsTaken;               // Inputs handed to the machine in the last run.
+
+    double budgetMultiple = 0;     // Budgets of this multiple of the reference's instructions, if positive.
+    BudgetCalibrator calibrator;
+    long budget = 0;               // Instruction budget of the run, 0 if none.
+
+    ResultCache results;           // Cached results of runs, if any.
+    boolean force = false;         // Run every case, even if its result is cached.
+    IOMode inputMode = IOMode.dec;
+    String imageKey;               // Key of the program loaded, for the result cache.
+    File selectionDirectory;       // Records of the gradings, to re-select the cases of resubmissions.
+    TestSelection selection;       // The selection for the program being graded, if any.
+
+
+    public HeadlessTest() {
+        // Hand each output value to the comparator, and halt the run once it can't match.
+        machine.addMachineListener(new MachineListener() {
+            public void onInputRequested() {}
+            public void onOutput(int value, String text) {
+                if (comparing && !comparator.accept(value, text)) {
+                    comparing = false;
+                    diverged = true;
+                    machine.halt();
+                }
+            }
+            public void onHalt(int state) {}
+            public void onError(int errorCode) {}
+        });
+    }
+
+
+    public void setlog(String filepath) {
+        log.setfile(filepath);
+    }
+
+    public void setReference(String masfilepath) {
+        reference = masfilepath==null ? null : new File(masfilepath);
+        if (report!=null) report.setReference(reference==null ? null : reference.getName().replace(".mas", ".mex"));
+    }
+
+    public void setComparator(OutputComparator comparator) {
+        this.comparator = comparator==null ? OutputComparator.tokens() : comparator;
+    }
+
+    // Give each case a budget of the multiple of the instructions the reference executes
+    // on it (see BudgetCalibrator), instead of its polls. 0 gives the cases their polls.
+    public void setBudget(double multiple) {
+        budgetMultiple = multiple;
+    }
+
+    // Use a result cache, or none. If forced, every case is run and its result cached again.
+    public void setResultCache(ResultCache results, boolean force) {
+        this.results = results;
+        this.force = force;
+    }
+
+    // Keep a record of each program's grading in the directory, and on its next grading run
+    // only the cases that its changes may affect (see TestSelection). Null runs every case.
+    public void setSelection(File directory) {
+        selectionDirectory = directory;
+    }
+
+    public void setReport(String pathPrefix) {
+        if (report!=null) report.close();
+        report = null;
+        if (pathPrefix==null) return;
+        try {
+            report = new GradingReport(pathPrefix);
+            if (reference!=null) report.setReference(reference.getName().replace(".mas", ".mex"));
+        } catch (IOException ex) {
+            System.err.println("Cannot create grading report " + pathPrefix + ": " + ex.getMessage());
+        }
+    }
+
+    // Input is a directory containing all the *.mas files
+    public File[] getFiles(String relativePath) {
+        return Test.masFiles(relativePath);
+    }
+
+    public File assemble(File masfile) {
+        return Test.assemble(masfile, log);
+    }
+
+
+    // Execute the loaded program once, supplying the inputs upon request.
+    // If multiple inputs are provided within a single run, the inputs are expected
+    // to be delimited by a single whitespace.
+    void run(String input, int maxPolls) {
+        String inputs[] = input==null ? null : input.split(" ");
+        inputsTaken = 0;
+        long start = System.nanoTime();
+        // With a budget, the run is given the polls of the budget, and no more instructions.
+        long limit = budget>0 ? budget : Long.MAX_VALUE;
+        if (budget>0) maxPolls = BudgetCalibrator.polls(budget, input);
+
+        machine.restart();
+        machine.run(Math.min(InstructionsPerPoll, limit));
+        for (int pollCount=1; pollCount<=maxPolls && !machine.isHalted() && machine.getInstructionCount()<limit; pollCount++) {
+            // If tester provided input, then supply it to the machine upon request.
+            if (inputs!=null && machine.isRequestingInput() && inputsTaken<inputs.length) {
+                if (logInputs) log.a("Testing input " + inputs[inputsTaken]);
+                machine.input(inputs[inputsTaken]);
+                inputsTaken++;
+            }
+            machine.run(Math.min(InstructionsPerPoll, limit-machine.getInstructionCount()));
+        }
+        // Time's up for the run.
+        boolean timeUp = !machine.isHalted();
+        termination = GradingReport.termination(machine.getState(), machine.getErrorCode(), timeUp,
+                                                machine.isRequestingInput(), machine.isStalled());
+        if (timeUp && machine.getInstructionCount()>=limit) termination = GradingReport.BudgetExceeded;
+        if (timeUp) machine.halt();
+        runNanos = System.nanoTime() - start;
+        machine.getMetrics().setWallNanos(runNanos);
+        machine.getMetrics().setBudget(budget);
+        runOutput = machine.getOutput();
+        runMetrics = machine.getMetrics();
+    }
+
+    // Execute the loaded program once, comparing its output with the expected output as it is written.
+    // The result is taken from the result cache if it is there, and put there if it isn't.
+    void run(String input, String expectedOutput, int maxPolls) {
+        budget = 0;
+        if (budgetMultiple>0 && reference!=null) {
+            if (calibrator==null || calibrator.getMultiple()!=budgetMultiple || !calibrator.reference.equals(reference))
+                calibrator = new BudgetCalibrator(reference, budgetMultiple);
+            budget = calibrator.budget(input, inputMode, outputMode, maxPolls);
+            if (budget>0) log.a(calibrator.describe(budget, input, inputMode, outputMode, maxPolls));
+        }
+        String caseKey = null;
+        if (selection!=null) {
+            caseKey = ResultCache.key("", inputMode, outputMode, input, expectedOutput, maxPolls, budget, comparator);
+            TestSelection.Case graded = force ? null : selection.reusable(caseKey);
+            if (graded!=null) {
+                replay(input, expectedOutput, graded.entry, "Result of the last grading: the run reads no line changed since.");
+                selection.record(caseKey, graded, true);
+                return;
+            }
+        }
+        String key = null;
+        if (results!=null && imageKey!=null) {
+            key = ResultCache.key(imageKey, inputMode, outputMode, input, expectedOutput, maxPolls, budget, comparator);
+            ResultCache.Entry entry = force ? null : results.lookup(key);
+            if (entry!=null) {
+                replay(input, expectedOutput, entry, "Result of an earlier run, from the cache.");
+                // What the run read is not cached: the next grading runs the case again.
+                if (caseKey!=null) selection.record(caseKey, new TestSelection.Case(entry, comparator.matches(), null), false);
+                return;
+            }
+        }
+        comparator.start(expectedOutput, outputMode);
+        comparing = true;
+        diverged = false;
+        run(input, maxPolls);
+        comparing = false;
+        if (diverged) termination = GradingReport.OutputDiverged;
+        if (key!=null || caseKey!=null) {
+            comparator.matches();
+            ResultCache.Entry entry = new ResultCache.Entry(runOutput, comparator.divergence(), inputsTaken, termination,
+                                                            runMetrics.encode());
+            if (key!=null) results.store(key, entry);
+            if (caseKey!=null)
+                selection.record(caseKey, new TestSelection.Case(entry, comparator.matches(), machine.getReads().clone()), false);
+        }
+    }
+
+    // Take the last run from the cache (or another record of it), logging its inputs as the run did.
+    private void replay(String input, String expectedOutput, ResultCache.Entry entry, String source) {
+        String inputs[] = input==null ? new String[0] : input.split(" ");
+        inputsTaken = Math.min(entry.inputsTaken, inputs.length);
+        if (logInputs) {
+            for (int i=0; i<inputsTaken; i++) log.a("Testing input " + inputs[i]);
+        }
+        log.a(source);
+        comparator.start(expectedOutput, outputMode);
+        comparator.settle(entry.divergence);
+        runOutput = entry.output;
+        runMetrics = RunMetrics.decode(entry.metrics);
+        runNanos = runMetrics.getWallNanos();
+        termination = entry.termination;
+    }
+
+    // Check the output of the run just done, and report the run.
+    boolean verifyOutputs(File mexfile, int run, String input, String expectedOutput) {
+        boolean passed = Test.verifyOutputs(log, runOutput, expectedOutput, comparator);
+        if (report!=null) {
+            report.add(reportName(mexfile), run, input, expectedOutput, Test.cleanOutput(runOutput), passed,
+                       runMetrics, termination);
+        }
+        return passed;
+    }
+
+    // The name of a file in the grading report.
+    String reportName(File mexfile) {
+        if (reportRoot==null) return mexfile.getName();
+        try {
+            return reportRoot.getAbsoluteFile().toPath().relativize(mexfile.getAbsoluteFile().toPath()).toString();
+        } catch (IllegalArgumentException ex) {
+            return mexfile.getPath();
+        }
+    }
+
+    boolean load(File mexfile, IOMode inputMode, IOMode outputMode) {
+        machine.setInputMode(inputMode.getValue());
+        machine.setOutputMode(outputMode.getValue());
+        this.inputMode = inputMode;
+        this.outputMode = outputMode;
+        imageKey = null;
+        if (!machine.load(mexfile)) return false;
+        if (results!=null) imageKey = ResultCache.imageKey(machine);
+        return true;
+    }
+
+
+    // Load the program another tester has loaded, forking its machine.
+    void load(HeadlessTest loaded) {
+        inputMode = loaded.inputMode;
+        outputMode = loaded.outputMode;
+        imageKey = loaded.imageKey;
+        machine.load(loaded.machine);
+    }
+
+
+    // Test one file for a single run.
+    private void singleRun(File mexfile, String input, String expectedOutput, IOMode inputMode, IOMode outputMode, int maxPolls) {
+        if (mexfile==null || !mexfile.exists()) return;
+        if (!load(mexfile, inputMode, outputMode)) return;
+
+        run(input, expectedOutput, maxPolls);
+        verifyOutputs(mexfile, 1, input, expectedOutput);
+        log.a("Test completed on file " + mexfile.getName());
+        log.flush();
+    }
+
+    // Sequentially test one file for multiple runs.
+    private void multiRuns(File mexfile, String inputs[], String expectedOutputs[], IOMode inputMode, IOMode outputMode, int maxPollsPerRun) {
+        if (mexfile==null || !mexfile.exists()) return;
+        // The length of inputs determines the number of runs.
+        if (inputs==null || expectedOutputs==null) return;
+        if (inputs.length != expectedOutputs.length) return;
+        if (!load(mexfile, inputMode, outputMode)) return;
+
+        for (int runCount=0; runCount<inputs.length; runCount++) {
+            log.a("Start run " + (runCount+1));
+            run(inputs[runCount], expectedOutputs[runCount], maxPollsPerRun);
+            verifyOutputs(mexfile, runCount+1, inputs[runCount], expectedOutputs[runCount]);
+            log.a("Run completed.");
+            log.flush();
+        }
+        log.a("Tests completed on file " + mexfile.getName());
+        log.flush();
+    }
+
+    // Sequentially test multiple files for multiple runs.
+    private void multiRuns(File mexfile[], String inputs[], String expectedOutputs[], IOMode inputMode, IOMode outputMode, int maxPollsPerRun) {
+        if (mexfile==null || mexfile.length==0) return;
+        // The length of inputs determines the number of runs.
+        if (inputs==null || expectedOutputs==null) return;
+        if (inputs.length != expectedOutputs.length) return;
+
+        for (File file : mexfile) {
+            // Redirect log
+            setlog(file.getPath().replace(".mex", ".log"));
+            log.a("Ready to test " + file);
+            if (!load(file, inputMode, outputMode)) continue;
+            for (int runCount=0; runCount<inputs.length; runCount++) {
+                log.a("Starting run " + (runCount+1) + " with input: " + inputs[runCount]);
+                run(inputs[runCount], expectedOutputs[runCount], maxPollsPerRun);
+                verifyOutputs(file, runCount+1, inputs[runCount], expectedOutputs[runCount]);
+                log.a("Run completed.");
+                log.flush();
+            }
+        }
+    }
+
+
+    private void singleRun(String masfilepath, String input, String expectedOutput, int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        if (masfilepath==null) return;
+        File masfile = new File(masfilepath);
+        setlog(masfile.getPath().replace(".mas", ".log"));
+
+        File mexfile = assemble(masfile);
+        if (mexfile!=null) {
+            singleRun(mexfile, input, expectedOutput, inputMode, outputMode, maxPollCount);
+        }
+    }
+
+    private void multiRuns(File masfile, String inputs[], String expectedOutputs[], int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        setlog(masfile.getPath().replace(".mas", ".log"));
+        File mexfile = assemble(masfile);
+        if (mexfile!=null) {
+            multiRuns(mexfile, inputs, expectedOutputs, inputMode, outputMode, maxPollCount);
+        }
+    }
+
+    private void multiRuns(File masfiles[], String inputs[], String expectedOutputs[], int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        masfiles = Test.withReference(masfiles, reference);
+        // Assemble all in batch.
+        ArrayList<File> mexlist = new ArrayList<File>();
+        for (File masfile : masfiles) {
+            File mexfile = assemble(masfile);
+            if (mexfile!=null) {
+                mexlist.add(mexfile);
+            }
+        }
+        // Run tests for all
+        multiRuns(mexlist.toArray(new File[mexlist.size()]), inputs, expectedOutputs, inputMode, outputMode, maxPollCount);
+    }
+
+    private void multiRuns(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        if (masfilepath==null) return;
+        File masfile = new File(masfilepath);
+        if (!masfile.exists()) {
+            log.a("File " + masfilepath + " not found.");
+            return;
+        }
+
+        // Determine whether to run in batch or not.
+        if (masfile.isDirectory()) {
+            log.a("Preparing to test all mas files in directory " + masfile.getName() + ":");
+            // If a directory is provided, test all mas files inside it.
+            multiRuns(getFiles(masfilepath), inputs, expectedOutputs, maxPollCount, inputMode, outputMode);
+        }
+        else { // one test file
+            multiRuns(masfile, inputs, expectedOutputs, maxPollCount, inputMode, outputMode);
+        }
+    }
+
+    // Run the cases of a suite on one file, as multiRuns() runs its inputs.
+    private void runSuite(TestSuite suite, File masfile) throws IOException {
+        setlog(logPath(masfile, suite));
+        File mexfile = assemble(masfile);
+        if (mexfile==null) return;
+        if (!load(mexfile, suite.getInputMode(), suite.getOutputMode())) return;
+        OutputComparator defaultComparator = comparator;
+        if (suite.getComparator()!=null) comparator = suite.getComparator();
+        selection = null;
+        if (selectionDirectory!=null) {
+            try {
+                selection = TestSelection.open(selectionDirectory, suite.file, masfile, mexfile);
+                if (selection.describe()!=null) log.a(selection.describe());
+            } catch (IOException ex) {
+                // Run every case, without a record.
+            }
+        }
+        machine.setReadTracking(selection!=null);
+
+        int runCount = 0;
+        int passed = 0;
+        while (suite.nextCase()) {
+            log.a("Start run " + (runCount+1));
+            run(suite.getInput(), suite.getExpectedOutput(), suite.getPolls());
+            if (verifyOutputs(mexfile, runCount+1, suite.getInput(), suite.getExpectedOutput())) passed++;
+            log.a("Run completed.");
+            log.flush();
+            runCount++;
+        }
+        if (selection!=null) {
+            selection.save();
+            log.a("Reused the results of " + selection.getReused() + " of " + runCount + " runs from the last grading.");
+            selection = null;
+            machine.setReadTracking(false);
+        }
+        log.a("Tests completed on file " + mexfile.getName());
+        log.flush();
+        log.console("Passed " + passed + " of " + runCount + " runs.");
+        comparator = defaultComparator;
+    }
+
+    // The log of a suite's runs of a file. Several suites run on one file keep apart
+    // if the logs are kept by suite.
+    private String logPath(File masfile, TestSuite suite) {
+        if (!suiteLogs) return masfile.getPath().replace(".mas", ".log");
+        return masfile.getPath().replace(".mas", "-" + suite.file.getName().replace(TestSuite.FileType, "") + ".log");
+    }
+
+    // Run a suite file on the program it names, or on masfilepath (a file or a directory) if given.
+    public void runSuite(String suitepath, String masfilepath) {
+        File suitefile = new File(suitepath);
+        TestSuite suite = null;
+        try {
+            suite = TestSuite.open(suitefile);
+            File masfile = masfilepath!=null ? new File(masfilepath) : suite.getProgram();
+            if (!masfile.exists()) {
+                log.a("File " + masfile.getPath() + " not found.");
+                return;
+            }
+            if (!masfile.isDirectory()) {
+                runSuite(suite, masfile);
+                return;
+            }
+            log.a("Preparing to test all mas files in directory " + masfile.getName() + ":");
+            File masfiles[] = Test.withReference(getFiles(masfile.getPath()), reference);
+            for (int i=0; i<masfiles.length; i++) {
+                // Stream the cases again for each file.
+                if (i>0) {
+                    suite.close();
+                    suite = TestSuite.open(suitefile);
+                }
+                runSuite(suite, masfiles[i]);
+            }
+        } catch (IOException ex) {
+            log.a(ex.getMessage());
+        } finally {
+            if (suite!=null) suite.close();
+        }
+    }
+
+    // The budget multiple given with -Dmarie.budget, or 0.
+    public static double budget() {
+        String multiple = System.getProperty("marie.budget");
+        return multiple==null ? 0 : Double.parseDouble(multiple);
+    }
+
+    public static void main(String args[]) {
+        boolean force = args.length>0 && args[0].equals(ForceFlag);
+        if (force) args = Arrays.copyOfRange(args, 1, args.length);
+        if (args.length<1) {
+            System.out.println("Usage: HeadlessTest [" + ForceFlag + "] suitefile [file.mas | directory]");
+            System.out.println("Cached results, and the results of a resubmission's last grading that its");
+            System.out.println("changes can't affect, are used unless " + ForceFlag + " is given.");
+            System.out.println("Add -Dmarie.report=prefix to write a grading report to prefix.csv and prefix.xml.");
+            System.out.println("Add -Dmarie.reference=file.mas to rank the files against a reference solution.");
+            System.out.println("Add -Dmarie.budget=m to give each case m times the instructions the reference executes.");
+            return;
+        }
+        HeadlessTest tester = new HeadlessTest();
+        tester.setResultCache(ResultCache.getShared(), force);
+        tester.setSelection(TestSelection.DefaultDirectory);
+        tester.setBudget(budget());
+        tester.setReference(System.getProperty("marie.reference"));
+        tester.setReport(System.getProperty("marie.report"));
+        tester.runSuite(args[0], args.length>1 ? args[1] : null);
+        tester.setReport(null);
+        ResultLog.sync();
+    }
+
+
+    //////////////////////////////////////////////////////
+    // Public Methods 
+    //////////////////////////////////////////////////////
+    public void singleRunDec2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.dec, IOMode.dec);
+    }
+    public void singleRunDec2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.dec, IOMode.hex);
+    }
+    public void singleRunDec2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.dec, IOMode.ascii);
+    }
+    public void singleRunHex2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.hex, IOMode.dec);
+    }
+    public void singleRunHex2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.hex, IOMode.hex);
+    }
+    public void singleRunHex2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.hex, IOMode.ascii);
+    }
+    public void singleRunAscii2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.ascii, IOMode.dec);
+    }
+    public void singleRunAscii2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.ascii, IOMode.hex);
+    }
+    public void singleRunAscii2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.ascii, IOMode.ascii);
+    }
+
+    
+    
+    // Provide a single file to test one file with multiple runs.
+    // If a directory is provided, test all mas files in the directory with multiple runs.
+    public void multiRunsDec2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.dec, IOMode.dec);
+    }
+    public void multiRunsDec2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.dec, IOMode.hex);
+    }
+    public void multiRunsDec2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.dec, IOMode.ascii);
+    }
+    public void multiRunsHex2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.hex, IOMode.dec);
+    }
+    public void multiRunsHex2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.hex, IOMode.hex);
+    }
+    public void multiRunsHex2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.hex, IOMode.ascii);
+    }
+    public void multiRunsAscii2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.ascii, IOMode.dec);
+    }
+    public void multiRunsAscii2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.ascii, IOMode.hex);
+    }
+    public void multiRunsAscii2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.ascii, IOMode.ascii);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ *
+ * The domain of the inputs of a run, for generated tests (see PropertyTest).
+ *
+ * An input is a tuple of values, written as the tester writes the input of a run:
+ * the values delimited by single spaces. A DEC or HEX domain is a range of numbers,
+ * written in decimal or in hex; an ASCII domain is a set of characters. The tuple
+ * size is a range too. The characters of an ASCII domain are the printable ones but
+ * the blank ('!' to '~'): a blank would split the input, and the tester hands over
+ * a control character as 0, so neither could be replayed as it was generated.
+ *
+ * A tuple can be shrunk: shorter tuples, and values closer to the simplest value of
+ * the domain (the number closest to 0, or the first character of the set), are
+ * simpler. shrink() lists the simpler neighbours of a tuple, the simplest first.
+ *
+ */
+
+public class InputDomain {
+    IOMode mode;
+    int min, max;                  // Range of the values (indices into chars for ASCII).
+    String chars;
+    int minCount, maxCount;        // Range of the tuple size.
+
+    private InputDomain(IOMode mode, int min, int max, String chars, int minCount, int maxCount) {
+        if (min>max || minCount<0 || minCount>maxCount) throw new IllegalArgumentException("empty input domain");
+        this.mode = mode;
+        this.min = min;
+        this.max = max;
+        this.chars = chars;
+        this.minCount = minCount;
+        this.maxCount = maxCount;
+    }
+
+    // Tuples of minCount to maxCount numbers in [min, max], in decimal.
+    public static InputDomain dec(int min, int max, int minCount, int maxCount) {
+        return new InputDomain(IOMode.dec, min, max, null, minCount, maxCount);
+    }
+
+    // Tuples of minCount to maxCount numbers in [min, max], in hex.
+    public static InputDomain hex(int min, int max, int minCount, int maxCount) {
+        return new InputDomain(IOMode.hex, min, max, null, minCount, maxCount);
+    }
+
+    // Tuples of minCount to maxCount characters of chars.
+    public static InputDomain ascii(String chars, int minCount, int maxCount) {
+        for (int i=0; i<chars.length(); i++) {
+            if (chars.charAt(i)<=' ' || chars.charAt(i)>'~')
+                throw new IllegalArgumentException("an ASCII input domain can't hold character " + (int) chars.charAt(i));
+        }
+        return new InputDomain(IOMode.ascii, 0, chars.length()-1, chars, minCount, maxCount);
+    }
+
+    // The printable characters from first to last (e.g. '!' to '~').
+    public static String range(char first, char last) {
+        StringBuilder b = new StringBuilder();
+        for (char c=first; c<=last; c++) b.append(c);
+        return b.toString();
+    }
+
+    public IOMode getMode() { return mode; }
+
+
+    public int[] generate(Random random) {
+        int values[] = new int[minCount + random.nextInt(maxCount-minCount+1)];
+        for (int i=0; i<values.length; i++) values[i] = min + (int) (random.nextDouble() * ((long) max-min+1));
+        return values;
+    }
+
+    // The number of tuples in the domain, or Long.MAX_VALUE if there are more.
+    public long size() {
+        long values = (long) max-min+1;
+        long size = 0, tuples = 1;
+        for (int count=0; count<=maxCount; count++) {
+            if (count>=minCount) size += tuples;
+            if (size<0) return Long.MAX_VALUE;
+            if (count<maxCount) {
+                if (tuples>Long.MAX_VALUE/values) return Long.MAX_VALUE;
+                tuples *= values;
+            }
+        }
+        return size;
+    }
+
+    // The tuple at the given index (0 to size()-1): the shorter tuples first, each size in
+    // lexicographic order. Enumerates the whole domain for an exhaustive search.
+    public int[] tuple(long index) {
+        long values = (long) max-min+1;
+        int count = minCount;
+        long tuples = 1;
+        for (int k=0; k<count; k++) tuples *= values;
+        while (index>=tuples && count<maxCount) {
+            index -= tuples;
+            count++;
+            tuples *= values;
+        }
+        int tuple[] = new int[count];
+        for (int k=count-1; k>=0; k--) {
+            tuple[k] = (int) (min + index%values);
+            index /= values;
+        }
+        return tuple;
+    }
+
+    // The word the machine reads for a value of the domain: the word that
+    // MarieMachine.input() makes of the value as format() writes it.
+    public short word(int value) {
+        return mode==IOMode.ascii ? (short) chars.charAt(value) : (short) value;
+    }
+
+    // The input of a run, or null for an empty tuple.
+    public String format(int values[]) {
+        if (values.length==0) return null;
+        StringBuilder b = new StringBuilder();
+        for (int i=0; i<values.length; i++) {
+            if (i>0) b.append(' ');
+            switch (mode) {
+                case ascii: b.append(chars.charAt(values[i])); break;
+                case hex: b.append(Integer.toHexString(values[i] & 0xFFFF).toUpperCase()); break;
+                default: b.append(values[i]);
+            }
+        }
+        return b.toString();
+    }
+
+
+    // The simplest value of the domain.
+    int simplest() {
+        if (min>0) return min;
+        if (max<0) return max;
+        return 0;
+    }
+
+    // The simpler neighbours of a tuple, the simplest first.
+    public List<int[]> shrink(int values[]) {
+        List<int[]> candidates = new ArrayList<int[]>();
+        // Fewer values: drop half of the tuple, then one value at a time.
+        if (values.length>minCount) {
+            int keep = Math.max(minCount, values.length/2);
+            if (keep<values.length-1) {
+                candidates.add(copy(values, 0, keep));
+                candidates.add(copy(values, values.length-keep, values.length));
+            }
+            for (int i=0; i<values.length; i++) {
+                int shorter[] = new int[values.length-1];
+                System.arraycopy(values, 0, shorter, 0, i);
+                System.arraycopy(values, i+1, shorter, i, values.length-i-1);
+                candidates.add(shorter);
+            }
+        }
+        // Simpler values: jump to the simplest, then halve the distance, then step by one.
+        int target = simplest();
+        for (int i=0; i<values.length; i++) {
+            int v = values[i];
+            if (v==target) continue;
+            int steps[] = { target, v - (v-target)/2, v>target ? v-1 : v+1 };
+            int previous = v;
+            for (int step : steps) {
+                if (step==previous || step==v) continue;
+                int simpler[] = values.clone();
+                simpler[i] = step;
+                candidates.add(simpler);
+                previous = step;
+            }
+        }
+        return candidates;
+    }
+
+    private static int[] copy(int values[], int from, int to) {
+        int part[] = new int[to-from];
+        System.arraycopy(values, from, part, 0, to-from);
+        return part;
+    }
+}
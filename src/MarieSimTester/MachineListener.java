@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+/*
+ *
+ * A listener to the events of a running MARIE machine.
+ *
+ * MarieSim and MarieMachine call their listeners on the thread that runs the program
+ * (or, for a halt requested by a user or a tester, on the thread that requested it).
+ * A listener should return quickly, and hand any real work to a thread of its own.
+ *
+ */
+
+public interface MachineListener {
+    // The machine executed an INPUT instruction and waits for the input.
+    public void onInputRequested();
+
+    // The machine executed an OUTPUT instruction; text is what was appended to the output.
+    public void onOutput(int value, String text);
+
+    // The machine stopped in one of the halted states (MarieSim.MARIE_HALTED_...).
+    public void onHalt(int state);
+
+    // The machine hit a fatal error. The error code indexes MarieSim.errorMsgs.
+    // onHalt follows with the abnormal halt.
+    public void onError(int errorCode);
+}
@@ -13,6 +13,10 @@ import java.io.*;
 import javax.swing.text.*;
 import javax.swing.event.*;
 import java.beans.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class MarieEditor extends JFrame {
 /******************************************************************************************
@@ -49,6 +53,14 @@ public class MarieEditor extends JFrame {
 *   able scroll pane behavior of the latter.  Because of this, we have to create our      *
 *   own document listener as the Java DocumentListener is not applicable to JEditorPane.  *
 *                                                                                         *
+*   While the user types, the source is reassembled in memory on a background thread      *
+*   once typing pauses for DIAGNOSTIC_DELAY milliseconds.  A newer edit cancels any       *
+*   assembly still running for an older one.  Lines with errors are highlighted, and the  *
+*   error messages of the line holding the caret appear in the message field.  Only the   *
+*   lines whose diagnostics changed are re-marked, so typing is never held up, even in    *
+*   sources of the maximum size.  If the editor was opened from the simulator, each edit  *
+*   that assembles without errors is also reloaded into the simulator.                    *
+*                                                                                         *
 *   If the user selects the File | Exit menu option, a wondow-closing event is            *
 *   dispatched so that the caller can monitor the event and destroy the editor's          *
 *   instance if desired.                                                                  *
@@ -58,6 +70,8 @@ public class MarieEditor extends JFrame {
   public static final String      lineFeed = System.getProperty("line.separator");
 
   public static final String EDIT_HELP = "m1edit1.txt";
+  public static final int DIAGNOSTIC_DELAY = 500;  // Typing pause (ms) before reassembly.
+  public static final Color ERROR_LINE_COLOR = new Color(255, 210, 210);
   public static final String INSTR_HELP = "m1isa1.txt";
 
   JPanel editorPane;                        // Container for all editor components
@@ -110,6 +124,24 @@ public class MarieEditor extends JFrame {
   boolean   errorsFound = false;       // Indicator of clean/erroneous assembly.
   boolean   exitOnClose = true;        // Says whether we'll exit() or dispose() when done.
 
+  javax.swing.Timer diagnosticTimer;   // Restarted on each edit; fires when typing pauses.
+  ExecutorService diagnosticWorker =   // Background thread for in-memory assembly.
+               Executors.newSingleThreadExecutor(new ThreadFactory() {
+                  public Thread newThread(Runnable r) {
+                     Thread worker = new Thread(r, "MARIE editor diagnostics");
+                     worker.setDaemon(true);
+                     return worker;
+                  }
+               });
+  Future<?> diagnosticJob = null;         // Latest background assembly.
+  int diagnosticGeneration = 0;        // Identifies the latest assembly started.
+  String[] lineDiagnostics = new String[0];  // Error messages by line, null if none.
+  Object[] lineMarks = new Object[0];        // Highlight tags of the lines marked.
+  boolean showingLineDiagnostic = false;     // Message field shows a line's errors?
+  MarieSim simulator = null;           // Simulator to receive error-free assemblies.
+  Highlighter.HighlightPainter errorPainter =
+               new DefaultHighlighter.DefaultHighlightPainter(ERROR_LINE_COLOR);
+
 
   class MarieSourceFileFilter extends javax.swing.filechooser.FileFilter {
 /******************************************************************************************
@@ -231,6 +263,7 @@ public class MarieEditor extends JFrame {
          public void actionPerformed(ActionEvent e) {
           sourceCodeArea.cut();
           editPasteItem.setEnabled(true);
+          scheduleDiagnostics();
          }
     });
     editPasteItem.setText("Paste");
@@ -238,6 +271,7 @@ public class MarieEditor extends JFrame {
     editPasteItem.addActionListener(new ActionListener() { 
         public void actionPerformed(ActionEvent e) {
           sourceCodeArea.paste();
+          scheduleDiagnostics();
         }
     });
     editSelectAllItem.setText("Select All");
@@ -309,6 +343,7 @@ public class MarieEditor extends JFrame {
            fileUpdated = true;
            showMessage(0, createFileMsg());
            setButtonsForModifiedFile(); 
+           scheduleDiagnostics();
         }
       }
       public void keyPressed(KeyEvent e) {
@@ -317,10 +352,22 @@ public class MarieEditor extends JFrame {
           fileUpdated = true;                     // also flag the update.
           showMessage(0, createFileMsg());
           setButtonsForModifiedFile();
+          scheduleDiagnostics();
          }
       }
       public void keyReleased(KeyEvent e) { }
     });
+    sourceCodeArea.addCaretListener(new CaretListener() {
+      public void caretUpdate(CaretEvent e) {
+        showLineDiagnostic();
+      }
+    });
+    diagnosticTimer = new javax.swing.Timer(DIAGNOSTIC_DELAY, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        startDiagnostics();
+      }
+    });
+    diagnosticTimer.setRepeats(false);
 
     scrollPane.getViewport().add(sourceCodeArea, null);  // Add the text area to
     editorPane.add(scrollPane, BorderLayout.CENTER);     // the screen via the viewport.
@@ -491,6 +538,8 @@ public class MarieEditor extends JFrame {
     showListItem.setEnabled(false);                  // Turn off listing button.  If this
     if (currFileName.endsWith(ASSEMBLER_FILE_TYPE))  // is an assembler file, set button on
       listingAvailable();                            // a listing file exists for this source.
+    clearDiagnostics();                              // The old marks belong to the old
+    scheduleDiagnostics();                           // document.
   } // getFile()
 
   boolean listingAvailable() {
@@ -535,6 +584,7 @@ public class MarieEditor extends JFrame {
      fileUpdated = false;
      currFileName = null;
      currFilePrefix = null;
+     clearDiagnostics();
      showMessage(0, createFileMsg());
     }
   } // newFile()
@@ -711,6 +761,156 @@ public class MarieEditor extends JFrame {
   } // assembleFile()
 
 
+  public void attachSimulator(MarieSim sim) {
+/******************************************************************************************
+*  Attaches the simulator that is running the program being edited.  From now on, when    *
+*  an edit assembles without errors, the program goes directly to the simulator.          *
+******************************************************************************************/
+    simulator = sim;
+  } // attachSimulator()
+
+
+  void scheduleDiagnostics() {
+/******************************************************************************************
+*  Called on every edit.  (Re)starts the timer that begins a background assembly when     *
+*  the user stops typing for DIAGNOSTIC_DELAY milliseconds.                               *
+******************************************************************************************/
+    diagnosticTimer.restart();
+  } // scheduleDiagnostics()
+
+
+  void startDiagnostics() {
+/******************************************************************************************
+*  Takes a copy of the text and submits its assembly to the background worker, cancelling *
+*  the assembly of any older text.  When the assembly is complete, the diagnostics are    *
+*  passed back to the event thread, where they are shown only if no newer assembly has    *
+*  been started in the meantime.                                                          *
+******************************************************************************************/
+    final char[] source;
+    try {
+          Document document = sourceCodeArea.getDocument();
+          source = document.getText(0, document.getLength()).toCharArray();
+    }
+    catch (BadLocationException e) {
+          return;
+    }
+    final int generation = ++diagnosticGeneration;
+    final String fileName = currFileName;           // The file the text belongs to.
+    if (diagnosticJob != null)
+      diagnosticJob.cancel(true);                   // Interrupts a stale assembly.
+    diagnosticJob = diagnosticWorker.submit(new Runnable() {
+      public void run() {
+        Assembler assembler = Assembler.assembleSource(source, source.length);
+        if (assembler == null)                      // Cancelled.
+          return;
+        final String[] diagnostics = new String[assembler.codeLines.size()];
+        for (int i = 0; i < diagnostics.length; i++) {
+          ArrayList<?> errors = ((AssembledCodeLine) assembler.codeLines.get(i)).errors;
+          if (errors.size() > 0) {
+            StringBuffer message = new StringBuffer((String) errors.get(0));
+            for (int j = 1; j < errors.size(); j++)
+              message.append("; ").append((String) errors.get(j));
+            diagnostics[i] = message.toString();
+          }
+        }
+        final int errorCount = assembler.errorCount;
+        final ArrayList<?> codeLines = assembler.codeLines;
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (generation != diagnosticGeneration) // Drop it if the text has changed.
+              return;
+            showDiagnostics(diagnostics, errorCount);
+            if ((errorCount == 0) && (simulator != null) && fileUpdated)
+              simulator.hotReload(fileName, codeLines); // Hand the program to the simulator.
+          }
+        });
+      }
+    });
+  } // startDiagnostics()
+
+
+  void showDiagnostics(String[] diagnostics, int errorCount) {
+/******************************************************************************************
+*  Marks the lines that have errors.  A line's mark is left alone if its diagnostics are  *
+*  unchanged and the mark is still on that line (marks move with the text as lines are    *
+*  inserted or deleted).  All other marks are removed, and new ones are added where       *
+*  needed, so the work done depends on the number of changed lines, not on the size of    *
+*  the source.                                                                            *
+******************************************************************************************/
+    Element root = sourceCodeArea.getDocument().getDefaultRootElement();
+    Highlighter highlighter = sourceCodeArea.getHighlighter();
+    int lineCount = root.getElementCount();
+    Object[] marks = new Object[lineCount];
+    for (int i = 0; i < lineMarks.length; i++) {
+      if (lineMarks[i] == null)
+        continue;
+      if ((i < lineCount) && (i < diagnostics.length)
+                          && (diagnostics[i] != null) && diagnostics[i].equals(lineDiagnostics[i])
+                          && (((Highlighter.Highlight) lineMarks[i]).getStartOffset() 
+                                                        == root.getElement(i).getStartOffset()))
+        marks[i] = lineMarks[i];                     // Unchanged.
+      else
+        highlighter.removeHighlight(lineMarks[i]);
+    }
+    for (int i = 0; (i < lineCount) && (i < diagnostics.length); i++) {
+      if ((diagnostics[i] != null) && (marks[i] == null)) {
+        Element line = root.getElement(i);
+        try {
+              marks[i] = highlighter.addHighlight(line.getStartOffset(), 
+                                                  line.getEndOffset(), errorPainter);
+        }
+        catch (BadLocationException e) {
+        }
+      }
+    }
+    lineMarks = marks;
+    lineDiagnostics = diagnostics;
+    errorsFound = (errorCount > 0);
+    if (errorCount == 1)
+      showMessage(2, createFileMsg()+" 1 error found.");
+    else if (errorCount > 1)
+      showMessage(2, createFileMsg()+" "+errorCount+" errors found.");
+    showingLineDiagnostic = false;
+    showLineDiagnostic();
+  } // showDiagnostics()
+
+
+  void clearDiagnostics() {
+/******************************************************************************************
+*  Removes all error marks and forgets the diagnostics, e.g. when another file is loaded. *
+******************************************************************************************/
+    diagnosticTimer.stop();
+    diagnosticGeneration++;                          // Results in flight are now stale.
+    if (diagnosticJob != null)
+      diagnosticJob.cancel(true);
+    Highlighter highlighter = sourceCodeArea.getHighlighter();
+    for (int i = 0; i < lineMarks.length; i++)
+      if (lineMarks[i] != null)
+        highlighter.removeHighlight(lineMarks[i]);
+    lineMarks = new Object[0];
+    lineDiagnostics = new String[0];
+    showingLineDiagnostic = false;
+  } // clearDiagnostics()
+
+
+  void showLineDiagnostic() {
+/******************************************************************************************
+*  Shows the errors of the line holding the caret in the message field.  When the caret   *
+*  leaves that line, the message field goes back to the file status.                      *
+******************************************************************************************/
+    int line = sourceCodeArea.getDocument().getDefaultRootElement()
+                                   .getElementIndex(sourceCodeArea.getCaretPosition());
+    if ((line < lineDiagnostics.length) && (lineDiagnostics[line] != null)) {
+      showMessage(2, "Line "+(line+1)+": "+lineDiagnostics[line]);
+      showingLineDiagnostic = true;
+    }
+    else if (showingLineDiagnostic) {
+      showMessage(0, createFileMsg());
+      showingLineDiagnostic = false;
+    }
+  } // showLineDiagnostic()
+
+
   void showListing() {
 /******************************************************************************************
 *  Uses the root filename of the current file concatenated with a listing suffix to       *
@@ -826,6 +1026,8 @@ public class MarieEditor extends JFrame {
        }                                          // if it exists.
        catch (Exception e) {
        }
+       diagnosticTimer.stop();                    // Stop any background assembly.
+       diagnosticWorker.shutdownNow();
        if (exitOnClose)          
           System.exit(0);                         // We terminate or return
        else {                                     // depending on exitMode     
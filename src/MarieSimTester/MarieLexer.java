@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+/*
+ *
+ * A character-scanning lexer for MARIE assembly source.
+ *
+ * The lexer works directly on the characters of the whole source. It splits the
+ * source into lines the way BufferedReader.readLine() does, finds the start of the
+ * comment in each line, and marks the first tokens of the code that precedes it
+ * (tokens are delimited the way a default StringTokenizer delimits them).
+ * Tokens are reported as offsets into the source, so no strings are created while
+ * scanning; the assembler creates strings only for the fields of its output.
+ *
+ * Mnemonics are looked up through a switch on the length and the first character
+ * of the token, which identifies at most one candidate in the instruction set.
+ * Numeric literals are converted from the characters as Integer.parseInt() would
+ * convert them.
+ *
+ */
+
+public class MarieLexer {
+    // The instruction set. The opcodes of the directives are the negative constants of the Assembler.
+    public static final String Mnemonics[] = { "JNS", "LOAD", "STORE", "ADD", "SUBT", "INPUT", "OUTPUT",
+                                               "HALT", "SKIPCOND", "JUMP", "CLEAR", "ADDI", "JUMPI",
+                                               "LOADI", "STOREI", "DEC", "OCT", "HEX", "ORG", "END" };
+    public static final byte Opcodes[] = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14,
+                                           (byte) Assembler.DEC, (byte) Assembler.OCT, (byte) Assembler.HEX,
+                                           (byte) Assembler.ORG, (byte) Assembler.END };
+    public static final boolean OperandRequired[] = { true, true, true, true, true, false, false,
+                                                      false, true, true, false, true, true,
+                                                      true, true, true, true, true, true, false };
+
+    // Returned by parse() for anything Integer.parseInt() would reject.
+    public static final long Invalid = Long.MIN_VALUE;
+
+    // Only the first tokens of a line matter to the assembler: label, mnemonic and operand.
+    public static final int MaxTokens = 3;
+
+    char source[];
+    int length;
+    int position = 0;
+
+    // The current line.
+    public int lineStart, lineEnd;
+    public int codeEnd;          // End of the code, i.e. the position of the comment delimiter, if any.
+    public int tokenCount;       // Number of tokens in the code (at most MaxTokens are marked).
+    public final int tokenStart[] = new int[MaxTokens];
+    public final int tokenEnd[] = new int[MaxTokens];
+
+    public MarieLexer(char source[], int length) {
+        this.source = source;
+        this.length = length;
+    }
+
+    public char[] getSource() { return source; }
+
+
+    // Advance to the next line. Returns false at the end of the source.
+    public boolean nextLine() {
+        if (position>=length) return false;
+        lineStart = position;
+        while (position<length && source[position]!='\n' && source[position]!='\r') position++;
+        lineEnd = position;
+        // Consume the line terminator: "\n", "\r" or "\r\n".
+        if (position<length) {
+            if (source[position]=='\r' && position+1<length && source[position+1]=='\n') position++;
+            position++;
+        }
+        scanLine(lineStart, lineEnd);
+        return true;
+    }
+
+    // The text of the current line. (Blank lines all share the same empty string.)
+    public String lineText() {
+        if (lineEnd==lineStart) return "";
+        return new String(source, lineStart, lineEnd-lineStart);
+    }
+
+    // Make source[start..end) the current line: locate the comment and mark the tokens before it.
+    public void scanLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end;
+        codeEnd = lineStart;
+        while (codeEnd<lineEnd && source[codeEnd]!=Assembler.COMMENT_DELIM) codeEnd++;
+        tokenCount = 0;
+        int i = lineStart;
+        while (i<codeEnd) {
+            while (i<codeEnd && isDelimiter(source[i])) i++;
+            if (i>=codeEnd) break;
+            int first = i;
+            while (i<codeEnd && !isDelimiter(source[i])) i++;
+            if (tokenCount<MaxTokens) {
+                tokenStart[tokenCount] = first;
+                tokenEnd[tokenCount] = i;
+            }
+            tokenCount++;
+        }
+    }
+
+    // The delimiters of a default StringTokenizer.
+    static boolean isDelimiter(char c) {
+        return c==' ' || c=='\t' || c=='\n' || c=='\r' || c=='\f';
+    }
+
+
+    // Index of the mnemonic in the instruction set, or -1. The match is case insensitive.
+    public static int mnemonic(char b[], int start, int end) {
+        int candidate = -1;
+        if (start>=end) return -1;
+        char first = Character.toUpperCase(b[start]);
+        switch (end-start) {
+            case 3:
+                switch (first) {
+                    case 'J': candidate = 0; break;    // JNS
+                    case 'A': candidate = 3; break;    // ADD
+                    case 'D': candidate = 15; break;   // DEC
+                    case 'O':                          // OCT, ORG
+                        candidate = Character.toUpperCase(b[start+1])=='C' ? 16 : 18; break;
+                    case 'H': candidate = 17; break;   // HEX
+                    case 'E': candidate = 19; break;   // END
+                }
+                break;
+            case 4:
+                switch (first) {
+                    case 'L': candidate = 1; break;    // LOAD
+                    case 'S': candidate = 4; break;    // SUBT
+                    case 'H': candidate = 7; break;    // HALT
+                    case 'J': candidate = 9; break;    // JUMP
+                    case 'A': candidate = 11; break;   // ADDI
+                }
+                break;
+            case 5:
+                switch (first) {
+                    case 'S': candidate = 2; break;    // STORE
+                    case 'I': candidate = 5; break;    // INPUT
+                    case 'C': candidate = 10; break;   // CLEAR
+                    case 'J': candidate = 12; break;   // JUMPI
+                    case 'L': candidate = 13; break;   // LOADI
+                }
+                break;
+            case 6:
+                switch (first) {
+                    case 'O': candidate = 6; break;    // OUTPUT
+                    case 'S': candidate = 14; break;   // STOREI
+                }
+                break;
+            case 8:
+                if (first=='S') candidate = 8;         // SKIPCOND
+                break;
+        }
+        if (candidate<0) return -1;
+        String name = Mnemonics[candidate];
+        for (int i=1; i<name.length(); i++) {
+            if (Character.toUpperCase(b[start+i])!=name.charAt(i)) return -1;
+        }
+        return candidate;
+    }
+
+
+    // Whether the token is a hex literal: it must begin with a digit, even if that
+    // makes it longer than 3 characters. (Same test as Assembler.tokenIsLiteral().)
+    public static boolean isLiteral(char b[], int start, int end) {
+        if (start>=end || !Character.isDigit(b[start])) return false;
+        for (int i=start; i<end; i++) {
+            char c = b[i];
+            if (!Character.isDigit(c) && !((c>='A' && c<='F') || (c>='a' && c<='f'))) return false;
+        }
+        return true;
+    }
+
+
+    // Convert the token to a number as Integer.parseInt(token, radix) would.
+    // Returns Invalid where parseInt() would throw a NumberFormatException.
+    public static long parse(char b[], int start, int end, int radix) {
+        if (start>=end) return Invalid;
+        boolean negative = false;
+        int i = start;
+        if (b[i]=='-' || b[i]=='+') {
+            negative = b[i]=='-';
+            i++;
+            if (i>=end) return Invalid;
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (; i<end; i++) {
+            int digit = Character.digit(b[i], radix);
+            if (digit<0) return Invalid;
+            value = value*radix + digit;
+            if (value>limit) return Invalid;
+        }
+        return negative ? -value : value;
+    }
+}
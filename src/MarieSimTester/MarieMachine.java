@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ *
+ * A MARIE machine without a user interface.
+ *
+ * The machine executes a program the way MarieSim does: the same fetch-execute
+ * cycle, the same register widths, the same machine states and error codes, and
+ * the same rendering of input and output in the HEX, DEC and ASCII modes. The text
+ * that MarieSim would append to its output area is collected in a buffer.
+ *
+ * Memory is an array of 16-bit words rather than a table of hex strings, and the
+ * machine runs without a delay between instructions. The loaded program is kept as
+ * an immutable image of memory, which a restart copies back in one go. Instead of a user typing into
+ * the input register, input is handed to the machine directly when it asks for it.
+ *
+ * A run is driven by the caller:
+ *   machine.load(mexfile);
+ *   machine.restart();
+ *   while (machine.run(budget)==MarieSim.MARIE_BLOCKED_ON_INPUT) machine.input(...);
+ *
+ * The same events as MarieSim's are reported to MachineListeners, on the caller's thread.
+ *
+ */
+
+public class MarieMachine {
+    public static final int MemorySize = MarieSim.MAX_MARIE_ADDR+1;
+    // Machine version. Change this whenever a program runs, or its run is reported,
+    // differently: cached test results (see ResultCache) are keyed by it.
+    public static final String VERSION = "1.0";
+
+    // Copies of MarieSim's tables, so that the machine can run without loading the GUI classes.
+    static final boolean operandReqd[] = { true, true, true, true, true, false, false, false,
+                                           false, false, false, true, true, true, true };
+    static final String linefeed = System.getProperty("line.separator");
+    public static final String errorMessages[] = { "Program terminated normally.", "Illegal opcode",
+                                                   "Illegal conditional operand", "Address out of range",
+                                                   "Invalid machine code format", "IO Exception on input file",
+                                                   "Invalid register", "Illegal numeric value in register",
+                                                   "Maximum program statements reached" };
+
+    // The program image: memory as the program is loaded. A new image is made for each
+    // program loaded, and never changed, so a restart is a single copy of it.
+    short image[] = new short[MemorySize];
+    boolean programLoaded = false;
+    int startAddress = 0;
+
+    // The machine.
+    final short memory[] = new short[MemorySize];
+    short regAC, regIR, regMBR, regINPUT, regOUTPUT;
+    int regMAR, regPC;
+    int machineState = MarieSim.MARIE_NO_PROGRAM_LOADED;
+    boolean fatalError = false;
+    int errorCode = 0;
+    long instructionCount = 0;
+    final RunMetrics metrics = new RunMetrics();
+
+    // MarieSim's output of a zero in ASCII mode throws in its run thread, which then dies
+    // with the machine still in the running state. Such a machine is stalled: it won't
+    // execute any further, yet it is not halted until the tester gives up on it.
+    boolean stalled = false;
+
+    // IO modes, as in MarieSim's defaults.
+    int inputMode = MarieSim.ASCII;
+    int outputMode = MarieSim.ASCII;
+    boolean outputWithLinefeed = true;
+    final StringBuilder output = new StringBuilder();
+
+    final List<MachineListener> listeners = new CopyOnWriteArrayList<MachineListener>();
+
+    // The edges the program takes, if a fuzzer is watching. (See Fuzzer.)
+    EdgeCoverage coverage;
+
+    // The addresses the run has read from memory, a bit each, if they are tracked. The
+    // run depends on no other word of the image. (See TestSelection.)
+    long reads[];
+
+
+    public void setInputMode(int mode) { inputMode = mode; }
+    public void setOutputMode(int mode) { outputMode = mode; }
+    public void setOutputWithLinefeed(boolean linefeed) { outputWithLinefeed = linefeed; }
+
+    public void addMachineListener(MachineListener listener) { listeners.add(listener); }
+    public void removeMachineListener(MachineListener listener) { listeners.remove(listener); }
+    public void setCoverage(EdgeCoverage coverage) { this.coverage = coverage; }
+    public void setReadTracking(boolean track) { reads = track ? new long[MemorySize/64] : null; }
+    public long[] getReads() { return reads; }
+
+    public int getState() { return machineState; }
+    public int getErrorCode() { return errorCode; }
+    public long getInstructionCount() { return instructionCount; }
+    public RunMetrics getMetrics() { return metrics; }
+    public String getOutput() { return output.toString(); }
+    public int getAC() { return regAC; }
+    public int getPC() { return regPC; }
+    public int getMemory(int address) { return memory[address & MarieSim.MAX_MARIE_ADDR]; }
+
+    public boolean isHalted() {
+        return machineState==MarieSim.MARIE_HALTED_NORMAL
+            || machineState==MarieSim.MARIE_HALTED_ABNORMAL
+            || machineState==MarieSim.MARIE_HALTED_BY_USER;
+    }
+    public boolean isStalled() { return stalled; }
+    public boolean isRequestingInput() { return machineState==MarieSim.MARIE_BLOCKED_ON_INPUT; }
+
+
+    // Load the executable code lines of an assembled program.
+    public void load(List<? extends AssembledCodeLine> codeLines) {
+        ArrayList<AssembledCodeLine> executable = new ArrayList<AssembledCodeLine>();
+        for (AssembledCodeLine line : codeLines) {
+            if (line.lineNo.charAt(0)!=' ') executable.add(line);
+        }
+        short words[] = new short[MemorySize];
+        for (AssembledCodeLine line : executable) {
+            try {
+                int address = Integer.parseInt(line.lineNo, 16);
+                words[address & MarieSim.MAX_MARIE_ADDR] = (short) Integer.parseInt(line.hexCode+line.operand, 16);
+            } catch (NumberFormatException ex) {
+                // MarieSim skips a line it can't place in memory.
+            }
+        }
+        image = words;
+        programLoaded = !executable.isEmpty();
+        startAddress = executable.isEmpty() ? 0 : Integer.parseInt(executable.get(0).lineNo.trim(), 16);
+        reset();
+        machineState = executable.isEmpty() ? MarieSim.MARIE_NO_PROGRAM_LOADED : MarieSim.MARIE_HALTED_NORMAL;
+    }
+
+    // Load the program another machine has loaded, in the same IO modes. The image is
+    // shared, as it is never changed: forking a loaded machine reads nothing again.
+    public void load(MarieMachine loaded) {
+        image = loaded.image;
+        programLoaded = loaded.programLoaded;
+        startAddress = loaded.startAddress;
+        inputMode = loaded.inputMode;
+        outputMode = loaded.outputMode;
+        outputWithLinefeed = loaded.outputWithLinefeed;
+        reset();
+        machineState = programLoaded ? MarieSim.MARIE_HALTED_NORMAL : MarieSim.MARIE_NO_PROGRAM_LOADED;
+    }
+
+    // Load a .mex file. Returns false if the file could not be read.
+    public boolean load(File mexfile) {
+        try {
+            load(readProgram(mexfile));
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    // The code lines of a .mex file.
+    public static List<AssembledCodeLine> readProgram(File mexfile) throws IOException {
+        ArrayList<AssembledCodeLine> codeLines = new ArrayList<AssembledCodeLine>();
+        ObjectInputStream in = new ObjectInputStream(new FileInputStream(mexfile));
+        try {
+            while (true) {
+                AssembledCodeLine line = (AssembledCodeLine) in.readObject();
+                if (line==null) break;
+                codeLines.add(line);
+            }
+        } catch (EOFException ex) {
+            // Done.
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Invalid machine code format: " + ex.getMessage());
+        } finally {
+            in.close();
+        }
+        return codeLines;
+    }
+
+    // Change a word of the program image, e.g. to make a mutant of the program. The image
+    // is copied first, so the machines that share it are not changed. The word is in
+    // memory from the next restart.
+    public void patch(int address, int word) {
+        image = image.clone();
+        image[address & MarieSim.MAX_MARIE_ADDR] = (short) word;
+    }
+
+    // The word of the program image at the address.
+    public int getImageWord(int address) { return image[address & MarieSim.MAX_MARIE_ADDR]; }
+
+
+    // Reload the program and make the machine ready to run it from its first address,
+    // as MarieSim does when a tester starts a run: one copy of the memory image.
+    public void restart() {
+        resetRegisters();
+        System.arraycopy(image, 0, memory, 0, MemorySize);
+        regPC = startAddress;
+        machineState = programLoaded ? MarieSim.MARIE_RUNNING : MarieSim.MARIE_NO_PROGRAM_LOADED;
+    }
+
+    void reset() {
+        Arrays.fill(memory, (short) 0);
+        resetRegisters();
+    }
+
+    void resetRegisters() {
+        regAC = regIR = regMBR = regINPUT = regOUTPUT = 0;
+        regMAR = regPC = 0;
+        fatalError = false;
+        errorCode = 0;
+        stalled = false;
+        instructionCount = 0;
+        metrics.reset();
+        output.setLength(0);
+        if (reads!=null) Arrays.fill(reads, 0L);
+        machineState = MarieSim.MARIE_HALTED_NORMAL;
+    }
+
+
+    // Execute at most maxInstructions instructions. The machine stops early when it halts,
+    // when it asks for input, or when it stalls. Returns the machine state.
+    public int run(long maxInstructions) {
+        for (long i=0; i<maxInstructions; i++) {
+            if (machineState!=MarieSim.MARIE_RUNNING || stalled) break;
+            step();
+        }
+        return machineState;
+    }
+
+    // Fetch and execute one instruction.
+    public void step() {
+        int from = regPC;
+        fetch();
+        if (!fatalError) {
+            instructionCount++;
+            metrics.executing((regIR >> 12) & 0xF, regIR & 0x0FFF, regMBR);
+            execute();
+        }
+        if (coverage!=null) coverage.hit(from, regPC);
+        if (fatalError) halt();
+    }
+
+    // Give up on the program, as a tester does when the time is up.
+    public void halt() {
+        machineState = fatalError ? MarieSim.MARIE_HALTED_ABNORMAL : MarieSim.MARIE_HALTED_NORMAL;
+        if (fatalError) {
+            for (MachineListener listener : listeners) listener.onError(errorCode);
+        }
+        for (MachineListener listener : listeners) listener.onHalt(machineState);
+    }
+
+
+    // Hand a line of input to the machine, which must be asking for it.
+    // The text is interpreted in the input mode, as MarieSim interprets what is typed.
+    public void input(String text) {
+        if (machineState!=MarieSim.MARIE_BLOCKED_ON_INPUT) return;
+        String value = text==null ? "" : text.trim();
+        switch (inputMode) {
+            case MarieSim.ASCII:
+                int c = value.length()==0 ? 0 : value.charAt(0) % 128;
+                // MarieSim reads the value back from its rendering, where a blank is lost.
+                regINPUT = (short) ((char) c<=' ' ? 0 : c);
+                break;
+            default:
+                try {
+                    regINPUT = (short) Integer.parseInt(value, inputMode==MarieSim.HEX ? 16 : 10);
+                } catch (NumberFormatException ex) {
+                    fatalError = true;
+                    errorCode = 7;
+                    halt();
+                    return;
+                }
+        }
+        regAC = regINPUT;
+        machineState = MarieSim.MARIE_RUNNING;
+    }
+
+
+    // Hand a word to the machine, which must be asking for input: the word that input()
+    // makes of a line of text, for callers that make the words themselves.
+    public void input(short word) {
+        if (machineState!=MarieSim.MARIE_BLOCKED_ON_INPUT) return;
+        regAC = regINPUT = word;
+        machineState = MarieSim.MARIE_RUNNING;
+    }
+
+
+    void fetch() {
+        regMAR = regPC;
+        regIR = memory[regMAR];
+        if (reads!=null) read(regMAR);
+        int opcode = (regIR >> 12) & 0xF;
+        if (opcode>=operandReqd.length) {
+            fatalError = true;
+            errorCode = 1;
+            return;
+        }
+        if (operandReqd[opcode]) {
+            regMAR = regIR & 0x0FFF;
+            regMBR = memory[regMAR];
+            if (reads!=null) read(regMAR);
+        }
+        regPC = (regPC+1) & MarieSim.MAX_MARIE_ADDR;
+    }
+
+    void execute() {
+        switch ((regIR >> 12) & 0xF) {
+            case 0:  // JnS
+                regMBR = (short) regPC;
+                regMAR = regIR & 0x0FFF;
+                memory[regMAR] = regMBR;
+                regMBR = (short) regMAR;
+                regAC = (short) (regMBR+1);
+                regPC = regAC & MarieSim.MAX_MARIE_ADDR;
+                break;
+            case 1:  // Load
+                regAC = regMBR;
+                break;
+            case 2:  // Store
+                store();
+                break;
+            case 3:  // Add
+                regAC = (short) (regAC+regMBR);
+                break;
+            case 4:  // Subt
+                regAC = (short) (regAC-regMBR);
+                break;
+            case 5:  // Input
+                machineState = MarieSim.MARIE_BLOCKED_ON_INPUT;
+                for (MachineListener listener : listeners) listener.onInputRequested();
+                break;
+            case 6:  // Output
+                output();
+                break;
+            case 7:  // Halt
+                halt();
+                break;
+            case 8:  // Skipcond
+                int cond = (regIR & 0x0C00) >> 10;
+                if (cond==3) {
+                    fatalError = true;
+                    errorCode = 2;
+                    return;
+                }
+                if ((regAC<0 && cond==0) || (regAC==0 && cond==1) || (regAC>0 && cond==2))
+                    regPC = (regPC+1) & MarieSim.MAX_MARIE_ADDR;
+                break;
+            case 9:  // Jump
+                regPC = regIR & 0x0FFF;
+                break;
+            case 10: // Clear
+                regAC = 0;
+                break;
+            case 11: // AddI
+                indirect();
+                regAC = (short) (regAC+regMBR);
+                break;
+            case 12: // JumpI
+                regPC = regMBR & MarieSim.MAX_MARIE_ADDR;
+                break;
+            case 13: // LoadI
+                indirect();
+                regAC = regMBR;
+                break;
+            case 14: // StoreI
+                indirect();
+                store();
+                break;
+        }
+    }
+
+    // Follow the pointer in MBR.
+    void indirect() {
+        regMAR = regMBR & MarieSim.MAX_MARIE_ADDR;
+        regMBR = memory[regMAR];
+        if (reads!=null) read(regMAR);
+    }
+
+    void read(int address) {
+        reads[address >>> 6] |= 1L << address;
+    }
+
+    void store() {
+        regMBR = regAC;
+        memory[regMAR] = regMBR;
+    }
+
+    // Append the AC to the output as MarieSim's output register renders it.
+    void output() {
+        regOUTPUT = regAC;
+        String text;
+        switch (outputMode) {
+            case MarieSim.HEX:
+                text = to4CharHexStr(regOUTPUT);
+                break;
+            case MarieSim.ASCII:
+                if (regOUTPUT==0) {
+                    stalled = true;
+                    return;
+                }
+                text = String.valueOf((char) (regOUTPUT % 128));
+                break;
+            default:
+                text = Integer.toString(regOUTPUT);
+        }
+        output.append(text);
+        if (outputWithLinefeed || (regOUTPUT==13 && outputMode==MarieSim.ASCII)) {
+            output.append(linefeed);
+            text += linefeed;
+        }
+        for (MachineListener listener : listeners) listener.onOutput(regOUTPUT, text);
+    }
+
+    static String to4CharHexStr(int value) {
+        String hex = Integer.toHexString(value & 0xFFFF).toUpperCase();
+        while (hex.length()<4) hex = "0" + hex;
+        return hex;
+    }
+}
@@ -7,6 +7,7 @@
 package MarieSimTester;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
@@ -139,6 +140,7 @@ public class MarieSim extends JFrame {
   boolean     stepping = false;        // Whether executing one instruction at a time.
   boolean breakpointOn = false;        // Whether executing to a breakpoint.
   int            delay = 10;           // Delay between instruction executions;
+  int       startPause = 1000;         // Pause before a run starts, to let the screen refresh.
   boolean outputWithLinefeed = true;   // Determines whether characters output will have 
                                        // linefeeds supplied.  User can change this.
   static  String  statusMessage = null;
@@ -148,6 +150,11 @@ public class MarieSim extends JFrame {
   boolean errorFound = false;   // Non-fatal error flag, e.g. invalid  user input.
   boolean fatalError = false;   // Fatal error flag, e.g., invalid branch address.
   int      errorCode = 0;
+  java.util.List<MachineListener> machineListeners      // Listeners to the running machine.
+                        = new CopyOnWriteArrayList<MachineListener>();
+  Thread         runThread = null;     // Thread of the latest run, if any.
+  long    instructionCount = 0;        // Instructions fetched since the (re)start.
+  RunMetrics metrics = new RunMetrics(); // Execution metrics since the (re)start.
   JPanel simulatorPane; 
 
   JMenuBar       controlBar = new JMenuBar();  // Container for the menu as follows:
@@ -198,6 +205,11 @@ public class MarieSim extends JFrame {
             = new Hashtable(16, (float) 0.75);   // between monitor table and 
                                           // instruction addresses.
                                           // Initial capacity 16, load factor 0.75.
+  SymbolTable symbols = null;             // Symbols of the loaded program (read-only),
+                                          // shared with whoever inspects the program.
+  int[] rowSourceLines = new int[0];      // Source line (from 0) of each program table
+  String[] rowSourceText = new String[0]; // row, and its text.  Breakpoints follow these
+                                          // when the editor reloads the program.
 
   JPanel  registersPanel = new JPanel();      // Container for individual register panels.
 
@@ -243,6 +255,9 @@ public class MarieSim extends JFrame {
 
   JScrollPane memoryPane = new JScrollPane();   // Scrollpane for memory display
   Object[][] memoryArray = new Object[256][17]; // Memory contents.
+  Object[][] memoryImage = null;                // Memory as the program was installed.
+  String       imageFile = null;                // The mexFile the image was loaded from,
+  long        imageStamp = 0;                   // and its modification time.
   JTable     memoryTable;                       // Table for memory contents display.
   int    memoryFocusCell = 0;                   // Current memory location in table.
      
@@ -931,6 +946,7 @@ public class MarieSim extends JFrame {
            runStop.setEnabled(false);
            machineState = MARIE_HALTED_BY_USER;
            setStatusMessage(" Halted at user request.");
+           fireHalt(machineState);
       }
     }); // Listener
 
@@ -1641,7 +1657,9 @@ public class MarieSim extends JFrame {
 *  instance of it.                                                                        *
 *                                                                                         *
 *  When creating a new editor instance, the source file associated with the currently     *
-*  loaded file will automatically be loaded.                                              *
+*  loaded file will automatically be loaded, and the editor is attached to the simulator: *
+*  each time the edited source assembles without errors, the new program is reloaded      *
+*  here through hotReload().                                                              *
 *                                                                                         *
 *  We add a window listener to the editor so that we can completely destroy the object    *
 *  after the editor is closed.   Note that when the user selects "exit" from the          *
@@ -1655,6 +1673,8 @@ public class MarieSim extends JFrame {
      catch (Exception e) {
            if (mexFile != null) {
              marieEditor = new MarieEditor(mexFile+SRC_TYPE, false);
+             marieEditor.attachSimulator(this);         // Successful edits go straight
+                                                       // to the simulator.
 
              reloadFileItem.setEnabled(true);
            }
@@ -2200,7 +2220,7 @@ public class MarieSim extends JFrame {
     File               objectFile = null; 
     ObjectInputStream   objFileIn = null;
     AssembledCodeLine   aCodeLine = new AssembledCodeLine();
-    Vector             codeVector = new Vector();
+    Vector<AssembledCodeLine> codeVector = new Vector<AssembledCodeLine>();
     errorFound = false;
     if (mexFile == null) {
       setStatusMessage(" No file to load.  Use File+Load menu picks.");
@@ -2240,6 +2260,9 @@ public class MarieSim extends JFrame {
         programArray[i][5] = "  "; 
       }
     codeLineCount = 0;
+    int sourceLine = 0;                        // Every source line is in the .mex, so
+    Vector<Integer> sourceLineVector           // we can tell which line each row is.
+                                      = new Vector<Integer>();
     boolean done = false;                      // Begin loading the program...
     while (!done) {
        if (codeLineCount >= MAX_MARIE_ADDR) {
@@ -2254,8 +2277,10 @@ public class MarieSim extends JFrame {
           else { 
             if (aCodeLine.lineNo.charAt(0) != ' ') {
               codeVector.add(aCodeLine);
+              sourceLineVector.add(Integer.valueOf(sourceLine));
               codeLineCount++;
             } // if
+            sourceLine++;
           } // else
        } // try
        catch (EOFException e) {                // At EOF, we're done.  
@@ -2283,14 +2308,34 @@ public class MarieSim extends JFrame {
     } // catch
     if (errorFound)                            // If we found serious errors, return
       return;                                  // to caller.
+    installProgram(codeVector, sourceLineVector);
+    imageFile = mexFile;                       // The image is the file's program.
+    imageStamp = new File(mexFile+MEX_TYPE).lastModified();
+  } // loadProgram()
+
+
+  void installProgram(Vector<AssembledCodeLine> codeVector, Vector<Integer> sourceLineVector) {
+/******************************************************************************************
+*  Loads the executable code lines in codeVector (codeLineCount of them) into the program *
+*  monitor table and memory, and makes the program ready to run.  sourceLineVector holds  *
+*  the source line number of each code line.  The simulator must have been reset first.   *
+******************************************************************************************/
+    AssembledCodeLine   aCodeLine;
     int addr = 0;
     programArray  = new Object[codeLineCount][6];    // Prepare program-specific data 
     codeReference.clear();                           // structures.
-    Enumeration e = codeVector.elements();
+    rowSourceLines = new int[codeLineCount];
+    rowSourceText = new String[codeLineCount];
+    for (int i = 0; i < codeLineCount; i++) {
+      rowSourceLines[i] = sourceLineVector.get(i).intValue();
+      rowSourceText[i] = codeVector.get(i).sourceLine;
+    }
+    symbols = SymbolTable.fromProgram(codeVector);
+    Enumeration<AssembledCodeLine> e = codeVector.elements();
     int lineCount = 0;
 
     while (e.hasMoreElements()) {                    // Load data structures.
-      aCodeLine = (AssembledCodeLine) e.nextElement();
+      aCodeLine = e.nextElement();
       programArray[lineCount][0] = new Boolean(false);      // Load the monitor table...
       programArray[lineCount][1] = "  "+aCodeLine.lineNo;
       programArray[lineCount][2] = " "+aCodeLine.stmtLabel;
@@ -2307,6 +2352,10 @@ public class MarieSim extends JFrame {
       } // catch
         memoryArray[addr / 16][addr % 16 + 1] = " "+aCodeLine.hexCode+aCodeLine.operand;
     } // while();
+    memoryImage = new Object[memoryArray.length][];  // Keep the pristine memory for
+    for (int i = 0; i < memoryArray.length; i++)     // reloadImage().  (The cells are
+      memoryImage[i] = memoryArray[i].clone();       // immutable strings.)
+    imageFile = null;
     ptm.fireTableStructureChanged();
     String aString = (String) programArray[0][1];
     try {                                                  // Get memory cell of
@@ -2340,7 +2389,157 @@ public class MarieSim extends JFrame {
     if (stepping)
        step.setEnabled(true);
     machineState = MARIE_HALTED_NORMAL;
-  } // loadProgram()
+  } // installProgram()
+
+
+  public void hotReload(String sourceFile, java.util.List<?> codeLines) {
+/******************************************************************************************
+*  Called (on the event thread) by the attached editor when an in-memory assembly of the  *
+*  source in sourceFile succeeds.  codeLines holds one assembled code line per source     *
+*  line.  Nothing is done unless sourceFile is the source of the loaded program (the      *
+*  editor may have another file open by now).  The new program replaces the loaded one    *
+*  without any file being read or written, and whatever was running is stopped first.     *
+*                                                                                         *
+*  Breakpoints stay on their source lines:  a breakpoint goes to the nearest line with    *
+*  the same text (lines move as others are inserted or deleted), or else to the same      *
+*  line number if that line is still an instruction.  Register display modes, the input   *
+*  and output settings and the delay are left as the user set them.                       *
+******************************************************************************************/
+    if (!isLoadedSource(sourceFile))
+      return;
+    long start = System.currentTimeMillis();
+    stopRunThread();
+
+    Vector<Integer> breakpointLines = new Vector<Integer>();  // Remember the breakpoints.
+    Vector<String> breakpointText = new Vector<String>();
+    for (int i = 0; (i < codeLineCount) && (i < rowSourceLines.length); i++)
+      if (((Boolean) programArray[i][0]).booleanValue()) {
+        breakpointLines.add(Integer.valueOf(rowSourceLines[i]));
+        breakpointText.add(rowSourceText[i]);
+      }
+
+    Vector<AssembledCodeLine> codeVector       // Keep the executable lines, as
+                        = new Vector<AssembledCodeLine>();       // loadProgram() does.
+    Vector<Integer> sourceLineVector = new Vector<Integer>();
+    for (int i = 0; i < codeLines.size(); i++) {
+      AssembledCodeLine aCodeLine = (AssembledCodeLine) codeLines.get(i);
+      if (aCodeLine.lineNo.charAt(0) != ' ') {
+        codeVector.add(aCodeLine);
+        sourceLineVector.add(Integer.valueOf(i));
+      }
+    }
+    if (codeVector.size() == 0)
+      return;
+    if (codeVector.size() >= MAX_MARIE_ADDR) {
+      setStatusMessage(" Maximum program statements reached."); 
+      return;
+    }
+    marieReset();
+    codeLineCount = codeVector.size();
+    installProgram(codeVector, sourceLineVector);
+
+    for (int b = 0; b < breakpointLines.size(); b++) {  // Put the breakpoints back.
+      int line = breakpointLines.get(b).intValue();
+      String text = breakpointText.get(b);
+      int row = -1;
+      for (int i = 0; i < codeLineCount; i++)
+        if (rowSourceText[i].equals(text)
+              && ((row < 0) || (Math.abs(rowSourceLines[i] - line) 
+                                   < Math.abs(rowSourceLines[row] - line))))
+          row = i;
+      for (int i = 0; (row < 0) && (i < codeLineCount); i++)
+        if (rowSourceLines[i] == line)
+          row = i;
+      if (row >= 0)
+        programArray[row][0] = Boolean.valueOf(true);
+    }
+    programTable.repaint();
+    setStatusMessage(" Program reloaded from editor in "
+                      +(System.currentTimeMillis() - start)+" ms.");
+  } // hotReload()
+
+
+  boolean isLoadedSource(String sourceFile) {
+/******************************************************************************************
+*  Tells whether sourceFile is the assembly source of the program that is loaded, i.e.    *
+*  the file mexFile+SRC_TYPE, however the two names are spelled.                          *
+******************************************************************************************/
+    if ((sourceFile == null) || (mexFile == null) 
+                             || (machineState == MARIE_UNINITIALIZED)
+                             || (machineState == MARIE_NO_PROGRAM_LOADED))
+      return false;
+    try {
+      return new File(sourceFile).getCanonicalFile()
+                .equals(new File(mexFile+SRC_TYPE).getCanonicalFile());
+    }
+    catch (IOException e) {
+      return new File(sourceFile).getAbsoluteFile()
+                .equals(new File(mexFile+SRC_TYPE).getAbsoluteFile());
+    }
+  } // isLoadedSource()
+
+
+  void stopRunThread() {
+/******************************************************************************************
+*  Stops the program if it is running, paused or waiting for input, and waits for its     *
+*  run thread to finish, so that the thread can no longer touch the machine after the     *
+*  caller resets it.  The thread is interrupted to cut short its delay between            *
+*  instructions.                                                                          *
+******************************************************************************************/
+    if ((machineState == MARIE_RUNNING) || (machineState == MARIE_BLOCKED_ON_INPUT)
+                                         || (machineState == MARIE_PAUSED))
+      machineState = MARIE_HALTED_BY_USER;      // Ends the run thread's loop.
+    runStop.setEnabled(false);
+    Thread thread = runThread;
+    if ((thread == null) || (thread == Thread.currentThread()))
+      return;
+    thread.interrupt();
+    try {
+      thread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  } // stopRunThread()
+
+
+  public void addMachineListener(MachineListener listener) {
+/******************************************************************************************
+*   Registers a listener to the events of the running machine:  input requests, output,   *
+*   halts and fatal errors.  Listeners are called on the thread that runs the program, so *
+*   they must not block it, nor do any Swing work there.                                  *
+******************************************************************************************/
+    machineListeners.add(listener);
+  } // addMachineListener()
+
+
+  public void removeMachineListener(MachineListener listener) {
+    machineListeners.remove(listener);
+  } // removeMachineListener()
+
+
+  void fireInputRequested() {
+    for (MachineListener listener : machineListeners)
+      listener.onInputRequested();
+  } // fireInputRequested()
+
+
+  void fireOutput(int value, String text) {
+    for (MachineListener listener : machineListeners)
+      listener.onOutput(value, text);
+  } // fireOutput()
+
+
+  void fireHalt(int state) {
+    for (MachineListener listener : machineListeners)
+      listener.onHalt(state);
+  } // fireHalt()
+
+
+  void fireError(int code) {
+    for (MachineListener listener : machineListeners)
+      listener.onError(code);
+  } // fireError()
 
 
   void checkForMap() {
@@ -2369,6 +2568,8 @@ public class MarieSim extends JFrame {
         return;
      fatalError = false;
      errorCode = 0;
+     instructionCount = 0;
+     metrics.reset();
      regINPUT.setEditable(false);
      regINPUT.repaint();   
      if (stepping) {
@@ -2388,6 +2589,42 @@ public class MarieSim extends JFrame {
   } // restart()
 
 
+  boolean reloadImage() {
+/******************************************************************************************
+*  Puts the program in mexFile back into memory from the image kept when it was loaded,   *
+*  and clears the registers and the output.  Nothing is read but the file's modification  *
+*  time, and the program monitor table is left as it is, so this is a fast way to reload  *
+*  the same program between runs.  Returns false, having done nothing, if the image is    *
+*  not of that file as it is now; the caller should then use loadProgram().  A restart()  *
+*  makes the program ready to run.  Like loadProgram(), it sets the memory table and the  *
+*  registers, so it must be called on the event thread.                                   *
+******************************************************************************************/
+    if ((memoryImage == null) || (mexFile == null) || !mexFile.equals(imageFile))
+      return false;
+    if (new File(mexFile+MEX_TYPE).lastModified() != imageStamp)
+      return false;
+    for (int i = 0; i < memoryImage.length; i++)     // One bulk copy per row.
+      System.arraycopy(memoryImage[i], 0, memoryArray[i], 0, memoryImage[i].length);
+    regAC.setValue(0);                          // Reset the registers, as marieReset()
+    regAC.postActionEvent();                    // does.
+    regIR.setValue(0);
+    regIR.postActionEvent(); 
+    regMAR.setValue(0);
+    regMAR.postActionEvent(); 
+    regMBR.setValue(0);
+    regMBR.postActionEvent(); 
+    regINPUT.setValue(0);
+    regINPUT.setEditable(false);
+    regOUTPUT.setValue(0);
+    outputArea.setText("");                     // Clear the output display and the
+    outputStream = new Vector();                // output Vector.
+    memoryFocusCell = 0;
+    memoryTable.repaint();
+    machineState = MARIE_HALTED_NORMAL;
+    return true;
+  } // reloadImage()
+
+
   void marieReset() {
 /******************************************************************************************
 *  This method has the effect of pressing the reset button on a physical machine: It      *
@@ -2424,6 +2661,8 @@ public class MarieSim extends JFrame {
       }
     programFocusRow = 0;
     memoryFocusCell = 0;
+    memoryImage = null;                        // No program, no image.
+    imageFile = null;
     machineState = MARIE_NO_PROGRAM_LOADED;
     runRunItem.setEnabled(false);            // Nothing to run...
     restartItem.setEnabled(false);           // Nothing to restart...
@@ -2515,6 +2754,7 @@ public class MarieSim extends JFrame {
       return; 
     regPC.postActionEvent();
     errorFound = false;                            // Reset error flag.
+    instructionCount++;
     machineState = MARIE_RUNNING;
     programTable.repaint();
     memoryTable.repaint();
@@ -2524,6 +2764,7 @@ public class MarieSim extends JFrame {
 /******************************************************************************************
 *   This method is the mainline of the "execute" part of the "fetch-execute" cycle.       *
 ******************************************************************************************/
+    metrics.executing(instructionCode, regIR.getValue() & 0x0FFF, regMBR.getValue());
     switch (instructionCode) {
        case  0: jnS();
                 break;
@@ -2668,6 +2909,7 @@ public class MarieSim extends JFrame {
        regINPUT.setEditable(true);                 // Enable register input.
        regINPUT.repaint();
        regINPUT.requestFocus();      
+       fireInputRequested();
      }
      else if (machineState == MARIE_BLOCKED_ON_INPUT) {  // Second time through???
        regINPUT.setValue(regINPUT.getText());
@@ -2715,13 +2957,18 @@ public class MarieSim extends JFrame {
      outputStream.addElement(new Integer(regOUTPUT.getValue()));
      if (regOUTPUT.toString() != null) 
        outputArea.append(outStr);
-     if (outputWithLinefeed)
+     if (outputWithLinefeed) {
        outputArea.append(linefeed);
+       outStr += linefeed;                        // Listeners see all that was appended.
+     }
      else
-       if ((regOUTPUT.getValue() == 13) && (regOUTPUT.mode == ASCII))
+       if ((regOUTPUT.getValue() == 13) && (regOUTPUT.mode == ASCII)) {
           outputArea.append(linefeed);
+          outStr += linefeed;
+       }
      Document d = outputArea.getDocument();
      outputArea.select(d.getLength(), d.getLength());
+     fireOutput(regOUTPUT.getValue(), outStr);
    } // output() 
 
 
@@ -2746,6 +2993,9 @@ public class MarieSim extends JFrame {
        machineState = MARIE_HALTED_NORMAL;
        setStatusMessage(" Machine halted normally.");
     }
+    if (fatalError)
+       fireError(errorCode);
+    fireHalt(machineState);
    } // halt()
 
   void skipCond() { 
@@ -2947,7 +3197,7 @@ public class MarieSim extends JFrame {
    fatalError = false;
    validate();                           // Reset fatal errors.
    breakpointOn = true;
-   Thread runThread = new Thread(runIt);         // Run this in a thread.
+   runThread = new Thread(runIt);                // Run this in a thread.
    runThread.start();                            // Fire it off.
    if (fatalError)                               // Stop on errors.
      halt();
@@ -2974,6 +3224,11 @@ public class MarieSim extends JFrame {
 ******************************************************************************************/
      Runnable runIt = new Runnable() {
        public void run() {
+         try {                                // Give the screen a chance to refresh itself
+           Thread.sleep(startPause);          // before we start running.  (Sleeping here
+         }                                    // rather than in the caller keeps the GUI
+         catch (InterruptedException e) {     // responsive.)
+         }
          while ((machineState == MARIE_RUNNING) && (!fatalError)) {
            fetchNext();
            try {                              // Give the user a chance to abort and also
@@ -2991,14 +3246,9 @@ public class MarieSim extends JFrame {
        } // run()
      }; // runIt
 
-   try {                                  // Give the screen a chance to refresh itself
-         Thread.sleep(1000);              // before we start running.
-       }
-   catch (InterruptedException e) {
-       }
    setStatusMessage(" ");
    breakpointOn = false;
-   Thread runThread = new Thread(runIt);
+   runThread = new Thread(runIt);
    runThread.start();
   } // runProgram()
 
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *
+ * Mutation testing of a test suite: how many wrong programs does it catch?
+ *
+ * The suite's reference program (or the given one) is assembled and loaded once, and
+ * small faults are made in its image, one per mutant:
+ *   - an ADD becomes a SUBT and a SUBT an ADD,
+ *   - a SKIPCOND tests either of the other two conditions,
+ *   - an instruction addresses the word before or after its operand,
+ *   - a constant (DEC, OCT or HEX) is one more, one less, or 0.
+ * Each mutant is run on the cases of the suite, on a machine forked from the loaded
+ * one, until a case fails: the mutant is then killed. A mutant that passes every case
+ * survives: either the suite misses the fault, or the mutant is equivalent to the
+ * program. The mutants are shared by parallel workers.
+ *
+ * The log (next to the program, as name-mutation.log) lists every mutant and what
+ * killed it, then the mutation score (the share of mutants killed) and the survivors:
+ *   java MarieSimTester.MutationTest suitefile [reference.mas]
+ * -Dmarie.workers=n sets the number of workers.
+ *
+ */
+
+public class MutationTest {
+    public static final String LogType = "-mutation.log";
+
+    ResultLog log = new ResultLog();
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    // Mutants killed and run on the last test.
+    int killed, mutantCount;
+
+    // A change of one word of the image.
+    static class Mutant {
+        final int address, word;
+        final String description;
+
+        Mutant(int address, int word, String description) {
+            this.address = address;
+            this.word = word;
+            this.description = description;
+        }
+    }
+
+    // A case of the suite.
+    static class Case {
+        final String input, expectedOutput;
+
+        Case(String input, String expectedOutput) {
+            this.input = input;
+            this.expectedOutput = expectedOutput;
+        }
+    }
+
+
+    public void setlog(String filepath) {
+        log.setfile(filepath);
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+
+    // The mutants of a program, in address order.
+    static List<Mutant> mutants(List<AssembledCodeLine> codeLines, MarieMachine loaded) {
+        List<Mutant> mutants = new ArrayList<Mutant>();
+        for (AssembledCodeLine line : codeLines) {
+            if (line.lineNo.charAt(0)==' ') continue;
+            char mnemonic[] = line.mnemonic.trim().toCharArray();
+            int i = MarieLexer.mnemonic(mnemonic, 0, mnemonic.length);
+            if (i<0) continue;
+            int address = Integer.parseInt(line.lineNo.trim(), 16);
+            int word = loaded.getImageWord(address) & 0xFFFF;
+            int opcode = MarieLexer.Opcodes[i];
+            String source = line.lineNo.trim() + ": " + MarieLexer.Mnemonics[i]
+                            + (line.operandToken.trim().length()>0 ? " " + line.operandToken.trim() : "");
+            int operand = word & 0x0FFF;
+            switch (opcode) {
+                case 3: case 4:  // Add, Subt
+                    int other = opcode==3 ? 4 : 3;
+                    mutants.add(new Mutant(address, (other << 12) | operand,
+                                           source + " => " + MarieLexer.Mnemonics[other] + " " + line.operandToken.trim()));
+                    break;
+                case 8:  // Skipcond: 000 (AC<0), 400 (AC=0), 800 (AC>0)
+                    for (int condition : new int[] { 0x000, 0x400, 0x800 }) {
+                        if (condition==(operand & 0xC00)) continue;
+                        mutants.add(new Mutant(address, (8 << 12) | condition,
+                                               source + " => SKIPCOND " + String.format("%03X", condition)));
+                    }
+                    break;
+                case Assembler.DEC: case Assembler.OCT: case Assembler.HEX:
+                    short value = (short) word;
+                    int radix = opcode==Assembler.DEC ? 10 : opcode==Assembler.OCT ? 8 : 16;
+                    for (int changed : new int[] { value+1, value-1, 0 }) {
+                        if (changed==value || (short) changed!=changed || (changed==0 && value==1)) continue;
+                        mutants.add(new Mutant(address, changed & 0xFFFF, source + " => "
+                                               + MarieLexer.Mnemonics[i] + " " + Integer.toString(changed, radix).toUpperCase()));
+                    }
+                    break;
+            }
+            // Instructions with an address: the word before or after the operand.
+            if (opcode>=0 && opcode!=8 && MarieLexer.OperandRequired[i]) {
+                for (int changed : new int[] { operand-1, operand+1 }) {
+                    if (changed<0 || changed>MarieSim.MAX_MARIE_ADDR) continue;
+                    mutants.add(new Mutant(address, (word & 0xF000) | changed, source + " => " + MarieLexer.Mnemonics[i]
+                                           + " " + String.format("%03X", changed) + " (" + line.operandToken.trim()
+                                           + (changed<operand ? "-1" : "+1") + ")"));
+                }
+            }
+        }
+        return mutants;
+    }
+
+    // Run the cases on the loaded program until one fails. Returns the number of the
+    // failing case (from 1), or 0 if all of them pass.
+    static int firstFailure(HeadlessTest tester, List<Case> cases, int maxPolls) {
+        for (int c=0; c<cases.size(); c++) {
+            Case testCase = cases.get(c);
+            tester.run(testCase.input, testCase.expectedOutput, maxPolls);
+            if (!tester.comparator.matches()) return c+1;
+        }
+        return 0;
+    }
+
+
+    // Run the suite on the mutants of its program (or of masfilepath, if given).
+    // Returns the mutation score: the share of the mutants killed, or -1 if the program
+    // could not be loaded or fails the suite itself.
+    public double test(String suitepath, String masfilepath) {
+        final List<Case> cases = new ArrayList<Case>();
+        TestSuite suite = null;
+        File masfile;
+        final int maxPolls;
+        final IOMode inputMode, outputMode;
+        final String comparatorName;
+        try {
+            suite = TestSuite.open(new File(suitepath));
+            masfile = masfilepath!=null ? new File(masfilepath) : suite.getProgram();
+            maxPolls = suite.getPolls();
+            inputMode = suite.getInputMode();
+            outputMode = suite.getOutputMode();
+            comparatorName = suite.getComparator()!=null ? suite.getComparator().getName() : OutputComparator.tokens().getName();
+            while (suite.nextCase()) cases.add(new Case(suite.getInput(), suite.getExpectedOutput()));
+        } catch (IOException ex) {
+            log.a(ex.getMessage());
+            return -1;
+        } finally {
+            if (suite!=null) suite.close();
+        }
+        if (!masfile.exists()) {
+            log.a("File " + masfile.getPath() + " not found.");
+            return -1;
+        }
+
+        setlog(masfile.getPath().replace(".mas", LogType));
+        final HeadlessTest reference = new HeadlessTest();
+        reference.logInputs = false;
+        reference.setComparator(OutputComparator.named(comparatorName));
+        File mexfile = Test.assemble(masfile, log);
+        List<AssembledCodeLine> codeLines;
+        try {
+            if (mexfile==null) return -1;
+            codeLines = MarieMachine.readProgram(mexfile);
+        } catch (IOException ex) {
+            log.a(ex.getMessage());
+            return -1;
+        }
+        if (!reference.load(mexfile, inputMode, outputMode)) return -1;
+        int failure = firstFailure(reference, cases, maxPolls);
+        if (failure>0) {
+            log.a("The program fails run " + failure + " of the suite itself, so its mutants can't be scored.");
+            log.flush();
+            return -1;
+        }
+
+        final List<Mutant> mutants = mutants(codeLines, reference.machine);
+        log.a("Mutation test of " + mexfile.getName() + " with " + cases.size() + " cases: " + mutants.size() + " mutants");
+
+        // The workers take the mutants in turn; each mutant stops at its first failing case.
+        final int killedBy[] = new int[mutants.size()];
+        final AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (int w=0; w<workers; w++) {
+            results.add(pool.submit(new Callable<Long>() {
+                public Long call() {
+                    HeadlessTest tester = new HeadlessTest();
+                    tester.logInputs = false;
+                    tester.setComparator(OutputComparator.named(comparatorName));
+                    long runs = 0;
+                    int m;
+                    while ((m = next.getAndIncrement()) < mutants.size()) {
+                        tester.load(reference);
+                        tester.machine.patch(mutants.get(m).address, mutants.get(m).word);
+                        killedBy[m] = firstFailure(tester, cases, maxPolls);
+                        runs += killedBy[m]>0 ? killedBy[m] : cases.size();
+                    }
+                    return runs;
+                }
+            }));
+        }
+        long runs = 0;
+        try {
+            for (Future<Long> result : results) runs += result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            log.a("Mutation test failed: " + ex.getCause());
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime()-start) / 1e9;
+        log.console(String.format("Ran %d mutants in %d runs in %.2f s.", mutants.size(), runs, seconds));
+
+        killed = 0;
+        mutantCount = mutants.size();
+        List<Mutant> survivors = new ArrayList<Mutant>();
+        for (int m=0; m<mutants.size(); m++) {
+            if (killedBy[m]>0) {
+                killed++;
+                log.a("Mutant " + (m+1) + ": " + mutants.get(m).description + ": killed by run " + killedBy[m]);
+            }
+            else {
+                survivors.add(mutants.get(m));
+                log.a("Mutant " + (m+1) + ": " + mutants.get(m).description + ": survived");
+            }
+        }
+        double score = mutants.isEmpty() ? 1 : (double) killed/mutants.size();
+        log.a(String.format("Mutation score: %d of %d mutants killed (%.1f%%)", killed, mutants.size(), 100*score));
+        if (!survivors.isEmpty()) {
+            log.a("Surviving mutants (faults the suite misses, or mutants equivalent to the program):");
+            for (Mutant mutant : survivors) log.a("    " + mutant.description);
+        }
+        log.a("Tests completed on file " + mexfile.getName());
+        log.flush();
+        return score;
+    }
+
+
+    public static void main(String args[]) {
+        if (args.length<1) {
+            System.out.println("Usage: MutationTest suitefile [reference.mas]");
+            System.out.println("Add -Dmarie.workers=n to set the number of workers.");
+            return;
+        }
+        MutationTest tester = new MutationTest();
+        tester.setWorkers(Integer.getInteger("marie.workers", tester.workers));
+        tester.test(args[0], args.length>1 ? args[1] : null);
+        ResultLog.sync();
+    }
+}
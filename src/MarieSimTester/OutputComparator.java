@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.util.Arrays;
+
+/*
+ *
+ * A comparison of the output of a run with the expected output, as it is written.
+ *
+ * The tester starts a comparator with the expected output of a run, and hands it each
+ * value the program writes. accept() returns false as soon as the output can no longer
+ * match, so the tester can halt the program at once instead of waiting for it to halt
+ * or for its time to run out. When the run is over, matches() tells whether the whole
+ * output matched, and divergence() tells where it stopped matching.
+ *
+ * The comparators:
+ *   tokens()        the default, and the comparison Test has always made: the output
+ *                   matches if, with each run of whitespace made a single space and the
+ *                   ends trimmed, it is the expected output (trimmed).
+ *   exact()         the output values, one by one, are the values of the expected
+ *                   output: the numbers (in the output mode) for DEC and HEX output,
+ *                   each character for ASCII output.
+ *   tolerance(d)    as exact(), but a value may be off by at most d.
+ *   unordered()     the output values are the expected values, in any order.
+ *
+ * A comparator is used by one tester at a time.
+ *
+ */
+
+public abstract class OutputComparator {
+    String divergence;             // Where the output stopped matching, or null.
+    boolean settled;               // The verdict is known: the output is not checked any more.
+
+
+    // Start comparing a run, whose output is written in the output mode.
+    public void start(String expectedOutput, IOMode outputMode) {
+        divergence = null;
+        settled = false;
+        expect(expectedOutput==null ? "" : expectedOutput, outputMode);
+    }
+
+    // Take the next value written by the program; text is what was appended to the output.
+    // Returns false once the output can no longer match.
+    public boolean accept(int value, String text) {
+        if (divergence!=null) return false;
+        divergence = check(value, text);
+        return divergence==null;
+    }
+
+    // The run is over: whether its output matches.
+    public boolean matches() {
+        if (!settled) {
+            if (divergence==null) divergence = end();
+            settled = true;
+        }
+        return divergence==null;
+    }
+
+    // Take the verdict of a run compared before, e.g. cached: where its output diverged, or null.
+    void settle(String divergence) {
+        this.divergence = divergence;
+        settled = true;
+    }
+
+    // Where the output stopped matching, e.g. "value 3: expected 36, got 35", or null if it matches.
+    public String divergence() { return divergence; }
+
+    // The name of the comparator, as named() takes it.
+    public abstract String getName();
+
+
+    abstract void expect(String expectedOutput, IOMode outputMode);
+
+    // Check the next value. Returns the divergence, or null if the output may still match.
+    abstract String check(int value, String text);
+
+    // Check the end of the output. Returns the divergence, or null if the output matches.
+    abstract String end();
+
+
+    public static OutputComparator tokens() { return new Tokens(); }
+    public static OutputComparator exact() { return new Values(0); }
+    public static OutputComparator tolerance(int delta) { return new Values(delta); }
+    public static OutputComparator unordered() { return new Unordered(); }
+
+    // The comparator named in a suite or on a command line: tokens, exact, unordered or tolerance:d.
+    public static OutputComparator named(String name) {
+        if (name.equals("tokens")) return tokens();
+        if (name.equals("exact")) return exact();
+        if (name.equals("unordered")) return unordered();
+        if (name.startsWith("tolerance:")) return tolerance(Integer.parseInt(name.substring(10)));
+        throw new IllegalArgumentException("unknown comparator " + name);
+    }
+
+
+    // The whitespace of Test.cleanOutput() (\s in a regular expression).
+    static boolean isWhitespace(char c) {
+        return c==' ' || c=='\t' || c=='\n' || c==0x0B || c=='\f' || c=='\r';
+    }
+
+    // The values of the expected output: its characters for ASCII, else its numbers.
+    // A token that is not a number in the output mode is kept as a value no output can have.
+    static int[] values(String expectedOutput, IOMode outputMode, boolean asciiWhitespace) {
+        int values[] = new int[expectedOutput.length()];
+        int count = 0;
+        if (outputMode==IOMode.ascii) {
+            for (char c : expectedOutput.toCharArray()) {
+                if (asciiWhitespace || !isWhitespace(c)) values[count++] = c;
+            }
+            return Arrays.copyOf(values, count);
+        }
+        for (String token : expectedOutput.trim().split("\\s+")) {
+            if (token.length()==0) continue;
+            try {
+                int value = Integer.parseInt(token, outputMode==IOMode.hex ? 16 : 10);
+                values[count++] = outputMode==IOMode.hex ? (short) value : value;
+            } catch (NumberFormatException ex) {
+                values[count++] = Integer.MIN_VALUE;
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    static String show(int value, IOMode outputMode) {
+        if (value==Integer.MIN_VALUE) return "(not a number)";
+        switch (outputMode) {
+            case hex: return MarieMachine.to4CharHexStr(value);
+            case ascii: return value>' ' && value<127 ? "'" + (char) value + "'" : "(" + value + ")";
+            default: return String.valueOf(value);
+        }
+    }
+
+
+    // The cleaned output, compared character by character as it is written.
+    static class Tokens extends OutputComparator {
+        String expected;
+        int position;              // Characters of the cleaned output so far.
+        boolean space;             // Whitespace is pending after the last character.
+
+        public String getName() { return "tokens"; }
+
+        void expect(String expectedOutput, IOMode outputMode) {
+            expected = expectedOutput.trim();
+            position = 0;
+            space = false;
+        }
+
+        String check(int value, String text) {
+            for (int i=0; i<text.length(); i++) {
+                char c = text.charAt(i);
+                if (isWhitespace(c)) {
+                    space = position>0;
+                    continue;
+                }
+                if (space) {
+                    if (position>=expected.length() || expected.charAt(position)!=' ') return at(position, " ");
+                    position++;
+                    space = false;
+                }
+                if (position>=expected.length() || expected.charAt(position)!=c) return at(position, String.valueOf(c));
+                position++;
+            }
+            return null;
+        }
+
+        String end() {
+            return position==expected.length() ? null : at(position, null);
+        }
+
+        String at(int position, String got) {
+            String wanted = position<expected.length() ? "'" + expected.charAt(position) + "'" : "the end";
+            return "character " + (position+1) + " of the cleaned output: expected " + wanted
+                   + ", got " + (got==null ? "the end" : "'" + got + "'");
+        }
+    }
+
+    // The output values in order, each within a tolerance.
+    static class Values extends OutputComparator {
+        final int delta;
+        IOMode outputMode;
+        int expected[];
+        int count;                 // Values written so far.
+
+        Values(int delta) { this.delta = delta; }
+
+        public String getName() { return delta==0 ? "exact" : "tolerance:" + delta; }
+
+        void expect(String expectedOutput, IOMode outputMode) {
+            this.outputMode = outputMode;
+            expected = values(expectedOutput, outputMode, true);
+            count = 0;
+        }
+
+        String check(int value, String text) {
+            count++;
+            if (count>expected.length)
+                return "value " + count + ": expected the end, got " + show(value, outputMode);
+            int wanted = expected[count-1];
+            if (wanted==Integer.MIN_VALUE || Math.abs(value-wanted)>delta)
+                return "value " + count + ": expected " + show(wanted, outputMode) + ", got " + show(value, outputMode);
+            return null;
+        }
+
+        String end() {
+            if (count==expected.length) return null;
+            return "value " + (count+1) + ": expected " + show(expected[count], outputMode) + ", got the end";
+        }
+    }
+
+    // The output values as a multiset.
+    static class Unordered extends OutputComparator {
+        IOMode outputMode;
+        int expected[];            // Sorted. The values matched so far are marked as used.
+        boolean used[];
+        int count;
+
+        public String getName() { return "unordered"; }
+
+        void expect(String expectedOutput, IOMode outputMode) {
+            this.outputMode = outputMode;
+            expected = values(expectedOutput, outputMode, false);
+            Arrays.sort(expected);
+            used = new boolean[expected.length];
+            count = 0;
+        }
+
+        String check(int value, String text) {
+            // ASCII whitespace separates the values rather than being one.
+            if (outputMode==IOMode.ascii && value<=' ') return null;
+            count++;
+            int i = Arrays.binarySearch(expected, value);
+            if (i>=0) {
+                while (i>0 && expected[i-1]==value) i--;
+                while (i<expected.length && expected[i]==value && used[i]) i++;
+                if (i<expected.length && expected[i]==value) {
+                    used[i] = true;
+                    return null;
+                }
+            }
+            return "value " + count + ": " + show(value, outputMode) + " is not among the values still expected";
+        }
+
+        String end() {
+            if (count==expected.length) return null;
+            StringBuilder missing = new StringBuilder();
+            for (int i=0; i<expected.length; i++) {
+                if (used[i]) continue;
+                if (missing.length()>0) missing.append(' ');
+                missing.append(show(expected[i], outputMode));
+            }
+            return "end of output: missing " + missing;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *
+ * Property-based tests of a MARIE program against a reference model.
+ *
+ * Instead of hand-picked inputs, PropertyTest draws random inputs from an input
+ * domain (see InputDomain), runs the program on each of them without a display, and
+ * compares the output with the output of a Java reference model (see ReferenceModel).
+ * The program is loaded once; each case restarts it, so thousands of cases can be
+ * checked per second.
+ *
+ * The passing cases are not logged. On the first mismatch the failing input is
+ * shrunk: its simpler neighbours are tried, and the first one that still fails
+ * replaces it, until none of them fails. The minimal failing input is then run again
+ * and logged in the format of Test, e.g.
+ *   Start run 1
+ *   Testing input $
+ *   Cleaned test output: 36 2 1
+ *   Expected output:     36 2 0
+ *   Output diverges at character 5 of the cleaned output: expected '0', got '1'
+ *   Test output seems INCORRECT
+ *   Run completed.
+ *
+ * A small domain can be swept instead: every input of the domain is run, e.g. all
+ * 65536 16-bit values or all printable characters. The domain is enumerated in order
+ * and cut into ranges, which parallel workers take in turn; each worker runs a fork
+ * of the machine the program was loaded into once. The failing inputs are logged as
+ * ranges, e.g.
+ *   Fails for 129..255 (127 inputs)
+ * and the first failing input is logged as a run, as above.
+ *
+ */
+
+public class PropertyTest {
+    static final int MaxShrinkRuns = 10000;
+    static final long MaxSweep = Integer.MAX_VALUE;     // The largest domain swept.
+    static final int RangesPerWorker = 16;              // The ranges a sweep is cut into, per worker.
+    static final int MaxRangesLogged = 100;
+
+    HeadlessTest tester = new HeadlessTest();
+    long seed = System.nanoTime();
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    // Runs done on the last check, and the runs done to shrink the failing input.
+    int casesRun, shrinkRuns;
+
+
+    public void setlog(String filepath) {
+        tester.setlog(filepath);
+    }
+
+    public void setReport(String pathPrefix) {
+        tester.setReport(pathPrefix);
+    }
+
+    public void setComparator(OutputComparator comparator) {
+        tester.setComparator(comparator);
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    // The seed of the random inputs, for repeating a check.
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+
+    // Run the loaded program on the input and compare the output with the model, without logging.
+    boolean passes(String input, ReferenceModel model, int maxPolls) {
+        tester.logInputs = false;
+        tester.run(input, model.expectedOutput(input), maxPolls);
+        return tester.comparator.matches();
+    }
+
+    // Shrink a failing input to one whose simpler neighbours all pass.
+    int[] shrink(int failing[], InputDomain domain, ReferenceModel model, int maxPolls) {
+        shrinkRuns = 0;
+        boolean shrunk = true;
+        while (shrunk && shrinkRuns<MaxShrinkRuns) {
+            shrunk = false;
+            for (int candidate[] : domain.shrink(failing)) {
+                shrinkRuns++;
+                if (!passes(domain.format(candidate), model, maxPolls)) {
+                    failing = candidate;
+                    shrunk = true;
+                    break;
+                }
+                if (shrinkRuns>=MaxShrinkRuns) break;
+            }
+        }
+        return failing;
+    }
+
+    // Check the program in masfilepath on random cases from the domain.
+    // Returns the minimal failing input, or null if all the cases passed
+    // (or the program could not be assembled or loaded).
+    public String check(String masfilepath, InputDomain domain, IOMode outputMode, ReferenceModel model, int cases, int maxPollCount) {
+        if (masfilepath==null) return null;
+        File masfile = new File(masfilepath);
+        if (!masfile.exists()) {
+            tester.log.a("File " + masfilepath + " not found.");
+            return null;
+        }
+        tester.setlog(masfile.getPath().replace(".mas", ".log"));
+        File mexfile = tester.assemble(masfile);
+        if (mexfile==null || !tester.load(mexfile, domain.getMode(), outputMode)) return null;
+
+        Random random = new Random(seed);
+        int failing[] = null;
+        for (casesRun=0; casesRun<cases && failing==null; ) {
+            int values[] = domain.generate(random);
+            casesRun++;
+            if (!passes(domain.format(values), model, maxPollCount)) failing = values;
+        }
+        if (failing==null) {
+            tester.log.a("Tests completed on file " + mexfile.getName());
+            tester.log.flush();
+            tester.log.console("Passed " + casesRun + " random runs (seed " + seed + ").");
+            return null;
+        }
+
+        String original = domain.format(failing);
+        failing = shrink(failing, domain, model, maxPollCount);
+        String input = domain.format(failing);
+
+        // Log the minimal failing run as Test would log it.
+        tester.logInputs = true;
+        tester.log.a("Start run 1");
+        String expectedOutput = model.expectedOutput(input);
+        tester.run(input, expectedOutput, maxPollCount);
+        tester.verifyOutputs(mexfile, 1, input, expectedOutput);
+        tester.log.a("Run completed.");
+        tester.log.a("Tests completed on file " + mexfile.getName());
+        tester.log.flush();
+        tester.log.console("Failed random run " + casesRun + " (seed " + seed + ") with input: " + original);
+        tester.log.console("Shrunk in " + shrinkRuns + " runs to input: " + input);
+        return input;
+    }
+
+
+    // Sweep the whole domain: run the program in masfilepath on every input of it.
+    // Returns the failing inputs as ranges, e.g. "129..255, 300", or null if all of
+    // them passed (or the domain is too large, or the program could not be loaded).
+    public String sweep(String masfilepath, final InputDomain domain, IOMode outputMode, final ReferenceModel model,
+                        final int maxPollCount) {
+        if (masfilepath==null) return null;
+        File masfile = new File(masfilepath);
+        if (!masfile.exists()) {
+            tester.log.a("File " + masfilepath + " not found.");
+            return null;
+        }
+        tester.setlog(masfile.getPath().replace(".mas", ".log"));
+        final long total = domain.size();
+        if (total>MaxSweep) {
+            tester.log.a("The input domain is too large to sweep.");
+            return null;
+        }
+        File mexfile = tester.assemble(masfile);
+        if (mexfile==null || !tester.load(mexfile, domain.getMode(), outputMode)) return null;
+
+        // The workers take the ranges in turn, each with a machine forked from the loaded one.
+        final long rangeSize = Math.max(1, (total + workers*RangesPerWorker - 1) / (workers*RangesPerWorker));
+        final AtomicLong nextRange = new AtomicLong();
+        final String comparatorName = tester.comparator.getName();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<List<long[]>>> results = new ArrayList<Future<List<long[]>>>();
+        for (int w=0; w<workers; w++) {
+            results.add(pool.submit(new Callable<List<long[]>>() {
+                public List<long[]> call() {
+                    PropertyTest worker = new PropertyTest();
+                    worker.tester.load(tester);
+                    worker.tester.setComparator(OutputComparator.named(comparatorName));
+                    List<long[]> failing = new ArrayList<long[]>();
+                    long from;
+                    while ((from = nextRange.getAndIncrement()*rangeSize) < total) {
+                        long to = Math.min(total, from+rangeSize);
+                        for (long index=from; index<to; index++) {
+                            if (worker.passes(domain.format(domain.tuple(index)), model, maxPollCount)) continue;
+                            long last[] = failing.isEmpty() ? null : failing.get(failing.size()-1);
+                            if (last!=null && last[1]==index-1) last[1] = index;
+                            else failing.add(new long[] { index, index });
+                        }
+                    }
+                    return failing;
+                }
+            }));
+        }
+        List<long[]> failing = new ArrayList<long[]>();
+        try {
+            for (Future<List<long[]>> result : results) failing.addAll(result.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            tester.log.a("Sweep failed: " + ex.getCause());
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime()-start) / 1e9;
+        tester.log.console(String.format("Swept %d inputs in %.2f s (%.0f per second).", total, seconds, total/seconds));
+
+        // Join the ranges that adjoin across the workers' ranges.
+        Collections.sort(failing, new Comparator<long[]>() {
+            public int compare(long a[], long b[]) { return Long.compare(a[0], b[0]); }
+        });
+        List<long[]> ranges = new ArrayList<long[]>();
+        long failed = 0;
+        for (long range[] : failing) {
+            long last[] = ranges.isEmpty() ? null : ranges.get(ranges.size()-1);
+            if (last!=null && last[1]==range[0]-1) last[1] = range[1];
+            else ranges.add(range);
+            failed += range[1]-range[0]+1;
+        }
+        if (ranges.isEmpty()) {
+            tester.log.a("Passed all " + total + " inputs of the domain.");
+            tester.log.a("Tests completed on file " + mexfile.getName());
+            tester.log.flush();
+            return null;
+        }
+
+        tester.log.a("Failed " + failed + " of " + total + " inputs of the domain.");
+        StringBuilder summary = new StringBuilder();
+        for (int i=0; i<ranges.size(); i++) {
+            String text = rangeText(domain, ranges.get(i));
+            if (i>0) summary.append(", ");
+            summary.append(text);
+            if (i<MaxRangesLogged) {
+                long size = ranges.get(i)[1]-ranges.get(i)[0]+1;
+                tester.log.a("Fails for " + text + " (" + size + (size==1 ? " input)" : " inputs)"));
+            }
+        }
+        if (ranges.size()>MaxRangesLogged) tester.log.a("... and " + (ranges.size()-MaxRangesLogged) + " more ranges.");
+
+        // Log the first failing input as Test would log it.
+        String input = domain.format(domain.tuple(ranges.get(0)[0]));
+        tester.logInputs = true;
+        tester.log.a("Start run 1");
+        String expectedOutput = model.expectedOutput(input);
+        tester.run(input, expectedOutput, maxPollCount);
+        tester.verifyOutputs(mexfile, 1, input, expectedOutput);
+        tester.log.a("Run completed.");
+        tester.log.a("Tests completed on file " + mexfile.getName());
+        tester.log.flush();
+        tester.log.console("Fails for " + (ranges.size()>MaxRangesLogged ? ranges.size() + " ranges of inputs" : summary));
+        return summary.toString();
+    }
+
+    // A range of the domain as its first and last inputs, e.g. "129..255", or one input.
+    static String rangeText(InputDomain domain, long range[]) {
+        String first = inputText(domain.format(domain.tuple(range[0])));
+        if (range[0]==range[1]) return first;
+        return first + ".." + inputText(domain.format(domain.tuple(range[1])));
+    }
+
+    private static String inputText(String input) {
+        return input==null ? "(no input)" : input;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+/*
+ *
+ * A reference implementation of a MARIE project, written in Java.
+ *
+ * The model computes the expected output of a run from the input of the run, both
+ * written as the tester writes them: the inputs delimited by single spaces, and the
+ * outputs as they are compared after cleaning (see Test.cleanOutput()).
+ *
+ */
+
+public interface ReferenceModel {
+    String expectedOutput(String input);
+}
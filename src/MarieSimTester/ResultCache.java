@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*
+ *
+ * A persistent cache of test results, so that a program is not run again on a test
+ * case it has already been run on.
+ *
+ * A result is keyed by a hash of the program image, of the test case (the IO modes,
+ * the input, the expected output, the polls and the instruction budget allowed, and
+ * the output comparator) and
+ * of the machine version. Regrading a class after a case has been added to a suite
+ * only runs the new case; a resubmitted program that assembles to another image, or
+ * a new machine version, runs all of them again. A resubmission that only changes
+ * comments, labels or layout keeps its results.
+ *
+ * A result holds what the tester needs to log and report the run as if it had run
+ * it: the output, where it diverged from the expected output (if it did), the number
+ * of inputs taken, why the run ended and its metrics.
+ *
+ * As in AssemblyCache, results are kept in memory with least-recently-used eviction,
+ * and on disk with a checksum; a corrupted entry is discarded and the case is run
+ * again. The disk cache is also trimmed to a maximum number of entries, the least
+ * recently used first: an entry's file is touched whenever it is used.
+ *
+ */
+
+public class ResultCache {
+    static final int Magic = 0x4D415252;            // "MARR"
+    static final int DefaultMemoryEntries = 4096;
+    static final int DefaultDiskEntries = 200000;
+    static final int TrimInterval = 1000;           // Stores between two trims of the disk cache.
+    static final String EntryType = ".run";
+
+    // The cache directory may be overridden with -Dmarie.results.dir=<path>,
+    // and its size with -Dmarie.results.max=<entries>.
+    public static final File DefaultDirectory = new File(System.getProperty("marie.results.dir",
+            new File(AssemblyCache.DefaultDirectory, "results").getPath()));
+
+    private static ResultCache shared;
+
+    // The result of running a program on one test case.
+    public static class Entry {
+        public final String output;          // As the machine wrote it.
+        public final String divergence;      // null if the output matched.
+        public final int inputsTaken;
+        public final String termination;
+        public final String metrics;         // RunMetrics.encode()
+
+        public Entry(String output, String divergence, int inputsTaken, String termination, String metrics) {
+            this.output = output;
+            this.divergence = divergence;
+            this.inputsTaken = inputsTaken;
+            this.termination = termination;
+            this.metrics = metrics;
+        }
+    }
+
+    File directory;
+    int diskEntries;
+    Map<String, Entry> memory;
+    int hits = 0;
+    int misses = 0;
+    int stores = 0;
+
+    public ResultCache(File directory, final int memoryEntries, int diskEntries) {
+        this.directory = directory;
+        this.diskEntries = diskEntries;
+        if (directory!=null) directory.mkdirs();
+        // An access-ordered map evicts the least recently used entry.
+        memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        trim();
+    }
+
+    // The cache shared by all testers in this JVM.
+    public static synchronized ResultCache getShared() {
+        if (shared==null) shared = new ResultCache(DefaultDirectory, DefaultMemoryEntries,
+                                                   Integer.getInteger("marie.results.max", DefaultDiskEntries));
+        return shared;
+    }
+
+
+    // The key of the image loaded in a machine: a hash of the machine version, the start
+    // address and the words of memory, i.e. of what the machine runs. The labels, comments
+    // and layout of the source, which the mex file also holds, don't change the key.
+    public static String imageKey(MarieMachine machine) {
+        MessageDigest digest = sha256();
+        digest.update(MarieMachine.VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update((byte) (machine.programLoaded ? 1 : 0));
+        digest.update((byte) (machine.startAddress >>> 8));
+        digest.update((byte) machine.startAddress);
+        for (short word : machine.image) {
+            digest.update((byte) (word >>> 8));
+            digest.update((byte) word);
+        }
+        return hex(digest.digest());
+    }
+
+    // The key of a test case on an image.
+    public static String key(String imageKey, IOMode inputMode, IOMode outputMode, String input, String expectedOutput,
+                             int maxPolls, long budget, OutputComparator comparator) {
+        MessageDigest digest = sha256();
+        for (String field : new String[] { imageKey, inputMode.name(), outputMode.name(), input, expectedOutput,
+                                           Integer.toString(maxPolls), Long.toString(budget), comparator.getName() }) {
+            // A null field is not the same as an empty one.
+            if (field!=null) digest.update(field.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) (field==null ? 1 : 0));
+        }
+        return hex(digest.digest());
+    }
+
+
+    // Look up a result by key, first in memory and then on disk.
+    public Entry lookup(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = memory.get(key);
+        }
+        if (entry==null) {
+            entry = read(key);
+            if (entry!=null) {
+                synchronized (this) { memory.put(key, entry); }
+            }
+        }
+        synchronized (this) {
+            if (entry==null) misses++;
+            else hits++;
+        }
+        if (entry!=null && directory!=null) entryFile(key).setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    public void store(String key, Entry entry) {
+        boolean trim;
+        synchronized (this) {
+            memory.put(key, entry);
+            trim = ++stores % TrimInterval == 0;
+        }
+        write(key, entry);
+        if (trim) trim();
+    }
+
+    public synchronized int getHits() { return hits; }
+    public synchronized int getMisses() { return misses; }
+
+
+    private File entryFile(String key) {
+        return new File(directory, key + EntryType);
+    }
+
+    // Remove the least recently used disk entries beyond the maximum.
+    void trim() {
+        if (directory==null) return;
+        File files[] = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) { return file.getName().endsWith(EntryType); }
+        });
+        if (files==null || files.length<=diskEntries) return;
+        final long used[] = new long[files.length];
+        Integer order[] = new Integer[files.length];
+        for (int i=0; i<files.length; i++) {
+            used[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) { return Long.compare(used[a], used[b]); }
+        });
+        for (int i=0; i<files.length-diskEntries; i++) files[order[i]].delete();
+    }
+
+    // Write an entry to disk, to a temporary file first and then moved into place.
+    private void write(String key, Entry entry) {
+        if (directory==null) return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(Magic);
+            out.writeUTF(key);
+            writeText(out, entry.output);
+            out.writeBoolean(entry.divergence!=null);
+            if (entry.divergence!=null) writeText(out, entry.divergence);
+            out.writeInt(entry.inputsTaken);
+            writeText(out, entry.termination);
+            writeText(out, entry.metrics);
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.close();
+
+            File temp = File.createTempFile(key, ".tmp", directory);
+            Files.write(temp.toPath(), bytes.toByteArray());
+            Files.move(temp.toPath(), entryFile(key).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // The cache is an optimization only. Carry on without the disk entry.
+        }
+    }
+
+    // Read an entry from disk. Returns null if there is none, or if it is corrupted,
+    // in which case the file is removed.
+    private Entry read(String key) {
+        if (directory==null) return null;
+        File file = entryFile(key);
+        if (!file.exists()) return null;
+        try {
+            byte data[] = Files.readAllBytes(file.toPath());
+            if (data.length<8) throw new IOException("truncated cache entry");
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length-8);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt()!=Magic) throw new IOException("bad cache entry");
+            if (!key.equals(in.readUTF())) throw new IOException("bad cache entry");
+            String output = readText(in);
+            String divergence = in.readBoolean() ? readText(in) : null;
+            int inputsTaken = in.readInt();
+            String termination = readText(in);
+            String metrics = readText(in);
+            if (in.readLong()!=crc.getValue() || in.available()!=0 || output==null || termination==null
+                    || metrics==null || inputsTaken<0)
+                throw new IOException("bad cache entry");
+            return new Entry(output, divergence, inputsTaken, termination, metrics);
+        } catch (IOException ex) {
+            file.delete();
+            return null;
+        }
+    }
+
+    // Text as UTF-8 bytes: the output of a run may be longer than writeUTF() allows.
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte data[] = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length<0 || length>in.available()) throw new IOException("truncated cache entry");
+        byte data[] = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String hex(byte hash[]) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ *
+ * A log file to save the test results.
+ *
+ * The lines of all logs go through one lock-free queue to a background writer, so
+ * a tester never waits for the disk. The writer keeps one open channel per log file
+ * and flushes it when the tester marks a boundary (the end of a run or of a file),
+ * when it is idle, and when the JVM shuts down. A channel is closed when its log
+ * moves on to another file. Each line is also shown on the console, unless the echo
+ * is turned off.
+ *
+ * The files are written exactly as the old open-per-line log wrote them: a log file
+ * is recreated empty when it is set, and each line ends with the line separator.
+ * A log file that can't be written is reported once on the error stream; its lines
+ * still go to the console.
+ *
+ */
+
+public class ResultLog {
+    static final int Open = 0;
+    static final int Line = 1;
+    static final int Flush = 2;
+    static final int Sync = 3;
+    static final int Close = 4;
+
+    // A tester that logs faster than the writer can write waits when this many records are pending.
+    static final int MaxPending = 1 << 16;
+
+    // A request to the writer.
+    static final class Record {
+        final int kind;
+        final String path;       // Log file, or null for the console only.
+        final String text;
+        final boolean echo;
+        final CountDownLatch done;
+
+        Record(int kind, String path, String text, boolean echo, CountDownLatch done) {
+            this.kind = kind;
+            this.path = path;
+            this.text = text;
+            this.echo = echo;
+            this.done = done;
+        }
+    }
+
+    static final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<Record>();
+    static final AtomicInteger pending = new AtomicInteger();
+    static volatile boolean idle = false;
+    static Thread writer;
+
+    // Open channels by log file, used by the writer thread only.
+    // A file that can't be written has a null channel.
+    static final Map<String, BufferedWriter> channels = new HashMap<String, BufferedWriter>();
+
+    String path = null;
+    boolean echo = true;
+
+
+    // Start (or restart) a log file: it is recreated empty.
+    public void setfile(String filepath) {
+        if (filepath==null) return;
+        // The previous file is done.
+        if (path!=null && !path.equals(filepath)) enqueue(new Record(Close, path, null, false, null));
+        path = filepath;
+        enqueue(new Record(Open, path, null, false, null));
+    }
+
+    // Add a line to the log.
+    public void a(String text) {
+        enqueue(new Record(Line, path, text, echo, null));
+    }
+
+    // Show a line on the console only.
+    public void console(String text) {
+        enqueue(new Record(Line, null, text, true, null));
+    }
+
+    // Mark a boundary, e.g. the end of a run: what was logged so far is written out.
+    public void flush() {
+        if (path!=null) enqueue(new Record(Flush, path, null, false, null));
+    }
+
+    public void setEcho(boolean echo) { this.echo = echo; }
+
+
+    // Wait until everything logged so far, by any log, is written out.
+    public static void sync() {
+        CountDownLatch done = new CountDownLatch(1);
+        enqueue(new Record(Sync, null, null, false, done));
+        try {
+            while (!done.await(100, TimeUnit.MILLISECONDS)) {
+                // The writer may have died with the JVM shutting down.
+                if (!writer.isAlive()) return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static void enqueue(Record record) {
+        start();
+        while (pending.get()>=MaxPending && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        pending.incrementAndGet();
+        queue.offer(record);
+        if (idle) LockSupport.unpark(writer);
+    }
+
+    private static synchronized void start() {
+        if (writer!=null) return;
+        writer = new Thread(new Runnable() {
+            public void run() { write(); }
+        }, "MARIE result log");
+        writer.setDaemon(true);
+        writer.start();
+        // Write out the rest at shutdown.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() { sync(); }
+        }, "MARIE result log shutdown"));
+    }
+
+    private static void write() {
+        while (true) {
+            Record record = queue.poll();
+            if (record==null) {
+                // Nothing to do: flush, and wait for more.
+                flushAll();
+                idle = true;
+                if (queue.isEmpty()) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                idle = false;
+                continue;
+            }
+            pending.decrementAndGet();
+            switch (record.kind) {
+                case Open:
+                    open(record.path);
+                    break;
+                case Line:
+                    if (record.path!=null) {
+                        BufferedWriter channel = channels.get(record.path);
+                        if (channel!=null) {
+                            try {
+                                channel.write(record.text);
+                                channel.newLine();
+                            } catch (IOException ex) {
+                                failed(record.path, ex);
+                            }
+                        }
+                    }
+                    // Always show result on console.
+                    if (record.echo) System.out.println(record.text);
+                    break;
+                case Flush:
+                    flush(record.path);
+                    break;
+                case Sync:
+                    flushAll();
+                    System.out.flush();
+                    record.done.countDown();
+                    break;
+                case Close:
+                    close(record.path);
+                    break;
+            }
+        }
+    }
+
+    private static void open(String path) {
+        BufferedWriter channel = channels.remove(path);
+        if (channel!=null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {}
+        }
+        File logfile = new File(path);
+        try {
+            if (logfile.exists()) logfile.delete();
+            channels.put(path, new BufferedWriter(new FileWriter(logfile)));
+        } catch (IOException ex) {
+            failed(path, ex);
+        }
+    }
+
+    private static void flush(String path) {
+        BufferedWriter channel = channels.get(path);
+        if (channel==null) return;
+        try {
+            channel.flush();
+        } catch (IOException ex) {
+            failed(path, ex);
+        }
+    }
+
+    // Write out the rest of a log file and let go of it.
+    private static void close(String path) {
+        BufferedWriter channel = channels.remove(path);
+        if (channel==null) return;
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            System.err.println("Cannot write log " + path + ": " + ex.getMessage());
+        }
+    }
+
+    private static void flushAll() {
+        for (String path : channels.keySet().toArray(new String[0])) flush(path);
+    }
+
+    // Report a log file that can't be written, and stop writing to it.
+    private static void failed(String path, IOException ex) {
+        BufferedWriter channel = channels.put(path, null);
+        if (channel!=null) {
+            try {
+                channel.close();
+            } catch (IOException e) {}
+        }
+        System.err.println("Cannot write log " + path + ": " + ex.getMessage());
+    }
+}
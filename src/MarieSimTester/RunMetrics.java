@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.util.Arrays;
+
+/*
+ *
+ * The execution metrics of a run: the instructions executed, in all and per opcode,
+ * the distinct memory cells the program read and wrote as data, the deepest nesting
+ * of subroutine calls, the number of times the program waited for input, the wall
+ * time of the run, and the instruction budget it was given (see BudgetCalibrator).
+ *
+ * The machine reports each instruction as it executes it, with its operand address
+ * and the word fetched from there (see executing()). A call is a JnS; a JumpI through
+ * the return address of a pending call returns from it (and from any calls it made
+ * that didn't return). A JnS to a subroutine that is already pending overwrites its
+ * only return address, so the earlier call can never return: it is dropped, with the
+ * calls it made, and the new call takes its place. A subroutine that leaves with a
+ * Jump and is called again therefore stays one level deep. The cells are kept as bit
+ * sets over the 4K words of memory.
+ *
+ */
+
+public class RunMetrics {
+    public static final int Opcodes = 15;
+
+    long instructions;
+    final long opcodeCounts[] = new long[Opcodes];
+    final long cellsRead[] = new long[64];       // One bit per memory cell.
+    final long cellsWritten[] = new long[64];
+    int callStack[] = new int[16];               // Return address cells of the pending calls.
+    int callDepth, maxCallDepth;
+    int inputWaits;
+    long wallNanos;
+    long budget;                                 // The instruction budget of the run, 0 if none.
+
+
+    public long getInstructions() { return instructions; }
+    public long getOpcodeCount(int opcode) { return opcodeCounts[opcode]; }
+    public int getCellsRead() { return count(cellsRead); }
+    public int getCellsWritten() { return count(cellsWritten); }
+    public int getMaxCallDepth() { return maxCallDepth; }
+    public int getInputWaits() { return inputWaits; }
+    public long getWallNanos() { return wallNanos; }
+
+    public long getBudget() { return budget; }
+
+    public void setWallNanos(long wallNanos) { this.wallNanos = wallNanos; }
+    public void setBudget(long budget) { this.budget = budget; }
+
+
+    // A copy of the metrics, to keep after the machine runs again.
+    public RunMetrics copy() {
+        RunMetrics copy = new RunMetrics();
+        copy.instructions = instructions;
+        System.arraycopy(opcodeCounts, 0, copy.opcodeCounts, 0, Opcodes);
+        System.arraycopy(cellsRead, 0, copy.cellsRead, 0, cellsRead.length);
+        System.arraycopy(cellsWritten, 0, copy.cellsWritten, 0, cellsWritten.length);
+        copy.maxCallDepth = maxCallDepth;
+        copy.inputWaits = inputWaits;
+        copy.wallNanos = wallNanos;
+        copy.budget = budget;
+        return copy;
+    }
+
+    // The metrics as one line of text, e.g. to send them to another process. The
+    // cells are given as the nonzero words of the bit sets. (The calls pending are not kept.)
+    public String encode() {
+        StringBuilder b = new StringBuilder();
+        b.append(instructions).append(' ').append(maxCallDepth).append(' ').append(inputWaits).append(' ').append(wallNanos);
+        for (int i=0; i<Opcodes; i++) b.append(' ').append(opcodeCounts[i]);
+        encode(b, 'r', cellsRead);
+        encode(b, 'w', cellsWritten);
+        if (budget>0) b.append(" b").append(budget);
+        return b.toString();
+    }
+
+    // The metrics of a line made by encode().
+    public static RunMetrics decode(String text) {
+        RunMetrics m = new RunMetrics();
+        String fields[] = text.trim().split(" ");
+        m.instructions = Long.parseLong(fields[0]);
+        m.maxCallDepth = Integer.parseInt(fields[1]);
+        m.inputWaits = Integer.parseInt(fields[2]);
+        m.wallNanos = Long.parseLong(fields[3]);
+        for (int i=0; i<Opcodes; i++) m.opcodeCounts[i] = Long.parseLong(fields[4+i]);
+        for (int f=4+Opcodes; f<fields.length; f++) {
+            // r<index>:<word>, w<index>:<word> or b<budget>
+            if (fields[f].charAt(0)=='b') {
+                m.budget = Long.parseLong(fields[f].substring(1));
+                continue;
+            }
+            long cells[] = fields[f].charAt(0)=='r' ? m.cellsRead : m.cellsWritten;
+            int colon = fields[f].indexOf(':');
+            cells[Integer.parseInt(fields[f].substring(1, colon))] = Long.parseUnsignedLong(fields[f].substring(colon+1), 16);
+        }
+        return m;
+    }
+
+    private static void encode(StringBuilder b, char tag, long cells[]) {
+        for (int i=0; i<cells.length; i++) {
+            if (cells[i]!=0) b.append(' ').append(tag).append(i).append(':').append(Long.toHexString(cells[i]));
+        }
+    }
+
+    public void reset() {
+        instructions = 0;
+        for (int i=0; i<Opcodes; i++) opcodeCounts[i] = 0;
+        for (int i=0; i<cellsRead.length; i++) {
+            cellsRead[i] = 0;
+            cellsWritten[i] = 0;
+        }
+        callDepth = 0;
+        maxCallDepth = 0;
+        inputWaits = 0;
+        wallNanos = 0;
+        budget = 0;
+    }
+
+    // The machine executes an instruction. operand is its address field, and word the
+    // word fetched from that address (the pointer, for the indirect instructions).
+    public void executing(int opcode, int operand, int word) {
+        if (opcode<0 || opcode>=Opcodes) return;
+        instructions++;
+        opcodeCounts[opcode]++;
+        int target = word & 0x0FFF;
+        switch (opcode) {
+            case 0:  // JnS: the return address is written to the operand.
+                mark(cellsWritten, operand);
+                for (int depth=0; depth<callDepth; depth++) {
+                    if (callStack[depth]==operand) {
+                        callDepth = depth;
+                        break;
+                    }
+                }
+                if (callDepth==callStack.length) callStack = Arrays.copyOf(callStack, 2*callDepth);
+                callStack[callDepth++] = operand;
+                if (callDepth>maxCallDepth) maxCallDepth = callDepth;
+                break;
+            case 1: case 3: case 4:  // Load, Add, Subt
+                mark(cellsRead, operand);
+                break;
+            case 2:  // Store
+                mark(cellsWritten, operand);
+                break;
+            case 5:  // Input
+                inputWaits++;
+                break;
+            case 11: case 13:  // AddI, LoadI
+                mark(cellsRead, operand);
+                mark(cellsRead, target);
+                break;
+            case 14: // StoreI
+                mark(cellsRead, operand);
+                mark(cellsWritten, target);
+                break;
+            case 12: // JumpI: a return if it goes through the return address of a pending call.
+                mark(cellsRead, operand);
+                for (int depth=callDepth-1; depth>=0; depth--) {
+                    if (callStack[depth]==operand) {
+                        callDepth = depth;
+                        break;
+                    }
+                }
+                break;
+        }
+    }
+
+    // The opcodes executed, e.g. "LOAD:12 ADD:6 OUTPUT:3", in the order of the instruction set.
+    public String histogram() {
+        StringBuilder b = new StringBuilder();
+        for (int i=0; i<Opcodes; i++) {
+            if (opcodeCounts[i]==0) continue;
+            if (b.length()>0) b.append(' ');
+            b.append(MarieLexer.Mnemonics[i]).append(':').append(opcodeCounts[i]);
+        }
+        return b.toString();
+    }
+
+    private static void mark(long cells[], int address) {
+        address &= 0x0FFF;
+        cells[address >>> 6] |= 1L << (address & 63);
+    }
+
+    private static int count(long cells[]) {
+        int count = 0;
+        for (long word : cells) count += Long.bitCount(word);
+        return count;
+    }
+}
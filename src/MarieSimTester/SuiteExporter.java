@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+
+/*
+ *
+ * A tester that writes its tests to a suite file (see TestSuite) instead of running them.
+ *
+ * Any test written against the Tester methods can be exported this way: the program
+ * path, the IO modes, maxPollCount, and the inputs and expected output of each run
+ * become the directives and the cases of the suite. The suite can then be run by
+ * HeadlessTest without the Java test class.
+ *
+ */
+
+public class SuiteExporter implements Tester {
+    File suitefile;
+    OutputComparator comparator;
+
+    public SuiteExporter(String suitepath) {
+        suitefile = new File(suitepath);
+    }
+
+    public void setlog(String filepath) {
+        // Nothing is run, so nothing is logged.
+    }
+
+    public void setReport(String pathPrefix) {
+        // Nothing is run, so nothing is reported.
+    }
+
+    public void setReference(String masfilepath) {
+        // Nothing is run, so nothing is ranked.
+    }
+
+    public void setBudget(double multiple) {
+        // Nothing is run, so nothing is calibrated: the suite keeps the polls.
+    }
+
+    public void setComparator(OutputComparator comparator) {
+        this.comparator = comparator;
+    }
+
+    public File[] getFiles(String relativePath) {
+        return Test.masFiles(relativePath);
+    }
+
+    public File assemble(File masfile) {
+        return Test.assemble(masfile, new ResultLog());
+    }
+
+
+    private void export(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        if (masfilepath==null || inputs==null || expectedOutputs==null) return;
+        if (inputs.length != expectedOutputs.length) return;
+        try {
+            BufferedWriter out = TestSuite.create(suitefile, new File(masfilepath), inputMode, outputMode, maxPollCount);
+            if (comparator!=null) {
+                out.write("compare " + comparator.getName());
+                out.newLine();
+            }
+            try {
+                for (int run=0; run<inputs.length; run++) {
+                    TestSuite.writeCase(out, inputs[run], expectedOutputs[run]);
+                }
+            } finally {
+                out.close();
+            }
+            System.out.println("Exported " + inputs.length + " cases to " + suitefile.getPath());
+        } catch (IOException ex) {
+            System.out.println("Export to " + suitefile.getPath() + " failed: " + ex.getMessage());
+        }
+    }
+
+    private void singleRun(String masfilepath, String input, String expectedOutput, int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        export(masfilepath, new String[] { input }, new String[] { expectedOutput }, maxPollCount, inputMode, outputMode);
+    }
+
+    private void multiRuns(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        export(masfilepath, inputs, expectedOutputs, maxPollCount, inputMode, outputMode);
+    }
+
+    //////////////////////////////////////////////////////
+    // Public Methods 
+    //////////////////////////////////////////////////////
+    public void singleRunDec2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.dec, IOMode.dec);
+    }
+    public void singleRunDec2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.dec, IOMode.hex);
+    }
+    public void singleRunDec2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.dec, IOMode.ascii);
+    }
+    public void singleRunHex2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.hex, IOMode.dec);
+    }
+    public void singleRunHex2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.hex, IOMode.hex);
+    }
+    public void singleRunHex2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.hex, IOMode.ascii);
+    }
+    public void singleRunAscii2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.ascii, IOMode.dec);
+    }
+    public void singleRunAscii2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.ascii, IOMode.hex);
+    }
+    public void singleRunAscii2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount) {
+        singleRun(masfilepath, input, expectedOutput, maxPollCount, IOMode.ascii, IOMode.ascii);
+    }
+
+    
+    
+    // Provide a single file to test one file with multiple runs.
+    // If a directory is provided, test all mas files in the directory with multiple runs.
+    public void multiRunsDec2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.dec, IOMode.dec);
+    }
+    public void multiRunsDec2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.dec, IOMode.hex);
+    }
+    public void multiRunsDec2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.dec, IOMode.ascii);
+    }
+    public void multiRunsHex2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.hex, IOMode.dec);
+    }
+    public void multiRunsHex2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.hex, IOMode.hex);
+    }
+    public void multiRunsHex2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.hex, IOMode.ascii);
+    }
+    public void multiRunsAscii2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.ascii, IOMode.dec);
+    }
+    public void multiRunsAscii2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.ascii, IOMode.hex);
+    }
+    public void multiRunsAscii2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount) {
+        multiRuns(masfilepath, inputs, expectedOutputs, maxPollCount, IOMode.ascii, IOMode.ascii);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ *
+ * The symbol table of a MARIE program.
+ *
+ * A symbol is identified by its index, in the order of definition. The names are
+ * kept in open-addressed hash slots with linear probing, each name stored once, and
+ * a name can be looked up by a range of characters (e.g. a token marked by the
+ * MarieLexer) without creating a String for it.
+ *
+ * The address where a symbol is defined is kept as an int and as the 3-digit hex
+ * text that the assembled code lines share. The addresses of the lines that refer
+ * to a symbol are chained per symbol, in the order they were recorded, through two
+ * int arrays shared by all symbols.
+ *
+ * The symbols are also kept in name order as they are defined, so they can be
+ * listed sorted without copying or sorting the table.
+ *
+ * A frozen table is read-only. It can then be shared, e.g. by the simulator's
+ * symbol display and its debugger.
+ *
+ */
+
+public class SymbolTable {
+    static final int InitialCapacity = 32;
+
+    int count = 0;
+    String names[] = new String[InitialCapacity];
+    String addressTexts[] = new String[InitialCapacity];
+    int addresses[] = new int[InitialCapacity];
+    int order[] = new int[InitialCapacity];      // Symbol indices in name order.
+    int slots[] = new int[2*InitialCapacity];    // Symbol index + 1 per slot, 0 if the slot is empty.
+
+    // References: a chain per symbol, linked through refNext. Chains end with -1.
+    int firstRef[] = new int[InitialCapacity];
+    int lastRef[] = new int[InitialCapacity];
+    int refCounts[] = new int[InitialCapacity];
+    int refCount = 0;
+    int refAddresses[] = new int[InitialCapacity];
+    int refNext[] = new int[InitialCapacity];
+
+    int maxNameLength = 0;
+    boolean frozen = false;
+
+
+    public int size() { return count; }
+    public boolean isFrozen() { return frozen; }
+    public int getMaxNameLength() { return maxNameLength; }
+
+    // Make the table read-only.
+    public void freeze() { frozen = true; }
+
+
+    // The index of the symbol, or -1 if it is not defined.
+    public int indexOf(String name) {
+        int slot = slot(name.hashCode());
+        int mask = slots.length-1;
+        while (slots[slot]!=0) {
+            int i = slots[slot]-1;
+            if (names[i].equals(name)) return i;
+            slot = (slot+1) & mask;
+        }
+        return -1;
+    }
+
+    // The index of the symbol named by b[start..end), or -1 if it is not defined.
+    public int indexOf(char b[], int start, int end) {
+        int hash = 0;
+        for (int k=start; k<end; k++) hash = 31*hash + b[k];    // Same as String.hashCode()
+        int slot = slot(hash);
+        int mask = slots.length-1;
+        while (slots[slot]!=0) {
+            int i = slots[slot]-1;
+            if (nameEquals(names[i], b, start, end)) return i;
+            slot = (slot+1) & mask;
+        }
+        return -1;
+    }
+
+    public String getName(int symbol) { return names[symbol]; }
+    public int getAddress(int symbol) { return addresses[symbol]; }
+    public String getAddressText(int symbol) { return addressTexts[symbol]; }
+    public int getReferenceCount(int symbol) { return refCounts[symbol]; }
+
+    // The symbol at the given rank in name order.
+    public int sorted(int rank) { return order[rank]; }
+
+    // Walk the references of a symbol, in the order they were recorded:
+    //   for (int r = firstReference(s); r >= 0; r = nextReference(r)) ... referenceAddress(r)
+    public int firstReference(int symbol) { return firstRef[symbol]; }
+    public int nextReference(int reference) { return refNext[reference]; }
+    public int referenceAddress(int reference) { return refAddresses[reference]; }
+
+
+    // Define a symbol at the address given as hex text.
+    // Returns the index of the new symbol, or -1 if the symbol is already defined.
+    public int define(String name, String addressText) {
+        checkWritable();
+        if (indexOf(name)>=0) return -1;
+        if (count==names.length) grow();
+        if (2*(count+1)>slots.length) rehash(2*slots.length);
+
+        int i = count++;
+        names[i] = name;
+        addressTexts[i] = addressText;
+        addresses[i] = Integer.parseInt(addressText.trim(), 16);
+        firstRef[i] = -1;
+        lastRef[i] = -1;
+        refCounts[i] = 0;
+        insertSlot(i);
+
+        // Keep the name order: find the rank of the new name and shift the rest up.
+        int low = 0, high = i;
+        while (low<high) {
+            int mid = (low+high) >>> 1;
+            if (names[order[mid]].compareTo(name)<0) low = mid+1;
+            else high = mid;
+        }
+        System.arraycopy(order, low, order, low+1, i-low);
+        order[low] = i;
+
+        if (name.length()>maxNameLength) maxNameLength = name.length();
+        return i;
+    }
+
+    // Record a reference to the symbol from the given address.
+    public void addReference(int symbol, int address) {
+        checkWritable();
+        if (refCount==refAddresses.length) {
+            refAddresses = Arrays.copyOf(refAddresses, 2*refCount);
+            refNext = Arrays.copyOf(refNext, 2*refCount);
+        }
+        int r = refCount++;
+        refAddresses[r] = address;
+        refNext[r] = -1;
+        if (lastRef[symbol]<0) firstRef[symbol] = r;
+        else refNext[lastRef[symbol]] = r;
+        lastRef[symbol] = r;
+        refCounts[symbol]++;
+    }
+
+
+    // Rebuild the symbol table of an assembled program from its code lines.
+    // A labelled line defines a symbol. An instruction refers to a symbol if its operand
+    // token names a symbol and its operand is that symbol's address. The table is frozen.
+    public static SymbolTable fromProgram(List<?> codeLines) {
+        SymbolTable table = new SymbolTable();
+        for (Object item : codeLines) {
+            AssembledCodeLine line = (AssembledCodeLine) item;
+            if (line.lineNo.charAt(0)==' ' || line.stmtLabel.trim().length()==0) continue;
+            table.define(line.stmtLabel, line.lineNo);
+        }
+        for (Object item : codeLines) {
+            AssembledCodeLine line = (AssembledCodeLine) item;
+            if (line.lineNo.charAt(0)==' ' || !isAddressInstruction(line.mnemonic)) continue;
+            int symbol = table.indexOf(line.operandToken);
+            if (symbol>=0 && table.getAddressText(symbol).equals(line.operand))
+                table.addReference(symbol, Integer.parseInt(line.lineNo, 16));
+        }
+        table.freeze();
+        return table;
+    }
+
+    // Whether the mnemonic is an instruction with an address operand.
+    static boolean isAddressInstruction(String mnemonic) {
+        char chars[] = mnemonic.toCharArray();
+        int i = MarieLexer.mnemonic(chars, 0, chars.length);
+        return i>=0 && MarieLexer.Opcodes[i]>=0 && MarieLexer.OperandRequired[i];
+    }
+
+
+    private void checkWritable() {
+        if (frozen) throw new IllegalStateException("The symbol table is read-only.");
+    }
+
+    // Spread the hash bits before masking, as HashMap does.
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (slots.length-1);
+    }
+
+    private void insertSlot(int symbol) {
+        int slot = slot(names[symbol].hashCode());
+        while (slots[slot]!=0) slot = (slot+1) & (slots.length-1);
+        slots[slot] = symbol+1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int i=0; i<count; i++) insertSlot(i);
+    }
+
+    private void grow() {
+        int capacity = 2*names.length;
+        names = Arrays.copyOf(names, capacity);
+        addressTexts = Arrays.copyOf(addressTexts, capacity);
+        addresses = Arrays.copyOf(addresses, capacity);
+        order = Arrays.copyOf(order, capacity);
+        firstRef = Arrays.copyOf(firstRef, capacity);
+        lastRef = Arrays.copyOf(lastRef, capacity);
+        refCounts = Arrays.copyOf(refCounts, capacity);
+    }
+
+    private static boolean nameEquals(String name, char b[], int start, int end) {
+        if (name.length()!=end-start) return false;
+        for (int k=0; k<name.length(); k++) {
+            if (name.charAt(k)!=b[start+k]) return false;
+        }
+        return true;
+    }
+}
@@ -16,17 +16,17 @@
 
 package MarieSimTester;
 
-import java.awt.AWTException;
-import java.awt.Robot;
-import java.awt.event.KeyEvent;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
 
 /*
  *
@@ -41,103 +41,146 @@ import java.util.TimerTask;
  *
  * Description:
  * 1. Assemble a given .mas file to obtain the .mex file.
+ *    (Assemblies are cached by content, so an unchanged .mas file is assembled only once.)
  * 2. Upon successful assembly, load the .mex file into the MarieSim for execution.
- * 3. Periodically poll the MarieSim to check if the input register is editable,
- *    (MarieSim sets the input register to editable if and only if it is waiting for input).
- *    Use a robot to enter pre-determined input upon the request of MarieSim.
+ * 3. Listen to the MarieSim for its requests of input, and enter pre-determined input
+ *    upon the request of MarieSim: the input register is set and its action fired on
+ *    the event dispatch thread, as if the value were typed in, without any keystrokes.
  * 4. Terminate a test run if either the allocated time is up, or MarieSim is halted, 
- *    whichever comes first.
+ *    whichever comes first. The time allowed is counted in poll intervals.
+ *    MarieSim runs at its default delay between instructions, or at the delay given with
+ *    -Dmarie.delay=<msec> to watch the runs more slowly; the poll interval is stretched
+ *    with the delay, so a run is allowed the same instructions at any speed.
  * 5. Upon completion of a test run, compare MarieSim's output with any expected output
  *    provided by the tester.
  *
+ * The MarieSim reports its events on its run thread. They are handled on a harness
+ * thread of this module, in the order they occur, so neither the run thread nor
+ * the GUI waits for the tester, and the tester reacts without waiting for a poll.
+ *
  * Additional features:
  * 1. Tests may be conducted in a single run or in multiple runs. 
  * 2. Save all test results to a log file.
  * 3. For testing projects in batch mode, run this test module from command line and provide
  *    the directory of the *.mas files as argument.
  *
- * Limitations:
- * On some occasions, the system may need help from the tester to obtain focus of the mouse
- * at the beginning of the test. (use alt-tab or alt-shift-tab on keyboard)
+ * As no keystrokes are sent, the tests don't depend on which window has the focus: other
+ * windows may be used while MarieSim is running the tests.
  *
  */
 
-public class Test {
-    static final long PollInterval = 2000; // Poll the simulator's input register after each interval (msec)
+public class Test implements Tester {
+    static final long PollInterval = 2000; // The unit of time allowed for a run (msec)
     static final boolean CloseOnCompletion = true;
     
-    // Objects that may be changed by the polling thread.
+    // Objects that are only changed by the harness thread.
     MarieSim instance;
-    Robot robot;
-    Savelog log;
-    int pollCount = 0;
+    long pollMillis = PollInterval;    // The poll interval at the simulator's delay.
+    ResultLog log;
+    ScheduledExecutorService harness;
+    String inputs[];
     int inputIndex = 0;
+    volatile int runId = 0;        // Identifies the run in progress; events of earlier runs are ignored.
+    boolean running = false;
+    ScheduledFuture<?> timeout;
+    Runnable whenHalted;
+    GradingReport report;
+    File reference;                // The reference solution, if any.
+    OutputComparator comparator = OutputComparator.tokens();
+    IOMode inputMode = IOMode.dec;
+    IOMode outputMode = IOMode.dec;
+    double budgetMultiple = 0;     // Budgets of this multiple of the reference's instructions, if positive.
+    BudgetCalibrator calibrator;
+    long budget = 0;               // Instruction budget of the run, 0 if none.
+    boolean diverged = false;      // The run was halted when its output diverged.
+    long runStarted;               // System.nanoTime() at the start of the run.
+    long runNanos;                 // Wall time of the last run.
+    boolean timeUp = false;
+    String termination;            // Why the last run ended.
 
     int runCount = 0;
     int fileCount = 0;
     
-    // Define custom enum type to encapsule MarieSim's input IOMode
-    // in case the tester does not know the implementation within MarieSim.
-    private enum IOMode {
-        hex(MarieSim.HEX),
-        ascii(MarieSim.ASCII),
-        dec(MarieSim.DEC);
-
-        private int value;    
-        private IOMode(int value) { this.value = value; }
-        public int getValue() { return value; }
-    };
-
     // Initiate the important variables 
     public Test() {
         instance = new MarieSim();
         instance.setVisible(true);
-        try {
-            robot = new Robot();
-        } catch (AWTException ex) {
-            System.exit(0);
+        int delay = Integer.getInteger("marie.delay", MarieSim.MINIMUM_DELAY);
+        if (delay>MarieSim.MINIMUM_DELAY) {
+            instance.delay = delay;
+            pollMillis = PollInterval * delay / MarieSim.MINIMUM_DELAY;
         }
-        log = new Savelog();
-    }
-
-    
-    // A log file to save the test results.
-    static class Savelog {
-        File logfile;
-        public void setfile(String filepath) {
-            if (filepath==null) return;
-            logfile = new File(filepath);
-            try {
-                if (logfile.exists()) logfile.delete();
-                logfile.createNewFile();
-            } catch (IOException ex) {
-                logfile = null;
+        log = new ResultLog();
+        harness = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                return new Thread(task, "MARIE test harness");
             }
-        }
-        public void a(String text) {
-            if (logfile!=null) {
-                try {
-                    //BufferedWriter for performance, true to set append to file flag
-                    BufferedWriter buf = new BufferedWriter(new FileWriter(logfile, true));
-                    buf.append(text);
-                    buf.newLine();
-                    buf.close();
-                } catch (Exception ex) {}
+        });
+        // The run starts right away: the tester isn't waiting on the screen.
+        instance.startPause = 0;
+        instance.addMachineListener(new MachineListener() {
+            public void onInputRequested() {
+                final int run = runId;
+                onHarness(new Runnable() {
+                    public void run() { inputRequested(run); }
+                });
             }
-            // Always show result on console.
-            System.out.println(text);
-        }
+            public void onOutput(final int value, final String text) {
+                final int run = runId;
+                onHarness(new Runnable() {
+                    public void run() { outputWritten(run, value, text); }
+                });
+            }
+            public void onHalt(int state) {
+                final int run = runId;
+                onHarness(new Runnable() {
+                    public void run() { runHalted(run); }
+                });
+            }
+            public void onError(int errorCode) {}
+        });
     }
-    
+
     
     public void setlog(String filepath) {
         if (log!=null) log.setfile(filepath);
     }
 
+    public void setReference(String masfilepath) {
+        reference = masfilepath==null ? null : new File(masfilepath);
+        if (report!=null) report.setReference(reference==null ? null : reference.getName().replace(".mas", ".mex"));
+    }
+
+    // The budget of a run is given as the polls it takes at the default delay: MarieSim
+    // runs on wall-clock time, so the instructions themselves can't be capped.
+    public void setBudget(double multiple) {
+        budgetMultiple = multiple;
+    }
+
+    public void setComparator(OutputComparator comparator) {
+        this.comparator = comparator==null ? OutputComparator.tokens() : comparator;
+    }
+
+    public void setReport(String pathPrefix) {
+        if (report!=null) report.close();
+        report = null;
+        if (pathPrefix==null) return;
+        try {
+            report = new GradingReport(pathPrefix);
+            if (reference!=null) report.setReference(reference.getName().replace(".mas", ".mex"));
+        } catch (IOException ex) {
+            System.err.println("Cannot create grading report " + pathPrefix + ": " + ex.getMessage());
+        }
+    }
+
     
     
     // Input is a directory containing all the *.mas files
     public File[] getFiles(String relativePath) {
+        return masFiles(relativePath);
+    }
+
+    static File[] masFiles(String relativePath) {
         File files[] = null;
         File dir = new File(relativePath);
         if (dir.isDirectory()) {
@@ -154,10 +197,26 @@ public class Test {
     }
     
     public File assemble(File masfile) {
+        return assemble(masfile, log);
+    }
+
+    // The files to test, with the reference solution (if any) moved or added to the front.
+    static File[] withReference(File masfiles[], File reference) {
+        if (masfiles==null || reference==null || !reference.exists()) return masfiles;
+        ArrayList<File> files = new ArrayList<File>();
+        files.add(reference);
+        for (File file : masfiles) {
+            if (!file.getAbsoluteFile().equals(reference.getAbsoluteFile())) files.add(file);
+        }
+        return files.toArray(new File[files.size()]);
+    }
+
+    static File assemble(File masfile, ResultLog log) {
         if (masfile==null || !masfile.exists()) return null;
         String path = masfile.getPath();
-        String args[] = {masfile.getPath()};
-        Assembler.main(args);
+        // Unchanged sources are not reassembled: the outputs come from the assembly cache.
+        // Sources are assembled in two passes, as before, unless -Dmarie.singlepass=true.
+        AssemblyCache.getShared().assemble(masfile);
         
         File mexfile = new File( path.replace("mas", "mex"));
         // If program successfully assembled, remove the unnecessary files.
@@ -176,40 +235,145 @@ public class Test {
         }
     }
     
-    private void startRun() {
-        // Reset the counters that are used for every run.
-        pollCount = 0;
+    // Start a run on the harness thread. whenHalted is called on the harness thread
+    // once the run is over, whether the program halted or its time was up.
+    private void startRun(String input, String expectedOutput, int maxPolls, Runnable whenHalted) {
+        // Let the previous run thread finish, so it can't touch the program loaded next.
+        Thread previous = instance.runThread;
+        if (previous!=null && previous!=Thread.currentThread()) {
+            try {
+                previous.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Reset the state that is used for every run.
+        // If multiple inputs are provided within a single run, the inputs are expected
+        // to be delimited by a single whitespace.
+        inputs = input==null ? null : input.split(" ");
         inputIndex = 0;
-        // Load the program and start running it.
-        instance.loadProgram();
-        instance.restart();
+        this.whenHalted = whenHalted;
+        final int run = ++runId;
+        running = true;
+        timeUp = false;
+        diverged = false;
+        comparator.start(expectedOutput, outputMode);
+        budget = 0;
+        if (budgetMultiple>0 && reference!=null) {
+            if (calibrator==null || calibrator.getMultiple()!=budgetMultiple || !calibrator.reference.equals(reference))
+                calibrator = new BudgetCalibrator(reference, budgetMultiple);
+            budget = calibrator.budget(input, inputMode, outputMode, maxPolls);
+            if (budget>0) {
+                log.a(calibrator.describe(budget, input, inputMode, outputMode, maxPolls));
+                maxPolls = BudgetCalibrator.polls(budget, input);
+            }
+        }
+
+        // Load the program and start running it. The program tested in the previous run
+        // is put back from its memory image rather than read from its file again.
+        onEventThread(new Runnable() {
+            public void run() {
+                if (!instance.reloadImage()) instance.loadProgram();
+                instance.restart();
+            }
+        });
+        // The time is up after maxPolls intervals.
+        timeout = harness.schedule(new Runnable() {
+            public void run() {
+                if (run==runId && running) {
+                    timeUp = true;
+                    instance.halt();
+                }
+            }
+        }, maxPolls*pollMillis, TimeUnit.MILLISECONDS);
+        runStarted = System.nanoTime();
         instance.runProgram();
     }
-    
-    private boolean isMarieSimHalted() {
-        // If the simulator does not exist, then it cannot be halted.
-        if (instance==null) return false; 
-        // Check if the simulator is in any of the halted states
-        if (instance.machineState==MarieSim.MARIE_HALTED_ABNORMAL) return true;
-        if (instance.machineState==MarieSim.MARIE_HALTED_NORMAL) return true;
-        if (instance.machineState==MarieSim.MARIE_HALTED_BY_USER) return true;
-        return false;
+
+    // The machine asks for input: supply the next one, if the tester provided any.
+    private void inputRequested(int run) {
+        if (run!=runId || !running) return;
+        if (inputs!=null && inputIndex<inputs.length) {
+            postMarieSimInput(inputs[inputIndex]);
+            inputIndex++;
+        }
+    }
+
+    // The machine wrote a value: halt the run as soon as the output can no longer match.
+    private void outputWritten(int run, int value, String text) {
+        if (run!=runId || !running || diverged) return;
+        if (!comparator.accept(value, text)) {
+            diverged = true;
+            instance.halt();
+        }
+    }
+
+    // The machine halted. (It may report more than one halt for a run, e.g. when the
+    // time is up just as the program halts; only the first one counts.)
+    private void runHalted(int run) {
+        if (run!=runId || !running) return;
+        running = false;
+        timeout.cancel(false);
+        runNanos = System.nanoTime() - runStarted;
+        termination = GradingReport.termination(instance.machineState, instance.errorCode, timeUp,
+                                                isMarieSimRequestingInput(), false);
+        if (diverged) termination = GradingReport.OutputDiverged;
+        whenHalted.run();
+    }
+
+    // Run a task on the harness thread.
+    private void onHarness(Runnable task) {
+        harness.execute(task);
+    }
+
+    // Run a task on the event dispatch thread, where the simulator's Swing state lives,
+    // and wait for it to finish.
+    private void onEventThread(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException ex) {
+            log.a("Cannot load " + instance.mexFile + ": " + ex.getCause());
+        }
+    }
+
+    // Done testing.
+    private void completed() {
+        harness.shutdown();
+        setReport(null);
+        // Write out the logs before the JVM is gone.
+        ResultLog.sync();
+        if (CloseOnCompletion) {
+            System.exit(0);
+        }
     }
+
     private boolean isMarieSimRequestingInput() {
         // The simulator makes the input register editable if and only if it needs input.
         return instance.regINPUT.isEditable();
     }
-    private void postMarieSimInput(String input) {
-        if (isMarieSimRequestingInput()) {
-            log.a("Testing input " + input);
-            // In case multiple windows are active, 
-            // make sure the value is entered to this window 
-            instance.regINPUT.requestFocusInWindow();
-            instance.regINPUT.setValue(input);
-            // In case multiple windows are active, 
-            // make sure the robot gets access to this window.
-            instance.regINPUT.requestFocusInWindow();
-            robot.keyPress(KeyEvent.VK_ENTER);
+    // Enter the input on the event dispatch thread, as the register would take it when
+    // typed in: its value is set, then its action (the Enter key's) is fired.
+    private void postMarieSimInput(final String input) {
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    if (!isMarieSimRequestingInput()) return;
+                    log.a("Testing input " + input);
+                    instance.regINPUT.setValue(input);
+                    instance.regINPUT.postActionEvent();
+                }
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException ex) {
+            log.a("Cannot enter input " + input + ": " + ex.getCause());
         }
     }
     private String getMarieSimOutput() {
@@ -221,58 +385,36 @@ public class Test {
 
     
     // Test one file for a single run.
-    private void singleRun(File mexfile, String input, String expectedOutput, IOMode inputMode, IOMode outputMode, int maxPolls) {
+    private void singleRun(final File mexfile, final String input, final String expectedOutput, IOMode inputMode, IOMode outputMode, final int maxPolls) {
         if (mexfile==null || !mexfile.exists()) return;
-        if (instance==null || robot==null) return;
+        if (instance==null) return;
 
-        // If multiple inputs are provided within a single runs, the inputs are expected
-        // to be delimited by a single whitespace.
-        String inputs[];
-        if (input==null)
-            inputs = null;
-        else
-            inputs = input.split(" ");
-        
         // Setup IO modes.
         instance.regINPUT.setMode(inputMode.getValue());
         instance.regOUTPUT.setMode(outputMode.getValue());
+        this.inputMode = inputMode;
+        this.outputMode = outputMode;
         // Load mexfile. 
         instance.mexFile = mexfile.getPath().replace(".mex", "");
 
-        startRun();        
-        
-        final Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask(){
+        onHarness(new Runnable() {
             public void run() {
-                pollCount++;
-                if (pollCount<=maxPolls && !isMarieSimHalted()) {
-                    // If tester provided input, then supply it to the simulator upon request.
-                    if (inputs!=null && isMarieSimRequestingInput() && inputIndex<inputs.length) {
-                        postMarieSimInput(inputs[inputIndex]);
-                        inputIndex++;
-                    }
-                }
-                else {
-                    // Post-process output of test.
-                    verifyOutputs(expectedOutput);
-                    log.a("Test completed on file " + mexfile.getName());
-                    // Terminate polling.
-                    timer.cancel();
-                    timer.purge();
-                    if (CloseOnCompletion) {
-                        System.exit(0);
+                startRun(input, expectedOutput, maxPolls, new Runnable() {
+                    public void run() {
+                        // Post-process output of test.
+                        verifyOutputs(mexfile.getName(), 1, input, expectedOutput);
+                        log.a("Test completed on file " + mexfile.getName());
+                        completed();
                     }
-                }
+                });
             }
-        }, 
-        0,              // runs first occurrence immediately
-        PollInterval);  // run after every specific interval
+        });
     }
     
     // Sequentially test one file for multiple runs.
-    private void multiRuns(File mexfile, String inputs[], String expectedOutputs[], IOMode inputMode, IOMode outputMode, int maxPollsPerRun) {
+    private void multiRuns(final File mexfile, final String inputs[], final String expectedOutputs[], IOMode inputMode, IOMode outputMode, final int maxPollsPerRun) {
         if (mexfile==null || !mexfile.exists()) return;
-        if (instance==null || robot==null) return;
+        if (instance==null) return;
         // The length of inputs determines the number of runs.
         if (inputs==null || expectedOutputs==null) return;
         if (inputs.length != expectedOutputs.length) return;
@@ -280,75 +422,48 @@ public class Test {
         // Setup IO modes.
         instance.regINPUT.setMode(inputMode.getValue());
         instance.regOUTPUT.setMode(outputMode.getValue());
+        this.inputMode = inputMode;
+        this.outputMode = outputMode;
         // Setup mexfile
         instance.mexFile = mexfile.getPath().replace(".mex", "");
 
         // initialize run counter
         runCount = 0; 
-        
+        onHarness(new Runnable() {
+            public void run() {
+                nextRun(mexfile, inputs, expectedOutputs, maxPollsPerRun);
+            }
+        });
+    }
+
+    private void nextRun(final File mexfile, final String inputs[], final String expectedOutputs[], final int maxPollsPerRun) {
+        if (runCount>=inputs.length) {
+            // Done all runs.
+            log.a("Tests completed on file " + mexfile.getName());
+            completed();
+            return;
+        }
         log.a("Start run " + (runCount+1));
         // Start a new run
-        startRun();
-
-        final Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask(){
+        startRun(inputs[runCount], expectedOutputs[runCount], maxPollsPerRun, new Runnable() {
             public void run() {
-                if (runCount<inputs.length) {
-                    if (isMarieSimHalted()) {
-                        // Post-process output of test.
-                        verifyOutputs(expectedOutputs[runCount]);
-                        log.a("Run completed.");                            
-
-                        // A run has just finished. Increment the counter.
-                        runCount++;
-
-                        // If still within limit, start a new run.
-                        if (runCount<inputs.length) {
-                            log.a("Start run " + (runCount+1));
-                            // Start a new run
-                            startRun();
-                        }
-                    }
-                    else { // instance still running
-                        pollCount++;
-                        if (pollCount<=maxPollsPerRun) {
-                            // If tester provided input, then supply it to the simulator upon request.
-                            if (inputs[runCount]!=null) {
-                                String input[] = inputs[runCount].split(" ");
-                                if (isMarieSimRequestingInput() && inputIndex<input.length) {
-                                    postMarieSimInput(input[inputIndex]);
-                                    inputIndex++;
-                                }
-                            }
-                        }
-                        else {
-                            // Time's up for one run.
-                            instance.halt();
-                        }
-                    }
-                }
-                else {
-                    // Done all runs.
-                    log.a("Tests completed on file " + mexfile.getName());
-                    
-                    // Terminate polling.
-                    timer.cancel();
-                    timer.purge();
-                    if (CloseOnCompletion) {
-                        System.exit(0);
-                    }
-                }
+                // Post-process output of test.
+                verifyOutputs(mexfile.getName(), runCount+1, inputs[runCount], expectedOutputs[runCount]);
+                log.a("Run completed.");                            
+                log.flush();
+
+                // A run has just finished. Increment the counter.
+                runCount++;
+                nextRun(mexfile, inputs, expectedOutputs, maxPollsPerRun);
             }
-        }, 
-        PollInterval*1, // runs first occurrence after some delay (allow time for tester to get focus)
-        PollInterval);  // run after every specific interval
+        });
     }
     
     
     // Sequentially test multiple files for multiple runs.
-    private void multiRuns(File mexfile[], String inputs[], String expectedOutputs[], IOMode inputMode, IOMode outputMode, int maxPollsPerRun) {
+    private void multiRuns(final File mexfile[], final String inputs[], final String expectedOutputs[], IOMode inputMode, IOMode outputMode, final int maxPollsPerRun) {
         if (mexfile==null || mexfile.length==0) return;
-        if (instance==null || robot==null) return;
+        if (instance==null) return;
         // The length of inputs determines the number of runs.
         if (inputs==null || expectedOutputs==null) return;
         if (inputs.length != expectedOutputs.length) return;
@@ -357,111 +472,100 @@ public class Test {
         // Setup IO modes.
         instance.regINPUT.setMode(inputMode.getValue());
         instance.regOUTPUT.setMode(outputMode.getValue());
-
+        this.inputMode = inputMode;
+        this.outputMode = outputMode;
 
         // Initialize the first file to be run.
         fileCount=0;
+        onHarness(new Runnable() {
+            public void run() {
+                nextFile(mexfile, inputs, expectedOutputs, maxPollsPerRun);
+            }
+        });
+    }
+
+    private void nextFile(final File mexfile[], final String inputs[], final String expectedOutputs[], final int maxPollsPerRun) {
+        if (fileCount>=mexfile.length) {
+            // Done testing all files
+            completed();
+            return;
+        }
         // Load mexfile. 
         instance.mexFile = mexfile[fileCount].getPath().replace(".mex", "");
         // Redirect log
         setlog(mexfile[fileCount].getPath().replace(".mex", ".log"));
         log.a("Ready to test " + mexfile[fileCount]);
+        // Reset run counter 
         runCount=0;
-        log.a("Starting run " + (runCount+1) + " with input: " + inputs[runCount]);
-        startRun();
+        nextRun(mexfile, inputs, expectedOutputs, maxPollsPerRun);
+    }
 
-        final Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask(){
+    private void nextRun(final File mexfile[], final String inputs[], final String expectedOutputs[], final int maxPollsPerRun) {
+        if (runCount>=inputs.length) {
+            // Finished all runs on one file.
+            fileCount++;
+            nextFile(mexfile, inputs, expectedOutputs, maxPollsPerRun);
+            return;
+        }
+        log.a("Starting run " + (runCount+1) + " with input: " + inputs[runCount]);
+        startRun(inputs[runCount], expectedOutputs[runCount], maxPollsPerRun, new Runnable() {
             public void run() {
-                if (fileCount<mexfile.length) {
-                    if (runCount<inputs.length) {
-                        if (pollCount<maxPollsPerRun && !isMarieSimHalted()) {
-                            // If tester provided input, then supply it to the simulator upon request.
-                            if (inputs[runCount]!=null) {
-                                String input[] = inputs[runCount].split(" ");
-                                if (isMarieSimRequestingInput() && inputIndex<input.length) {
-                                    postMarieSimInput(input[inputIndex]);
-                                    inputIndex++;
-                                }
-                            }
-                            pollCount++;
-                        }
-                        else { // Finished all polls on one file
-                            // Time's up for one run.
-                            instance.halt();
-                            
-                            // Post-process output of test.
-                            verifyOutputs(expectedOutputs[runCount]);
-                            log.a("Run completed.");                            
-                                    
-                            runCount++;
-                            if (runCount<inputs.length) {
-                                log.a("Starting run " + (runCount+1) + " with input: " + inputs[runCount]);
-                                startRun();
-                            }
-                        }
-                    }
-                    else { // Finished all runs on one file.
-                        fileCount++;
-                        // Load mexfile. 
-                        
-                        if (fileCount<mexfile.length) {
-                            instance.mexFile = mexfile[fileCount].getPath().replace(".mex", "");
-                            // Redirect log
-                            setlog(mexfile[fileCount].getPath().replace(".mex", ".log"));
-                            log.a("Ready to test " + mexfile[fileCount]);
-
-                            // Reset run counter 
-                            runCount=0;
-                            log.a("Starting run " + (runCount+1) + " with input: " + inputs[runCount]);
-                            startRun();
-                        }
-                    }
-                }
-                else {
-                    // Done testing all files
-                    // Terminate polling.
-                    timer.cancel();
-                    timer.purge();
-                    if (CloseOnCompletion) {
-                        System.exit(0);
-                    }
-                }
+                // Post-process output of test.
+                verifyOutputs(mexfile[fileCount].getName(), runCount+1, inputs[runCount], expectedOutputs[runCount]);
+                log.a("Run completed.");                            
+                log.flush();
+                runCount++;
+                nextRun(mexfile, inputs, expectedOutputs, maxPollsPerRun);
             }
-        }, 
-        PollInterval*1, // runs first occurrence after some delay (allow time for tester to get focus)
-        PollInterval);  // run after every specific interval
+        });
     }
     
     
     
-    private void verifyOutputs(String expectedOutput) {
-        
+    private void verifyOutputs(String mexname, int run, String input, String expectedOutput) {
         // Copy out any existing output from the simulator.
         String testOutput = getMarieSimOutput();
-        
+        boolean passed = verifyOutputs(log, testOutput, expectedOutput, comparator);
+        if (report!=null) {
+            instance.metrics.setWallNanos(runNanos);
+            instance.metrics.setBudget(budget);
+            report.add(mexname, run, input, expectedOutput, cleanOutput(testOutput), passed,
+                       instance.metrics, termination);
+        }
+    }
+
+    // Returns whether the test output seems correct.
+    // The comparator has seen the output of the run as it was written.
+    static boolean verifyOutputs(ResultLog log, String testOutput, String expectedOutput, OutputComparator comparator) {
         // Tester should determine how to check output here.
         if (expectedOutput==null) expectedOutput = "";  // default
 
-        String testOutputCleaned = ""; // default
-        if (testOutput!=null) {
-            // For example, if whitespaces don't matter, then replace all multiple spaces by a single space
-            testOutputCleaned = testOutput.replaceAll("\\s+", " ").trim();
-        }
+        String testOutputCleaned = cleanOutput(testOutput);
 
         log.a("Cleaned test output: " + testOutputCleaned);
         expectedOutput = expectedOutput.trim();
         log.a("Expected output:     " + expectedOutput);
-        if (testOutputCleaned.equals(expectedOutput)) {
+        if (comparator.matches()) {
             log.a("Test output seems correct");
+            return true;
         }
         else {
+            log.a("Output diverges at " + comparator.divergence());
             log.a("Test output seems INCORRECT");
+            return false;
         }
     }
     
     
     
+    static String cleanOutput(String testOutput) {
+        if (testOutput==null) return ""; // default
+        // For example, if whitespaces don't matter, then replace all multiple spaces by a single space
+        return testOutput.replaceAll("\\s+", " ").trim();
+    }
+    
+    
+    
     private void singleRun(String masfilepath, String input, String expectedOutput, int maxPollCount, IOMode inputMode, IOMode outputMode) {
         if (masfilepath==null) return;
         File masfile = new File(masfilepath);
@@ -488,8 +592,9 @@ public class Test {
     }
     
     private void multiRuns(File masfiles[], String inputs[], String expectedOutputs[], int maxPollCount, IOMode inputMode, IOMode outputMode) {
+        masfiles = Test.withReference(masfiles, reference);
         // Assemble all in batch.
-        ArrayList<File> mexlist = new ArrayList();
+        ArrayList<File> mexlist = new ArrayList<File>();
         for (File masfile : masfiles) {
             File mexfile = assemble(masfile);
             if (mexfile!=null) {
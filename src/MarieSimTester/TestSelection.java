@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*
+ *
+ * Re-selection of the test cases to run on a resubmitted program.
+ *
+ * When a program has been graded, the record of its grading is kept: its source lines
+ * with the address and the word each one assembled to (through the lineNo of its
+ * AssembledCodeLine), and for each case the result of the run, whether it passed, and
+ * the addresses the run read from memory (see MarieMachine.setReadTracking()).
+ *
+ * When the program is graded again, its source is compared with the recorded one line
+ * by line (a longest common subsequence of the lines). A line is changed if it is not
+ * in the common subsequence, and shifted if it is but now assembles to another address
+ * or word (e.g. a line after an inserted one, or one that refers to a label that moved).
+ * The words at the addresses of changed and shifted lines may differ; no other word of
+ * the image does. A case that read none of them would run exactly as it did, so its
+ * result is reused; the other cases, the cases that failed last time, and new cases
+ * are run again. If the program starts at another address, every case is run.
+ *
+ * The records are kept in a directory, one file per program and suite (by their paths),
+ * written with a checksum as the result cache writes its entries. A record that can't
+ * be read is ignored, and all the cases are run. So are they when the lines between
+ * the first and the last changed one are too many to compare in a table of bounded
+ * size (MaxTableCells, 4 MB): a program rewritten that much needs every case anyway.
+ *
+ */
+
+public class TestSelection {
+    static final int Magic = 0x4D415253;            // "MARS"
+    static final String RecordType = ".sel";
+    static final long MaxTableCells = 1 << 20;      // Of the comparison table; beyond it every case is run.
+
+    // The directory may be overridden with -Dmarie.selection.dir=<path>.
+    public static final File DefaultDirectory = new File(System.getProperty("marie.selection.dir",
+            new File(AssemblyCache.DefaultDirectory, "selection").getPath()));
+
+    // A program as assembled: its source lines, and the address and word of each line
+    // (-1 for a line that assembles to nothing).
+    static class Program {
+        String lines[];
+        int addresses[];
+        int words[];
+        int startAddress = -1;
+
+        Program(int size) {
+            lines = new String[size];
+            addresses = new int[size];
+            words = new int[size];
+        }
+
+        static Program of(List<AssembledCodeLine> codeLines) {
+            Program program = new Program(codeLines.size());
+            for (int i=0; i<codeLines.size(); i++) {
+                AssembledCodeLine line = codeLines.get(i);
+                program.lines[i] = line.sourceLine;
+                program.addresses[i] = -1;
+                program.words[i] = -1;
+                if (line.lineNo.charAt(0)==' ') continue;
+                try {
+                    program.addresses[i] = Integer.parseInt(line.lineNo.trim(), 16) & MarieSim.MAX_MARIE_ADDR;
+                    program.words[i] = Integer.parseInt(line.hexCode+line.operand, 16) & 0xFFFF;
+                    if (program.startAddress<0) program.startAddress = program.addresses[i];
+                } catch (NumberFormatException ex) {
+                    // The machine skips a line it can't place in memory.
+                    program.addresses[i] = -1;
+                }
+            }
+            return program;
+        }
+    }
+
+    // A case as it was run: its result, whether it passed, and the addresses it read
+    // (null if unknown, e.g. for a result from the result cache).
+    static class Case {
+        final ResultCache.Entry entry;
+        final boolean passed;
+        final long reads[];
+
+        Case(ResultCache.Entry entry, boolean passed, long reads[]) {
+            this.entry = entry;
+            this.passed = passed;
+            this.reads = reads;
+        }
+    }
+
+    File record;
+    Program graded, current;
+    Map<String, Case> gradedCases = new HashMap<String, Case>();
+    Map<String, Case> cases = new HashMap<String, Case>();
+    long changed[];                // Addresses whose words may have changed, or null to run every case.
+    String changes;                // The changed and shifted lines, as they are logged.
+    int reused, rerun;
+
+
+    // The selection for a program about to be graded with a suite, from the record of its
+    // last grading with that suite.
+    public static TestSelection open(File directory, File suitefile, File masfile, File mexfile) throws IOException {
+        TestSelection selection = new TestSelection();
+        selection.current = Program.of(MarieMachine.readProgram(mexfile));
+        MessageDigest digest = ResultCache.sha256();
+        digest.update(masfile.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(suitefile.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+        directory.mkdirs();
+        selection.record = new File(directory, ResultCache.hex(digest.digest()) + RecordType);
+        selection.read();
+        selection.compare();
+        return selection;
+    }
+
+    // The changed and shifted lines since the last grading, as logged; null if there was none.
+    public String describe() { return changes; }
+
+    public int getReused() { return reused; }
+    public int getRerun() { return rerun; }
+
+
+    // The case as it was run at the last grading, if it would run the same way now and it
+    // passed then. Null if the case has to be run.
+    Case reusable(String key) {
+        Case graded = gradedCases.get(key);
+        if (graded==null || !graded.passed || graded.reads==null || changed==null) return null;
+        for (int i=0; i<changed.length; i++) {
+            if ((graded.reads[i] & changed[i])!=0) return null;
+        }
+        return graded;
+    }
+
+    // Record a case of this grading: run again, or reused.
+    void record(String key, Case run, boolean reused) {
+        cases.put(key, run);
+        if (reused) this.reused++;
+        else rerun++;
+    }
+
+    // Mark the addresses of the lines that changed or shifted since the last grading.
+    void compare() {
+        changed = null;
+        changes = null;
+        if (graded==null) return;
+        if (graded.startAddress!=current.startAddress) {
+            changes = "The program starts at another address since the last grading.";
+            return;
+        }
+        String a[] = graded.lines, b[] = current.lines;
+        // Lines in common at both ends need no table.
+        int head = 0;
+        while (head<a.length && head<b.length && a[head].equals(b[head])) head++;
+        int tail = 0;
+        while (tail<a.length-head && tail<b.length-head && a[a.length-1-tail].equals(b[b.length-1-tail])) tail++;
+        int n = a.length-head-tail, m = b.length-head-tail;
+        if ((long) (n+1)*(m+1)>MaxTableCells) {
+            changes = "Too many lines changed since the last grading to compare them: every case is run.";
+            return;
+        }
+        int common[][] = new int[n+1][m+1];        // Longest common subsequence of the rest, from (i, j) on.
+        for (int i=n-1; i>=0; i--) {
+            for (int j=m-1; j>=0; j--) {
+                common[i][j] = a[head+i].equals(b[head+j]) ? common[i+1][j+1]+1 : Math.max(common[i+1][j], common[i][j+1]);
+            }
+        }
+
+        changed = new long[MarieMachine.MemorySize/64];
+        StringBuilder changedLines = new StringBuilder(), shiftedLines = new StringBuilder();
+        int removed = 0;
+        for (int k=0; k<head; k++) same(k, k, shiftedLines);
+        int i = 0, j = 0;
+        while (i<n || j<m) {
+            if (i<n && j<m && a[head+i].equals(b[head+j]) && common[i][j]==common[i+1][j+1]+1) {
+                same(head+i, head+j, shiftedLines);
+                i++;
+                j++;
+            }
+            else if (j==m || (i<n && common[i+1][j]>=common[i][j+1])) {
+                mark(graded.addresses[head+i]);     // A line removed.
+                removed++;
+                i++;
+            }
+            else {
+                mark(current.addresses[head+j]);    // A line added.
+                append(changedLines, head+j+1);
+                j++;
+            }
+        }
+        for (int k=0; k<tail; k++) same(a.length-tail+k, b.length-tail+k, shiftedLines);
+        changes = "Lines changed since the last grading: " + (changedLines.length()>0 ? changedLines.toString() : "none")
+                  + (removed>0 ? " (" + removed + " removed)" : "")
+                  + (shiftedLines.length()>0 ? "; shifted: " + shiftedLines : "");
+    }
+
+    // A line in both programs: shifted if it assembles differently.
+    void same(int gradedLine, int currentLine, StringBuilder shiftedLines) {
+        if (graded.addresses[gradedLine]==current.addresses[currentLine] && graded.words[gradedLine]==current.words[currentLine])
+            return;
+        mark(graded.addresses[gradedLine]);
+        mark(current.addresses[currentLine]);
+        append(shiftedLines, currentLine+1);
+    }
+
+    void mark(int address) {
+        if (address>=0) changed[address >>> 6] |= 1L << address;
+    }
+
+    static void append(StringBuilder lines, int line) {
+        if (lines.length()>0) lines.append(", ");
+        lines.append(line);
+    }
+
+
+    // Keep the record of this grading, for the next. A case not run this time is dropped.
+    public void save() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(Magic);
+            out.writeUTF(MarieMachine.VERSION);
+            out.writeInt(current.startAddress);
+            out.writeInt(current.lines.length);
+            for (int i=0; i<current.lines.length; i++) {
+                writeText(out, current.lines[i]);
+                out.writeInt(current.addresses[i]);
+                out.writeInt(current.words[i]);
+            }
+            out.writeInt(cases.size());
+            for (Map.Entry<String, Case> item : cases.entrySet()) {
+                Case run = item.getValue();
+                out.writeUTF(item.getKey());
+                writeText(out, run.entry.output);
+                out.writeBoolean(run.entry.divergence!=null);
+                if (run.entry.divergence!=null) writeText(out, run.entry.divergence);
+                out.writeInt(run.entry.inputsTaken);
+                writeText(out, run.entry.termination);
+                writeText(out, run.entry.metrics);
+                out.writeBoolean(run.passed);
+                out.writeBoolean(run.reads!=null);
+                if (run.reads!=null) {
+                    for (long word : run.reads) out.writeLong(word);
+                }
+            }
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.close();
+
+            File temp = File.createTempFile(record.getName(), ".tmp", record.getParentFile());
+            Files.write(temp.toPath(), bytes.toByteArray());
+            Files.move(temp.toPath(), record.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // Without a record, the next grading runs every case.
+        }
+    }
+
+    // Read the record of the last grading, if there is a good one.
+    void read() {
+        if (!record.exists()) return;
+        try {
+            byte data[] = Files.readAllBytes(record.toPath());
+            if (data.length<8) throw new IOException("truncated selection record");
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length-8);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length-8));
+            if (in.readInt()!=Magic || !MarieMachine.VERSION.equals(in.readUTF()))
+                throw new IOException("bad selection record");
+            int startAddress = in.readInt();
+            int size = in.readInt();
+            if (size<0 || size>data.length) throw new IOException("bad selection record");
+            Program program = new Program(size);
+            program.startAddress = startAddress;
+            for (int i=0; i<size; i++) {
+                program.lines[i] = readText(in);
+                program.addresses[i] = in.readInt();
+                program.words[i] = in.readInt();
+            }
+            Map<String, Case> runs = new HashMap<String, Case>();
+            for (int count=in.readInt(); count>0; count--) {
+                String key = in.readUTF();
+                String output = readText(in);
+                String divergence = in.readBoolean() ? readText(in) : null;
+                int inputsTaken = in.readInt();
+                String termination = readText(in);
+                String metrics = readText(in);
+                boolean passed = in.readBoolean();
+                long reads[] = null;
+                if (in.readBoolean()) {
+                    reads = new long[MarieMachine.MemorySize/64];
+                    for (int k=0; k<reads.length; k++) reads[k] = in.readLong();
+                }
+                runs.put(key, new Case(new ResultCache.Entry(output, divergence, inputsTaken, termination, metrics),
+                                       passed, reads));
+            }
+            if (in.available()!=0 || new DataInputStream(new ByteArrayInputStream(data, data.length-8, 8)).readLong()!=crc.getValue())
+                throw new IOException("bad selection record");
+            graded = program;
+            gradedCases = runs;
+        } catch (IOException ex) {
+            record.delete();
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte data[] = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length<0 || length>in.available()) throw new IOException("truncated selection record");
+        byte data[] = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
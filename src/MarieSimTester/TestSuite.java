@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/*
+ *
+ * A test suite file: the program to test, its IO modes, the time allowed for a run,
+ * and the test cases, in plain text.
+ *
+ *   # Comments and blank lines are ignored.
+ *   program  parity-brute.mas
+ *   input    ascii
+ *   output   dec
+ *   polls    25
+ *   compare  tokens
+ *   case<TAB>! " #<TAB>33 2 0 34 2 0 35 3 1
+ *
+ * The directives come first. The program path is relative to the directory of the
+ * suite file; the modes are hex, dec or ascii; polls is the time allowed for a run,
+ * in the unit of maxPollCount; compare names the comparison of the outputs (see
+ * OutputComparator.named(), tokens if none is given). Each case is one line with three tab-separated fields:
+ * "case", the inputs of the run (delimited by single spaces, as for Test) and the
+ * expected output. A backslash, tab, newline or carriage return in a field is written
+ * as \\, \t, \n or \r. An empty input field means no input.
+ *
+ * The cases are read one at a time, so a suite of any number of cases is run in
+ * constant memory.
+ *
+ */
+
+public class TestSuite {
+    public static final String FileType = ".suite";
+
+    File file;
+    BufferedReader reader;
+    int lineNo = 0;
+    String pending;      // The first case line, read while reading the directives.
+
+    File program;
+    IOMode inputMode = IOMode.dec;
+    IOMode outputMode = IOMode.dec;
+    int polls = 10;
+    OutputComparator comparator;
+
+    // The current case.
+    String input;
+    String expectedOutput;
+
+
+    public File getProgram() { return program; }
+    public IOMode getInputMode() { return inputMode; }
+    public IOMode getOutputMode() { return outputMode; }
+    public int getPolls() { return polls; }
+    public OutputComparator getComparator() { return comparator; }
+    public String getInput() { return input; }
+    public String getExpectedOutput() { return expectedOutput; }
+
+
+    // Open a suite file and read its directives.
+    public static TestSuite open(File file) throws IOException {
+        TestSuite suite = new TestSuite();
+        suite.file = file;
+        suite.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            suite.readDirectives();
+        } catch (IOException ex) {
+            suite.close();
+            throw ex;
+        }
+        return suite;
+    }
+
+    // Read the next case. Returns false at the end of the suite.
+    public boolean nextCase() throws IOException {
+        String line = pending;
+        pending = null;
+        while (line==null) {
+            line = reader.readLine();
+            if (line==null) return false;
+            lineNo++;
+            if (isBlank(line)) line = null;
+        }
+        String fields[] = line.split("\t", -1);
+        if (!fields[0].equals("case")) throw error("directive after the first case, or not a case: " + fields[0]);
+        if (fields.length!=3) throw error("a case has 3 tab-separated fields");
+        input = fields[1].length()==0 ? null : unescape(fields[1]);
+        expectedOutput = unescape(fields[2]);
+        return true;
+    }
+
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException ex) {}
+    }
+
+
+    private void readDirectives() throws IOException {
+        String line;
+        while ((line = reader.readLine())!=null) {
+            lineNo++;
+            if (isBlank(line)) continue;
+            if (line.startsWith("case\t")) {
+                pending = line;
+                break;
+            }
+            String words[] = line.trim().split("\\s+", 2);
+            String value = words.length>1 ? words[1].trim() : "";
+            if (words[0].equals("program")) {
+                File path = new File(value);
+                program = path.isAbsolute() ? path : new File(file.getParentFile(), value);
+            }
+            else if (words[0].equals("input")) inputMode = mode(value);
+            else if (words[0].equals("output")) outputMode = mode(value);
+            else if (words[0].equals("polls")) {
+                try {
+                    polls = Integer.parseInt(value);
+                } catch (NumberFormatException ex) {
+                    throw error("polls must be a number: " + value);
+                }
+            }
+            else if (words[0].equals("compare")) {
+                try {
+                    comparator = OutputComparator.named(value);
+                } catch (IllegalArgumentException ex) {
+                    throw error("compare must be tokens, exact, unordered or tolerance:n: " + value);
+                }
+            }
+            else throw error("unknown directive: " + words[0]);
+        }
+        if (program==null) throw error("no program given");
+    }
+
+    private IOMode mode(String value) throws IOException {
+        try {
+            return IOMode.valueOf(value);
+        } catch (IllegalArgumentException ex) {
+            throw error("the mode must be hex, dec or ascii: " + value);
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(file.getPath() + ":" + lineNo + ": " + message);
+    }
+
+    private static boolean isBlank(String line) {
+        String text = line.trim();
+        return text.length()==0 || text.startsWith("#");
+    }
+
+
+    // Write the directives of a suite. The program path is made relative to the suite file where possible.
+    public static BufferedWriter create(File file, File program, IOMode inputMode, IOMode outputMode, int polls) throws IOException {
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        String path = program.getPath();
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            path = dir.toPath().relativize(program.getAbsoluteFile().toPath()).toString();
+        } catch (IllegalArgumentException ex) {
+            // On another root: keep the path as given.
+        }
+        out.write("# MARIE test suite"); out.newLine();
+        out.write("program " + path); out.newLine();
+        out.write("input   " + inputMode); out.newLine();
+        out.write("output  " + outputMode); out.newLine();
+        out.write("polls   " + polls); out.newLine();
+        return out;
+    }
+
+    // Write one case.
+    public static void writeCase(BufferedWriter out, String input, String expectedOutput) throws IOException {
+        out.write("case\t");
+        if (input!=null) out.write(escape(input));
+        out.write("\t");
+        if (expectedOutput!=null) out.write(escape(expectedOutput));
+        out.newLine();
+    }
+
+
+    static String escape(String text) {
+        StringBuilder b = new StringBuilder(text.length());
+        for (int i=0; i<text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\': b.append("\\\\"); break;
+                case '\t': b.append("\\t"); break;
+                case '\n': b.append("\\n"); break;
+                case '\r': b.append("\\r"); break;
+                default: b.append(c);
+            }
+        }
+        return b.toString();
+    }
+
+    static String unescape(String text) {
+        if (text.indexOf('\\')<0) return text;
+        StringBuilder b = new StringBuilder(text.length());
+        for (int i=0; i<text.length(); i++) {
+            char c = text.charAt(i);
+            if (c=='\\' && i+1<text.length()) {
+                c = text.charAt(++i);
+                switch (c) {
+                    case 't': c = '\t'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                }
+            }
+            b.append(c);
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+
+/*
+ *
+ * The public methods of an IO tester of MARIE programs.
+ *
+ * Test runs the programs in MarieSim and enters the input through its window;
+ * HeadlessTest runs them on a MarieMachine without a display. Both write the
+ * same log for the same tests.
+ *
+ */
+
+public interface Tester {
+    public void setlog(String filepath);
+    public File[] getFiles(String relativePath);
+    public File assemble(File masfile);
+
+    // Report every run to pathPrefix.csv and pathPrefix.xml (see GradingReport).
+    // A null prefix closes the report.
+    public void setReport(String pathPrefix);
+
+    // The reference solution (a mas file): in the grading report the other files are
+    // ranked against it, and it is tested first when a directory is tested.
+    public void setReference(String masfilepath);
+
+    // Give each case a budget of the multiple of the instructions the reference solution
+    // executes on it (see BudgetCalibrator), rather than its polls. 0 turns budgets off.
+    public void setBudget(double multiple);
+
+    // Compare the outputs with the comparator (see OutputComparator), instead of tokens().
+    public void setComparator(OutputComparator comparator);
+
+    // Test one file for a single run.
+    public void singleRunDec2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunDec2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunDec2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunHex2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunHex2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunHex2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunAscii2Dec(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunAscii2Hex(String masfilepath, String input, String expectedOutput, int maxPollCount);
+    public void singleRunAscii2Ascii(String masfilepath, String input, String expectedOutput, int maxPollCount);
+
+    // Provide a single file to test one file with multiple runs.
+    // If a directory is provided, test all mas files in the directory with multiple runs.
+    public void multiRunsDec2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsDec2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsDec2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsHex2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsHex2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsHex2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsAscii2Dec(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsAscii2Hex(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+    public void multiRunsAscii2Ascii(String masfilepath, String inputs[], String expectedOutputs[], int maxPollCount);
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ *
+ * A long-running tester that grades the mas files in a directory as they are saved.
+ *
+ * The directory and all its subdirectories (e.g. one per student) are watched for
+ * new, changed and deleted mas files. A file is graded once it has been quiet for
+ * the debounce time, so a file still being written is not graded half way. It is
+ * graded only if its content changed since it was last graded: editors often save a
+ * file without changing it, or touch it more than once per save.
+ *
+ * Each file is tested with the cases of a suite (see TestSuite), exactly as
+ *   java MarieSimTester.HeadlessTest suitefile file.mas
+ * would test it, and logged to its own log. The grading report (-Dmarie.report) is a
+ * consolidated one: it holds the latest runs of every file, by path relative to the
+ * watched directory, and is rewritten after every file graded.
+ *
+ *   java MarieSimTester.WatchFolder [--force] suitefile directory
+ *
+ */
+
+public class WatchFolder {
+    static final long DebounceMillis = 300;       // Quiet time before a changed file is graded.
+    static final long PollMillis = 50;
+
+    final File suitefile;
+    final Path root;
+    final HeadlessTest tester = new HeadlessTest();
+    final ResultLog log = new ResultLog();
+    WatchService watcher;
+    final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+    final Map<Path, Long> pending = new HashMap<Path, Long>();     // Changed files, by the time of the last change.
+    final Map<Path, String> graded = new HashMap<Path, String>();  // Content hash of each file as it was graded.
+
+    public WatchFolder(String suitepath, String directory) {
+        suitefile = new File(suitepath);
+        root = new File(directory).getAbsoluteFile().toPath();
+        tester.reportRoot = root.toFile();
+    }
+
+    // Report every file graded to a consolidated report at pathPrefix.csv and pathPrefix.xml.
+    public void setReport(String pathPrefix) {
+        if (tester.report!=null) tester.report.close();
+        tester.report = pathPrefix==null ? null : GradingReport.consolidated(pathPrefix);
+    }
+
+
+    // Watch until the JVM is stopped.
+    public void watch() throws IOException {
+        watcher = FileSystems.getDefault().newWatchService();
+        register(root);
+        log.console("Watching " + root + " for mas files. Stop with Ctrl-C.");
+        try {
+            while (true) {
+                WatchKey key = watcher.poll(PollMillis, TimeUnit.MILLISECONDS);
+                while (key!=null) {
+                    events(key);
+                    key = watcher.poll();
+                }
+                gradeQuietFiles();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // Stopped.
+        } finally {
+            watcher.close();
+        }
+    }
+
+    // Watch a directory and its subdirectories, and take the mas files in them as changed.
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isMasFile(file)) changed(file);
+                return FileVisitResult.CONTINUE;
+            }
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void events(WatchKey key) throws IOException {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind()==StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost: look at everything again. Unchanged files are skipped by their hash.
+                register(root);
+                continue;
+            }
+            if (dir==null) continue;
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind()==StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path);
+            }
+            else if (isMasFile(path)) {
+                if (event.kind()==StandardWatchEventKinds.ENTRY_DELETE) deleted(path);
+                else changed(path);
+            }
+        }
+        if (!key.reset()) directories.remove(key);
+    }
+
+    private static boolean isMasFile(Path path) {
+        return path.getFileName().toString().endsWith(".mas");
+    }
+
+    private void changed(Path file) {
+        pending.put(file, System.currentTimeMillis());
+    }
+
+    private void deleted(Path file) {
+        pending.remove(file);
+        if (graded.remove(file)!=null && tester.report!=null) {
+            tester.report.removeFile(tester.reportName(mexFile(file)));
+            tester.report.rewrite();
+        }
+        log.console("Removed " + root.relativize(file));
+    }
+
+    private static File mexFile(Path masfile) {
+        return new File(masfile.toString().replace(".mas", ".mex"));
+    }
+
+    // Grade the changed files that have been quiet for the debounce time.
+    private void gradeQuietFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Long>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Long> entry = entries.next();
+            if (now - entry.getValue() < DebounceMillis) continue;
+            entries.remove();
+            Path file = entry.getKey();
+            String hash = hash(file);
+            if (hash==null || hash.equals(graded.get(file))) continue;
+            graded.put(file, hash);
+            grade(file);
+        }
+    }
+
+    private void grade(Path file) {
+        long start = System.nanoTime();
+        log.console("Grading " + root.relativize(file));
+        if (tester.report!=null) tester.report.removeFile(tester.reportName(mexFile(file)));
+        tester.runSuite(suitefile.getPath(), file.toString());
+        if (tester.report!=null) tester.report.rewrite();
+        log.console(String.format("Graded %s in %.0f ms.", root.relativize(file), (System.nanoTime()-start)/1e6));
+    }
+
+    // The SHA-256 of the file's content, or null if it can't be read (e.g. it was deleted).
+    static String hash(Path file) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            InputStream in = Files.newInputStream(file);
+            try {
+                byte buffer[] = new byte[8192];
+                int n;
+                while ((n = in.read(buffer))>0) digest.update(buffer, 0, n);
+            } finally {
+                in.close();
+            }
+            StringBuilder b = new StringBuilder();
+            for (byte x : digest.digest()) b.append(String.format("%02x", x & 0xFF));
+            return b.toString();
+        } catch (IOException ex) {
+            return null;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    public static void main(String args[]) throws IOException {
+        boolean force = args.length>0 && args[0].equals(HeadlessTest.ForceFlag);
+        if (force) args = Arrays.copyOfRange(args, 1, args.length);
+        if (args.length<2) {
+            System.out.println("Usage: WatchFolder [" + HeadlessTest.ForceFlag + "] suitefile directory");
+            System.out.println("Cached results are used unless " + HeadlessTest.ForceFlag + " is given.");
+            System.out.println("Add -Dmarie.report=prefix to keep a grading report in prefix.csv and prefix.xml.");
+            System.out.println("Add -Dmarie.reference=file.mas and -Dmarie.budget=m to give each case m times");
+            System.out.println("the instructions the reference executes.");
+            return;
+        }
+        WatchFolder folder = new WatchFolder(args[0], args[1]);
+        folder.tester.setResultCache(ResultCache.getShared(), force);
+        folder.tester.setSelection(TestSelection.DefaultDirectory);
+        folder.tester.setReference(System.getProperty("marie.reference"));
+        folder.tester.setBudget(HeadlessTest.budget());
+        folder.setReport(System.getProperty("marie.report"));
+        folder.watch();
+    }
+}
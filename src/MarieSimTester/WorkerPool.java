@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2015-2016 Annie Hui @ NVCC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package MarieSimTester;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *
+ * Grades mas files with a pool of worker processes, so that no submission can stall
+ * the batch.
+ *
+ * The coordinator starts a number of worker JVMs on the local machine (one per core
+ * by default) and deals the jobs out to them over their standard input and output.
+ * A job is a mas file and all the suites: the worker runs the suites on the file one
+ * after the other in a HeadlessTest, exactly as
+ *   java MarieSimTester.HeadlessTest suitefile file.mas
+ * would for each, and sends back the runs for the grading report. Since one worker
+ * has the file, no two workers assemble it or write its log and selection record at
+ * once. With more than one suite, each suite's runs are logged to file-suite.log.
+ * A worker that crashes, or takes longer than the job timeout (per suite), is killed
+ * and replaced by a new one, and its job is given to the next free worker. A job that
+ * kills its worker twice is given up and reported as a failed run of its own, with
+ * the reason. A worker is started before it is given a job; if none can be started
+ * at all, the jobs left are given up.
+ *
+ * The runs of a job are reported only when the job is done, so a job that is run
+ * again is not reported twice.
+ *   java MarieSimTester.WorkerPool [--force] suitefile... file.mas|directory
+ * runs every suite on the file, or on all mas files in the directory.
+ * -Dmarie.workers=n sets the number of workers, -Dmarie.jobtimeout=s the job timeout
+ * in seconds, -Dmarie.report and -Dmarie.reference are as for HeadlessTest.
+ *
+ */
+
+public class WorkerPool {
+    static final int MaxAttempts = 2;
+    static final long StartTimeoutMillis = 30000;   // A worker that isn't ready by then is killed.
+    static final String WorkerFlag = "-worker";
+
+    // The protocol. Each message is a line of tab-separated fields.
+    static final String Ready = "ready";          // worker: started
+    static final String Job = "job";              // coordinator: job id, mas file, report root, suites
+    static final String Run = "run";              // worker: job id, one run
+    static final String Done = "done";            // worker: job id
+
+    // Terminations of a job given up.
+    public static final String WorkerCrashed = "worker crashed";
+    public static final String WorkerHung = "worker timed out";
+    public static final String WorkerNotStarted = "worker did not start";
+
+    ResultLog log = new ResultLog();
+    int workers = Runtime.getRuntime().availableProcessors();
+    long jobTimeoutMillis = 120000;
+    GradingReport report;
+    File reference;
+    boolean force = false;         // Run every case, rather than take results from the cache.
+
+    // A mas file to run the suites on.
+    static class Job {
+        final int id;
+        final String maspath, root;
+        final String suitepaths[];
+        int attempts;
+        String failure;                // Why the last attempt failed.
+
+        Job(int id, String maspath, String root, String suitepaths[]) {
+            this.id = id;
+            this.maspath = maspath;
+            this.root = root;
+            this.suitepaths = suitepaths;
+        }
+    }
+
+    final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+    final AtomicInteger unfinished = new AtomicInteger();
+    final AtomicInteger serving = new AtomicInteger();    // Slots that can still start workers.
+    final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+
+
+    public void setlog(String filepath) {
+        log.setfile(filepath);
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    public void setJobTimeout(long seconds) {
+        jobTimeoutMillis = Math.max(1, seconds) * 1000;
+    }
+
+    public void setReport(String pathPrefix) {
+        if (report!=null) report.close();
+        report = null;
+        if (pathPrefix==null) return;
+        try {
+            report = new GradingReport(pathPrefix);
+            if (reference!=null) report.setReference(reference.getName().replace(".mas", ".mex"));
+        } catch (IOException ex) {
+            System.err.println("Cannot create grading report " + pathPrefix + ": " + ex.getMessage());
+        }
+    }
+
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    public void setReference(String masfilepath) {
+        reference = masfilepath==null ? null : new File(masfilepath);
+    }
+
+
+    // Run every suite on the file, or on all mas files in the directory, and wait for all the jobs.
+    public void grade(String suitepaths[], String masfilepath) {
+        File target = new File(masfilepath);
+        if (!target.exists()) {
+            log.a("File " + masfilepath + " not found.");
+            return;
+        }
+        File masfiles[] = target.isDirectory() ? Test.withReference(Test.masFiles(target.getPath()), reference)
+                                               : new File[] { target };
+        String root = target.isDirectory() ? target.getAbsolutePath() : "";
+        String suites[] = new String[suitepaths.length];
+        for (int i=0; i<suitepaths.length; i++) suites[i] = new File(suitepaths[i]).getAbsolutePath();
+        for (File masfile : masfiles) {
+            queue.add(new Job(queue.size()+1, masfile.getAbsolutePath(), root, suites));
+        }
+        unfinished.set(queue.size());
+        serving.set(Math.min(workers, queue.size()));
+        log.a("Grading " + queue.size() + " jobs with " + Math.min(workers, queue.size()) + " workers.");
+
+        List<Thread> slots = new ArrayList<Thread>();
+        for (int w=0; w<Math.min(workers, queue.size()); w++) {
+            final int number = w+1;
+            Thread slot = new Thread(new Runnable() {
+                public void run() { serve(number); }
+            }, "MARIE worker " + number);
+            slots.add(slot);
+            slot.start();
+        }
+        for (Thread slot : slots) {
+            try {
+                slot.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        watchdog.shutdownNow();
+        log.a("All jobs done.");
+        log.flush();
+    }
+
+
+    // A worker process, as seen by the coordinator.
+    class Worker {
+        final int number;
+        final Process process;
+        final BufferedReader in;
+        final BufferedWriter out;
+        volatile boolean timedOut = false;
+
+        Worker(int number) throws IOException {
+            this.number = number;
+            List<String> command = new ArrayList<String>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("-Djava.awt.headless=true");
+            for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+                String name = property.getKey().toString();
+                if (name.startsWith("marie.") && !name.equals("marie.report") && !name.equals("marie.workers"))
+                    command.add("-D" + name + "=" + property.getValue());
+            }
+            command.add(WorkerPool.class.getName());
+            command.add(WorkerFlag);
+            if (force) command.add(HeadlessTest.ForceFlag);
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+            in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            // A worker that hangs on the way up is killed, which ends its output.
+            ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+                public void run() { kill(); }
+            }, StartTimeoutMillis, TimeUnit.MILLISECONDS);
+            String line = null;
+            try {
+                line = in.readLine();
+            } finally {
+                timer.cancel(false);
+                if (!Ready.equals(line)) kill();
+            }
+            if (!Ready.equals(line)) throw new IOException("Worker " + number + " did not start.");
+        }
+
+        void send(String... fields) throws IOException {
+            out.write(join(fields));
+            out.newLine();
+            out.flush();
+        }
+
+        void kill() {
+            process.destroyForcibly();
+        }
+
+        void stop() {
+            try {
+                out.close();     // The worker exits at the end of its input.
+                if (!process.waitFor(5, TimeUnit.SECONDS)) kill();
+            } catch (IOException ex) {
+                kill();
+            } catch (InterruptedException ex) {
+                kill();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Deal jobs to one worker process at a time, replacing it whenever it fails.
+    // The worker is started before a job is taken, so a worker that can't be started
+    // loses no job.
+    private void serve(int number) {
+        Worker worker = null;
+        try {
+            while (unfinished.get()>0) {
+                if (worker==null) worker = new Worker(number);
+                Job job = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (job==null) continue;
+                if (run(worker, job)) {
+                    unfinished.decrementAndGet();
+                    continue;
+                }
+                worker.kill();
+                worker = null;
+                job.attempts++;
+                if (job.attempts<MaxAttempts) {
+                    log.a("Worker " + number + " failed (" + job.failure + ") on " + job.maspath + "; the job is run again.");
+                    queue.add(job);
+                }
+                else {
+                    log.a("Worker " + number + " failed (" + job.failure + ") on " + job.maspath + "; the job is given up.");
+                    giveUp(job);
+                    unfinished.decrementAndGet();
+                }
+                log.flush();
+            }
+        } catch (IOException ex) {
+            log.a("Cannot start worker " + number + ": " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (worker!=null) worker.stop();
+            // The last slot to go gives up the jobs that no worker is left to run.
+            if (serving.decrementAndGet()==0) {
+                Job job;
+                while ((job = queue.poll())!=null) {
+                    job.failure = WorkerNotStarted;
+                    log.a("No worker to run " + job.maspath + "; the job is given up.");
+                    giveUp(job);
+                    unfinished.decrementAndGet();
+                }
+                log.flush();
+            }
+        }
+    }
+
+    // Run a job on a worker. Returns false if the worker crashed or timed out.
+    private boolean run(final Worker worker, Job job) {
+        ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+            public void run() {
+                worker.timedOut = true;
+                worker.kill();
+            }
+        }, jobTimeoutMillis*job.suitepaths.length, TimeUnit.MILLISECONDS);
+        List<String[]> runs = new ArrayList<String[]>();
+        try {
+            String message[] = new String[4+job.suitepaths.length];
+            message[0] = Job;
+            message[1] = Integer.toString(job.id);
+            message[2] = job.maspath;
+            message[3] = job.root;
+            System.arraycopy(job.suitepaths, 0, message, 4, job.suitepaths.length);
+            worker.send(message);
+            String line;
+            while ((line = worker.in.readLine())!=null) {
+                String fields[] = split(line);
+                if (fields[0].equals(Run)) runs.add(fields);
+                else if (fields[0].equals(Done)) break;
+            }
+            if (line==null) throw new IOException("end of output");
+        } catch (IOException ex) {
+            timer.cancel(false);
+            job.failure = worker.timedOut ? WorkerHung : WorkerCrashed;
+            return false;
+        }
+        timer.cancel(false);
+
+        int passed = 0;
+        for (String run[] : runs) if (run[7].equals("pass")) passed++;
+        log.a(job.maspath + " with " + suiteNames(job) + ": passed " + passed + " of " + runs.size()
+              + " runs (worker " + worker.number + ").");
+        if (report!=null) {
+            synchronized (report) {
+                for (String run[] : runs) {
+                    report.add(run[2], Integer.parseInt(run[3]), run[4], run[5], run[6], run[7].equals("pass"),
+                               RunMetrics.decode(run[8]), run[9]);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String suiteNames(Job job) {
+        StringBuilder names = new StringBuilder();
+        for (String suitepath : job.suitepaths) {
+            if (names.length()>0) names.append(", ");
+            names.append(new File(suitepath).getName());
+        }
+        return names.toString();
+    }
+
+    // Report a job given up as one failed run.
+    private void giveUp(Job job) {
+        if (report==null) return;
+        String file = new File(job.maspath.replace(".mas", ".mex")).getName();
+        if (job.root.length()>0) file = new File(job.root).toPath().relativize(new File(job.maspath.replace(".mas", ".mex")).toPath()).toString();
+        report.add(file, 0, "", "", "", false, new RunMetrics(), job.failure);
+    }
+
+
+    // The worker side: run the jobs read from standard input until it ends.
+    static void work(boolean force) throws IOException {
+        // The protocol has standard output to itself. The log's console messages are dropped:
+        // they are in the log files too.
+        PrintStream protocol = new PrintStream(System.out, false, "UTF-8");
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {}
+        }));
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+
+        HeadlessTest tester = new HeadlessTest();
+        tester.report = GradingReport.consolidated(null);
+        tester.setResultCache(ResultCache.getShared(), force);
+        tester.setSelection(TestSelection.DefaultDirectory);
+        // The coordinator passes its marie properties on: calibrate on its reference, if asked to.
+        tester.setReference(System.getProperty("marie.reference"));
+        tester.setBudget(HeadlessTest.budget());
+        protocol.println(Ready);
+        protocol.flush();
+        String line;
+        while ((line = in.readLine())!=null) {
+            String fields[] = split(line);
+            if (!fields[0].equals(Job)) continue;
+            String id = fields[1];
+            tester.reportRoot = fields[3].length()>0 ? new File(fields[3]) : null;
+            // The suites run one after the other, each with a log of its own if there are several.
+            tester.suiteLogs = fields.length>5;
+            for (int i=4; i<fields.length; i++) tester.runSuite(fields[i], fields[2]);
+            ResultLog.sync();
+            synchronized (tester.report) {
+                for (List<GradingReport.Record> runs : tester.report.records.values()) {
+                    for (GradingReport.Record r : runs) {
+                        protocol.println(join(Run, id, r.file, Integer.toString(r.run), r.input, r.expectedOutput,
+                                              r.actualOutput, r.passed ? "pass" : "fail", r.metrics.encode(), r.termination));
+                    }
+                }
+                tester.report.records.clear();
+                tester.report.totals.clear();
+            }
+            protocol.println(join(Done, id));
+            protocol.flush();
+        }
+    }
+
+
+    // Fields are joined by tabs; tabs, line ends and backslashes in them are escaped.
+    static String join(String... fields) {
+        StringBuilder b = new StringBuilder();
+        for (int i=0; i<fields.length; i++) {
+            if (i>0) b.append('\t');
+            String field = fields[i]==null ? "" : fields[i];
+            for (int k=0; k<field.length(); k++) {
+                char c = field.charAt(k);
+                switch (c) {
+                    case '\\': b.append("\\\\"); break;
+                    case '\t': b.append("\\t"); break;
+                    case '\n': b.append("\\n"); break;
+                    case '\r': b.append("\\r"); break;
+                    default: b.append(c);
+                }
+            }
+        }
+        return b.toString();
+    }
+
+    static String[] split(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder b = new StringBuilder();
+        for (int k=0; k<line.length(); k++) {
+            char c = line.charAt(k);
+            if (c=='\t') {
+                fields.add(b.toString());
+                b.setLength(0);
+            }
+            else if (c=='\\' && k+1<line.length()) {
+                char e = line.charAt(++k);
+                b.append(e=='t' ? '\t' : e=='n' ? '\n' : e=='r' ? '\r' : e);
+            }
+            else b.append(c);
+        }
+        fields.add(b.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+
+    public static void main(String args[]) throws IOException {
+        if (args.length>0 && args[0].equals(WorkerFlag)) {
+            work(args.length>1 && args[1].equals(HeadlessTest.ForceFlag));
+            return;
+        }
+        boolean force = args.length>0 && args[0].equals(HeadlessTest.ForceFlag);
+        if (force) args = Arrays.copyOfRange(args, 1, args.length);
+        if (args.length<2) {
+            System.out.println("Usage: WorkerPool [" + HeadlessTest.ForceFlag + "] suitefile... file.mas|directory");
+            System.out.println("Cached results are used unless " + HeadlessTest.ForceFlag + " is given.");
+            System.out.println("Add -Dmarie.workers=n to set the number of worker processes, -Dmarie.jobtimeout=s the job timeout.");
+            System.out.println("Add -Dmarie.report=prefix to write a grading report to prefix.csv and prefix.xml.");
+            System.out.println("Add -Dmarie.reference=file.mas to rank the files against a reference solution.");
+            System.out.println("Add -Dmarie.budget=m to give each case m times the instructions the reference executes.");
+            return;
+        }
+        WorkerPool pool = new WorkerPool();
+        pool.setWorkers(Integer.getInteger("marie.workers", pool.workers));
+        pool.setForce(force);
+        pool.setJobTimeout(Long.getLong("marie.jobtimeout", pool.jobTimeoutMillis/1000));
+        pool.setReference(System.getProperty("marie.reference"));
+        pool.setReport(System.getProperty("marie.report"));
+        String suitepaths[] = new String[args.length-1];
+        System.arraycopy(args, 0, suitepaths, 0, suitepaths.length);
+        pool.grade(suitepaths, args[args.length-1]);
+        pool.setReport(null);
+        ResultLog.sync();
+    }
+}